@@ -0,0 +1,87 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the jobs per second run by a {@link DefaultRunner} on {@link ReentrantExecutor}s of 4
+ * and 64 threads, and on an adaptive one between 1 and 64, when the jobs block for a millisecond
+ * and when they spin for 50 microseconds. The size of the pool left by each run is printed after
+ * its throughput.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class AdaptivePoolBenchmark {
+
+  private static final int JOBS = 5000;
+
+  public static void main(String[] args) throws Exception {
+    for (boolean blocking : new boolean[] { true, false }) {
+      String load = blocking ? "blocking" : "spinning";
+      new Jobs(load + ", 4 threads", new ReentrantExecutor(4, "bench"), blocking).measure(JOBS);
+      new Jobs(load + ", 64 threads", new ReentrantExecutor(64, "bench"), blocking).measure(JOBS);
+      new Jobs(load + ", adaptive 1 to 64", new ReentrantExecutor(1, 64, "bench", 50,
+        TimeUnit.MILLISECONDS), blocking).measure(JOBS);
+    }
+  }
+
+  /**
+   * Starts the requested number of jobs and waits for all of them to complete.
+   */
+  private static final class Jobs extends Benchmark {
+    private final ReentrantExecutor executor;
+
+    private final DefaultRunner runner;
+
+    private final boolean blocking;
+
+    Jobs(String name, ReentrantExecutor executor, boolean blocking) {
+      super(name);
+      this.executor = executor;
+      this.runner = new DefaultRunner(executor);
+      this.blocking = blocking;
+    }
+
+    @Override
+    void iteration(int operations) throws InterruptedException {
+      final CountDownLatch done = new CountDownLatch(operations);
+      Async job = new Async() {
+        @Override
+        public void run(State state) throws InterruptedException {
+          if (blocking) {
+            Thread.sleep(1);
+          } else {
+            long until = System.nanoTime() + 50000;
+            while (System.nanoTime() < until);
+          }
+          done.countDown();
+        }
+      };
+      for (int i = 0; i < operations; i++) {
+        runner.start(job);
+      }
+      done.await();
+    }
+
+    @Override
+    void tearDown() {
+      System.out.println(String.format("%48s %,16d threads", "", executor.getPoolSize()));
+      runner.shutdown();
+    }
+  }
+}
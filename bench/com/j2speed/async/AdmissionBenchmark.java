@@ -0,0 +1,98 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the jobs per second that a burst of submissions gets through a {@link DefaultRunner}
+ * of 2 threads, each job spinning for a microsecond, with an unbounded queue and with a queue of
+ * 1024 jobs under each {@link OverloadPolicy}. Rejected and dropped jobs count as handled.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class AdmissionBenchmark {
+
+  private static final int JOBS = 200000;
+
+  private static final int CAPACITY = 1024;
+
+  public static void main(String[] args) throws Exception {
+    new Burst("unbounded", new ReentrantExecutor(2, "bench")).measure(JOBS);
+    new Burst("bounded, reject", bounded(OverloadPolicy.REJECT)).measure(JOBS);
+    new Burst("bounded, caller runs", bounded(OverloadPolicy.CALLER_RUNS)).measure(JOBS);
+    new Burst("bounded, block up to 1s", bounded(OverloadPolicy.block(1, TimeUnit.SECONDS)))
+            .measure(JOBS);
+    new Burst("bounded, drop oldest", bounded(OverloadPolicy.DROP_OLDEST)).measure(JOBS);
+  }
+
+  private static ReentrantExecutor bounded(OverloadPolicy policy) {
+    return new ReentrantExecutor(0, 2, Long.MAX_VALUE, TimeUnit.NANOSECONDS, "bench", CAPACITY,
+            policy);
+  }
+
+  /**
+   * Submits the requested number of jobs at once and waits for all of them to be handled.
+   */
+  private static final class Burst extends Benchmark {
+    private final ReentrantExecutor executor;
+
+    private final DefaultRunner runner;
+
+    private int maximumDepth;
+
+    Burst(String name, ReentrantExecutor executor) {
+      super(name);
+      this.executor = executor;
+      this.runner = new DefaultRunner(executor);
+    }
+
+    @Override
+    void iteration(int operations) throws InterruptedException {
+      final CountDownLatch done = new CountDownLatch(operations);
+      AsyncCompletion job = new AsyncCompletion() {
+        @Override
+        public void run(State state) {
+          long until = System.nanoTime() + 1000;
+          while (System.nanoTime() < until);
+        }
+
+        @Override
+        public void onFinally() {
+          done.countDown();
+        }
+      };
+      for (int i = 0; i < operations; i++) {
+        try {
+          runner.start(job);
+        } catch (RejectedExecutionException e) {
+          done.countDown();
+        }
+        maximumDepth = Math.max(maximumDepth, executor.getQueueDepth());
+      }
+      done.await();
+    }
+
+    @Override
+    void tearDown() {
+      System.out.printf("  maximum depth %,d, overloads %,d%n", maximumDepth,
+              executor.getOverloadCount());
+      runner.shutdown();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the bytes allocated per {@link DefaultRunner#start(Async)} of an {@link Async} with no
+ * handlers, through an executor that runs the jobs in the calling thread, so that only the
+ * allocations of the runner are counted, and the throughput of the same starts.
+ * <p>
+ * The allocated bytes are read from the HotSpot extension of the {@code ThreadMXBean}; run with
+ * {@code -XX:-DoEscapeAnalysis} to count also the allocations that the JIT would eliminate.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class AllocationBenchmark {
+
+  private static final int STARTS = 1000000;
+
+  private static final Async NOTHING = new Async() {
+    @Override
+    public void run(State state) {}
+  };
+
+  public static void main(String[] args) throws Exception {
+    final DefaultRunner runner = new DefaultRunner(new Inline());
+    try {
+      new Benchmark("start(Async), inline") {
+        @Override
+        void iteration(int operations) {
+          for (int i = 0; i < operations; i++) {
+            runner.start(NOTHING);
+          }
+        }
+      }.measure(STARTS);
+
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean();
+      long id = Thread.currentThread().getId();
+      long before = threads.getThreadAllocatedBytes(id);
+      for (int i = 0; i < STARTS; i++) {
+        runner.start(NOTHING);
+      }
+      long allocated = threads.getThreadAllocatedBytes(id) - before;
+      System.out.printf("start(Async), inline: %.1f bytes allocated per start%n",
+        (double) allocated / STARTS);
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  /**
+   * Runs the jobs in the calling thread.
+   */
+  private static final class Inline implements AsyncExecutor {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+
+    @Override
+    public boolean cancel(Runnable task) {
+      return false;
+    }
+
+    @Override
+    public List<Runnable> cancelPendings() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public void shutdown() {}
+  }
+}
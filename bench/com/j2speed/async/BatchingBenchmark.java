@@ -0,0 +1,103 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.j2speed.async.ConflationBenchmark.Consumer;
+
+/**
+ * Measures the progress values per second, until completion, that a {@link Progressive} delivers
+ * to a transferred handler doing almost nothing per value, one by one and batched.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class BatchingBenchmark {
+
+  private static final int VALUES = 1000000;
+
+  public static void main(String[] args) throws Exception {
+    new Values("progress, transferred one by one") {
+      @Override
+      HandlerSet<ProgressHandler<Integer>> handlers(BatchProgressHandler<Integer> handler) {
+        return HandlerSet.<Integer> of(handler);
+      }
+    }.measure(VALUES);
+
+    new Values("progress, transferred in chunks of 1000") {
+      @Override
+      HandlerSet<ProgressHandler<Integer>> handlers(BatchProgressHandler<Integer> handler) {
+        return HandlerSet.batching(1000, 0, TimeUnit.MILLISECONDS, handler);
+      }
+    }.measure(VALUES);
+
+    new Values("progress, transferred in chunks of 1000 or 1ms") {
+      @Override
+      HandlerSet<ProgressHandler<Integer>> handlers(BatchProgressHandler<Integer> handler) {
+        return HandlerSet.batching(1000, 1, TimeUnit.MILLISECONDS, handler);
+      }
+    }.measure(VALUES);
+  }
+
+  /**
+   * Notifies the requested number of progress values and waits for the completion.
+   */
+  private abstract static class Values extends Benchmark {
+    long sum;
+
+    Values(String name) {
+      super(name);
+    }
+
+    abstract HandlerSet<ProgressHandler<Integer>> handlers(BatchProgressHandler<Integer> handler);
+
+    @Override
+    void iteration(final int operations) throws InterruptedException {
+      final CountDownLatch done = new CountDownLatch(1);
+      SyncRunner.get().start(new Progressive<Integer>() {
+        @Override
+        public void run(ProgressState<Integer> state) {
+          for (int i = 0; i < operations; i++) {
+            state.notifyProgress(Integer.valueOf(i));
+          }
+        }
+      }, handlers(new BatchProgressAdapter<Integer>() {
+        @Override
+        @RunOn(Consumer.class)
+        public void onProgress(Progress<Integer> progress) {
+          sum += progress.get().intValue();
+        }
+
+        @Override
+        @RunOn(Consumer.class)
+        public void onProgressBatch(List<Integer> values) {
+          for (Integer value : values) {
+            sum += value.intValue();
+          }
+        }
+
+        @Override
+        @RunOn(Consumer.class)
+        public void onComplete() {
+          done.countDown();
+        }
+      }));
+      done.await();
+    }
+  }
+}
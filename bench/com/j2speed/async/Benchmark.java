@@ -0,0 +1,112 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * A minimal harness for the micro-benchmarks of this package.
+ * <p>
+ * Each benchmark runs a number of warm-up iterations, to let the JIT settle, and then a number of
+ * measured iterations, reporting the throughput in operations per second as best and average over
+ * the measured iterations. Benchmarks are run through the {@code bench} target of the build, eg:
+ * 
+ * <pre>
+ *   ant bench -Dbench=ProgressNotificationBenchmark
+ * </pre>
+ * 
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+abstract class Benchmark {
+  /**
+   * Warm-up iterations run before measuring.
+   */
+  private static final int WARMUPS = Integer.getInteger("bench.warmups", 5);
+
+  /**
+   * Measured iterations.
+   */
+  private static final int ITERATIONS = Integer.getInteger("bench.iterations", 10);
+
+  /**
+   * The name printed in the report.
+   */
+  @NonNull
+  private final String name;
+
+  /**
+   * Constructor of the class.
+   * 
+   * @param name
+   *          the name printed in the report.
+   */
+  Benchmark(@NonNull String name) {
+    this.name = name;
+  }
+
+  /**
+   * Runs one iteration of the benchmark.
+   * 
+   * @param operations
+   *          the number of operations to perform.
+   * 
+   * @throws Exception
+   *           if the iteration fails.
+   */
+  abstract void iteration(@Nonnegative int operations) throws Exception;
+
+  /**
+   * Releases the resources used by the benchmark, if any.
+   */
+  void tearDown() {}
+
+  /**
+   * Measures the throughput of this benchmark and prints it on the standard output.
+   * 
+   * @param operations
+   *          the number of operations per iteration.
+   * 
+   * @throws Exception
+   *           if an iteration fails.
+   */
+  final void measure(@Nonnegative int operations) throws Exception {
+    try {
+      for (int i = 0; i < WARMUPS; i++) {
+        iteration(operations);
+      }
+      double best = 0;
+      double total = 0;
+      for (int i = 0; i < ITERATIONS; i++) {
+        long start = System.nanoTime();
+        iteration(operations);
+        double throughput = operations * (double) TimeUnit.SECONDS.toNanos(1)
+          / (System.nanoTime() - start);
+        best = Math.max(best, throughput);
+        total += throughput;
+      }
+      System.out.println(String.format("%-48s %,16.0f ops/s (best %,.0f)", name, total / ITERATIONS,
+        best));
+    } finally {
+      tearDown();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Measures the jobs per second run by a {@link DefaultRunner} when 100k jobs, each blocking for ten
+ * milliseconds, are started at once, using a {@link ReentrantExecutor} of 200 threads and a
+ * {@link ThreadPerTaskExecutor} capped at 10k threads.
+ * <p>
+ * The thread per task executor uses platform threads, as the build targets JVMs without virtual
+ * threads, on which it would give them to the jobs instead.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class BlockingJobsBenchmark {
+
+  private static final int JOBS = 100000;
+
+  public static void main(String[] args) throws Exception {
+    new BlockingJobs("reentrant executor, 200 threads", new DefaultRunner(new ReentrantExecutor(
+            200, "bench"))).measure(JOBS);
+    new BlockingJobs("thread per task executor, at most 10000", new DefaultRunner(
+            new ThreadPerTaskExecutor(10000, new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "bench");
+                thread.setDaemon(true);
+                return thread;
+              }
+            }))).measure(JOBS);
+  }
+
+  /**
+   * Starts the requested number of blocking jobs and waits for all of them to complete.
+   */
+  private static final class BlockingJobs extends Benchmark {
+    private final DefaultRunner runner;
+
+    BlockingJobs(String name, DefaultRunner runner) {
+      super(name);
+      this.runner = runner;
+    }
+
+    @Override
+    void iteration(int operations) throws InterruptedException {
+      final CountDownLatch done = new CountDownLatch(operations);
+      Async job = new Async() {
+        @Override
+        public void run(State state) throws InterruptedException {
+          Thread.sleep(10);
+          done.countDown();
+        }
+      };
+      for (int i = 0; i < operations; i++) {
+        runner.start(job);
+      }
+      done.await();
+    }
+
+    @Override
+    void tearDown() {
+      runner.shutdown();
+    }
+  }
+}
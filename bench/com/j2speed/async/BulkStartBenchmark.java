@@ -0,0 +1,111 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the requests per second fanned out by a loop of
+ * {@link DefaultRunner#start(Request, ResponseHandler...)} calls and by a single
+ * {@link DefaultRunner#startAll(java.util.Collection, HandlerSet, CompletionHandler...)}, waiting for all the
+ * responses, on a {@link ReentrantExecutor}. The time spent by the caller submitting the requests
+ * is also reported, per request.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class BulkStartBenchmark {
+
+  private static final int REQUESTS = 100000;
+
+  private static final int THREADS = 4;
+
+  public static void main(String[] args) throws Exception {
+    final DefaultRunner runner = new DefaultRunner(THREADS, "bench");
+    try {
+      new FanOut("loop of start") {
+        @Override
+        void fanOut(List<Request<Integer>> requests, ResponseHandler<Integer> handler) {
+          for (Request<Integer> request : requests) {
+            runner.start(request, handler);
+          }
+        }
+      }.measure(REQUESTS);
+
+      new FanOut("startAll") {
+        @Override
+        void fanOut(List<Request<Integer>> requests, ResponseHandler<Integer> handler) {
+          runner.startAll(requests, HandlerSet.of(handler));
+        }
+      }.measure(REQUESTS);
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  /**
+   * Starts the requested number of requests and waits for all the responses.
+   */
+  private abstract static class FanOut extends Benchmark {
+    private final String name;
+
+    /**
+     * The time spent submitting, and the requests submitted, over all the iterations.
+     */
+    private long submitting;
+    private long submitted;
+
+    FanOut(String name) {
+      super(name);
+      this.name = name;
+    }
+
+    abstract void fanOut(List<Request<Integer>> requests, ResponseHandler<Integer> handler);
+
+    @Override
+    void iteration(int operations) throws InterruptedException {
+      final CountDownLatch done = new CountDownLatch(operations);
+      List<Request<Integer>> requests = new ArrayList<Request<Integer>>(operations);
+      for (int i = 0; i < operations; i++) {
+        final Integer value = Integer.valueOf(i);
+        requests.add(new Request<Integer>() {
+          @Override
+          public Integer run(State state) {
+            return value;
+          }
+        });
+      }
+      ResponseHandler<Integer> handler = new ResponseAdapter<Integer>() {
+        @Override
+        public void onResponse(Result<Integer> result) {
+          done.countDown();
+        }
+      };
+      long start = System.nanoTime();
+      fanOut(requests, handler);
+      submitting += System.nanoTime() - start;
+      submitted += operations;
+      done.await();
+    }
+
+    @Override
+    void tearDown() {
+      System.out.println(String.format("%-48s %,16.0f ns per request", name + ", submission",
+        submitting / (double) submitted));
+    }
+  }
+}
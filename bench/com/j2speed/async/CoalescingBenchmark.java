@@ -0,0 +1,62 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the call-backs per second that a chatty producer can transfer to the EDT, posting one
+ * event per call-back and coalescing them with a {@link CoalescingTransferer}.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class CoalescingBenchmark {
+
+  private static final int CALLBACKS = 200000;
+
+  public static void main(String[] args) throws Exception {
+    ThreadTransferer edt = ThreadTransferers.of(Edt.class);
+    new Transfers("EDT, one event per call-back", edt).measure(CALLBACKS);
+    new Transfers("EDT, coalesced", new CoalescingTransferer(edt)).measure(CALLBACKS);
+  }
+
+  /**
+   * Transfers the requested number of call-backs and waits for all of them to run.
+   */
+  private static final class Transfers extends Benchmark {
+    private final ThreadTransferer transferer;
+
+    Transfers(String name, ThreadTransferer transferer) {
+      super(name);
+      this.transferer = transferer;
+    }
+
+    @Override
+    void iteration(int operations) throws InterruptedException {
+      final CountDownLatch done = new CountDownLatch(operations);
+      Runnable callback = new Runnable() {
+        @Override
+        public void run() {
+          done.countDown();
+        }
+      };
+      for (int i = 0; i < operations; i++) {
+        transferer.execute(callback);
+      }
+      done.await();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Measures the progress notifications per second, until completion, of a {@link Progressive}
+ * notifying a transferred handler that spends about a microsecond per call-back, unbounded,
+ * conflated and bounded.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class ConflationBenchmark {
+
+  private static final int NOTIFICATIONS = 200000;
+
+  public static void main(String[] args) throws Exception {
+    new Notifications("progress, transferred") {
+      @Override
+      HandlerSet<ProgressHandler<Integer>> handlers(ProgressHandler<Integer> handler) {
+        return HandlerSet.of(handler);
+      }
+    }.measure(NOTIFICATIONS);
+
+    new Notifications("progress, transferred and conflated") {
+      @Override
+      HandlerSet<ProgressHandler<Integer>> handlers(ProgressHandler<Integer> handler) {
+        return HandlerSet.conflating(handler);
+      }
+    }.measure(NOTIFICATIONS);
+
+    new Notifications("progress, transferred and bounded to 1024") {
+      @Override
+      HandlerSet<ProgressHandler<Integer>> handlers(ProgressHandler<Integer> handler) {
+        return HandlerSet.bounded(1024, handler);
+      }
+    }.measure(NOTIFICATIONS);
+
+    new Notifications("progress, transferred and bounded to 1024, spinning") {
+      @Override
+      HandlerSet<ProgressHandler<Integer>> handlers(ProgressHandler<Integer> handler) {
+        return HandlerSet.bounded(1024, WaitStrategy.spinThenPark(100), handler);
+      }
+    }.measure(NOTIFICATIONS);
+  }
+
+  /**
+   * Notifies the requested number of progress values and waits for the completion.
+   */
+  private abstract static class Notifications extends Benchmark {
+    Notifications(String name) {
+      super(name);
+    }
+
+    abstract HandlerSet<ProgressHandler<Integer>> handlers(ProgressHandler<Integer> handler);
+
+    @Override
+    void iteration(final int operations) throws InterruptedException {
+      final CountDownLatch done = new CountDownLatch(1);
+      SyncRunner.get().start(new Progressive<Integer>() {
+        @Override
+        public void run(ProgressState<Integer> state) {
+          for (int i = 0; i < operations; i++) {
+            state.notifyProgress(Integer.valueOf(i));
+          }
+        }
+      }, handlers(new ProgressAdapter<Integer>() {
+        @Override
+        @RunOn(Consumer.class)
+        public void onProgress(Progress<Integer> progress) {
+          progress.get();
+          long until = System.nanoTime() + 1000;
+          while (System.nanoTime() < until);
+        }
+
+        @Override
+        @RunOn(Consumer.class)
+        public void onComplete() {
+          done.countDown();
+        }
+      }));
+      done.await();
+    }
+  }
+
+  /**
+   * Transfers to a dedicated consumer thread.
+   */
+  static final class Consumer implements ThreadTransferer {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "consumer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    @Override
+    public boolean isOnTargetThread() {
+      return "consumer".equals(Thread.currentThread().getName());
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+      executor.execute(runnable);
+    }
+
+    @Override
+    public void transfer(Runnable[] runnables) {
+      for (Runnable runnable : runnables) {
+        execute(runnable);
+      }
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the goodput of a {@link DefaultRunner} of 2 threads overloaded by a burst of jobs of
+ * 100 microseconds each, whose clients wait for 50 milliseconds: the jobs that complete in time,
+ * those that run late for nothing and those that expire without running, started plainly and
+ * with their deadline.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class DeadlineBenchmark {
+
+  private static final int JOBS = 10000;
+
+  private static final long TIMEOUT = TimeUnit.MILLISECONDS.toNanos(50);
+
+  public static void main(String[] args) throws Exception {
+    // warm up
+    measure(null, false);
+    measure(null, true);
+    measure("started plainly", false);
+    measure("started by the deadline", true);
+  }
+
+  private static void measure(String name, boolean expiring) throws InterruptedException {
+    DefaultRunner runner = new DefaultRunner(2, "bench");
+    try {
+      final CountDownLatch done = new CountDownLatch(JOBS);
+      final AtomicInteger onTime = new AtomicInteger();
+      final AtomicInteger late = new AtomicInteger();
+      long start = System.nanoTime();
+      for (int i = 0; i < JOBS; i++) {
+        final long deadline = System.nanoTime() + TIMEOUT;
+        AsyncCompletion job = new AsyncCompletion() {
+          @Override
+          public void run(State state) {
+            long until = System.nanoTime() + 100000;
+            while (System.nanoTime() < until);
+            if (System.nanoTime() - deadline > 0) {
+              late.incrementAndGet();
+            } else {
+              onTime.incrementAndGet();
+            }
+          }
+
+          @Override
+          public void onFinally() {
+            done.countDown();
+          }
+        };
+        if (expiring) {
+          runner.startBy(deadline, job);
+        } else {
+          runner.start(job);
+        }
+      }
+      done.await();
+      long elapsed = System.nanoTime() - start;
+      if (name != null) {
+        System.out.printf("%-30s on time %,6d, late %,6d, expired %,6d, in %,6d ms%n", name,
+                onTime.get(), late.get(), JOBS - onTime.get() - late.get(),
+                TimeUnit.NANOSECONDS.toMillis(elapsed));
+      }
+    } finally {
+      runner.shutdown();
+    }
+  }
+}
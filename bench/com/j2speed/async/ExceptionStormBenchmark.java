@@ -0,0 +1,75 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Measures the failing {@link Request}s per second that can be handled when every execution ends
+ * with an exception, both by a specific {@code onException} overload and by the
+ * {@code onException(Throwable)} fallback.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class ExceptionStormBenchmark {
+
+  private static final int FAILURES = 200000;
+
+  public static void main(String[] args) throws Exception {
+    new Failures("exception, specific overload", new ExceptionResponse() {
+      @SuppressWarnings("unused")
+      public void onException(IOException exception) {}
+    }).measure(FAILURES);
+
+    new Failures("exception, fallback", new ExceptionResponse()).measure(FAILURES);
+  }
+
+  /**
+   * Starts the requested number of failing {@link Request}s, on the calling thread.
+   */
+  private static final class Failures extends Benchmark {
+    /**
+     * Preallocated, so that only the handling is measured.
+     */
+    private static final Exception FAILURE = new FileNotFoundException();
+
+    private final ResponseHandler<Object> handler;
+
+    Failures(String name, ResponseHandler<Object> handler) {
+      super(name);
+      this.handler = handler;
+    }
+
+    @Override
+    void iteration(int operations) {
+      Request<Object> request = new Request<Object>() {
+        @Override
+        public Object run(State state) throws Exception {
+          throw FAILURE;
+        }
+      };
+      for (int i = 0; i < operations; i++) {
+        SyncRunner.get().start(request, handler);
+      }
+    }
+  }
+
+  public static class ExceptionResponse extends ResponseAdapter<Object> {
+    @Override
+    public void onException(Throwable exception) {}
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the tasks per second that 1 to 64 producers can submit to, and have run by, a pool of
+ * 4 threads, queuing the tasks in the {@link ExecutionQueue} and in the synchronous queue with a
+ * buffer it replaced.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class ExecutionQueueBenchmark {
+
+  private static final int TASKS = 256000;
+
+  private static final int THREADS = 4;
+
+  public static void main(String[] args) throws Exception {
+    for (int producers : new int[] { 1, 4, 16, 64 }) {
+      HybridQueue hybrid = new HybridQueue();
+      new Submissions("synchronous and buffer, " + producers + " producers", producers,
+              new ThreadPoolExecutor(0, THREADS, Long.MAX_VALUE, TimeUnit.NANOSECONDS, hybrid,
+                      hybrid)).measure(TASKS);
+      ExecutionQueue queue = new ExecutionQueue();
+      new Submissions("execution queue, " + producers + " producers", producers,
+              new ThreadPoolExecutor(0, THREADS, Long.MAX_VALUE, TimeUnit.NANOSECONDS, queue,
+                      queue)).measure(TASKS);
+    }
+  }
+
+  /**
+   * Submits the requested number of tasks from a number of producers and waits for all of them to
+   * run.
+   */
+  private static final class Submissions extends Benchmark {
+    private final int producers;
+
+    private final ThreadPoolExecutor executor;
+
+    Submissions(String name, int producers, ThreadPoolExecutor executor) {
+      super(name);
+      this.producers = producers;
+      this.executor = executor;
+    }
+
+    @Override
+    void iteration(int operations) throws InterruptedException {
+      final int tasks = operations / producers;
+      final CountDownLatch done = new CountDownLatch(tasks * producers);
+      final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+          done.countDown();
+        }
+      };
+      Thread[] threads = new Thread[producers];
+      for (int p = 0; p < producers; p++) {
+        threads[p] = new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < tasks; i++) {
+              executor.execute(task);
+            }
+          }
+        };
+        threads[p].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      done.await();
+    }
+
+    @Override
+    void tearDown() {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of handing a task off to the idle thread of a {@link ReentrantExecutor},
+ * from submission to run, for each {@link WaitStrategy} of its idle threads. At low load a task is
+ * submitted every millisecond, at high load as soon as the previous one ran.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class HandOffBenchmark {
+
+  private static final int LOW = 2000;
+
+  private static final int HIGH = 50000;
+
+  public static void main(String[] args) throws Exception {
+    measure("park", WaitStrategy.PARK);
+    measure("spin", WaitStrategy.SPIN);
+    measure("spin 100, then yield", WaitStrategy.spinThenYield(100));
+    measure("spin 10000, then park", WaitStrategy.spinThenPark(10000));
+  }
+
+  private static void measure(String name, WaitStrategy waiting) throws InterruptedException {
+    ReentrantExecutor executor = new ReentrantExecutor(1, "bench", waiting);
+    try {
+      // warm up, and start the thread
+      handOffs(executor, HIGH, false);
+      report(name + ", low load", handOffs(executor, LOW, true));
+      report(name + ", high load", handOffs(executor, HIGH, false));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static long[] handOffs(ReentrantExecutor executor, int count, boolean pause)
+          throws InterruptedException {
+    final long[] latencies = new long[count];
+    for (int i = 0; i < count; i++) {
+      if (pause) {
+        Thread.sleep(1);
+      }
+      HandOff handOff = new HandOff();
+      handOff.submitted = System.nanoTime();
+      executor.execute(handOff);
+      while (handOff.ran == 0) {
+        Thread.yield();
+      }
+      latencies[i] = handOff.ran - handOff.submitted;
+    }
+    return latencies;
+  }
+
+  private static void report(String name, long[] latencies) {
+    Arrays.sort(latencies);
+    int count = latencies.length;
+    System.out.printf("%-40s p50 %,10d ns, p99 %,10d ns, max %,10d us%n", name,
+            latencies[count / 2], latencies[count * 99 / 100],
+            TimeUnit.NANOSECONDS.toMicros(latencies[count - 1]));
+  }
+
+  /**
+   * A task recording when it ran.
+   */
+  private static final class HandOff implements Runnable {
+    long submitted;
+
+    volatile long ran;
+
+    @Override
+    public void run() {
+      ran = System.nanoTime();
+    }
+  }
+}
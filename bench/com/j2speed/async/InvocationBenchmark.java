@@ -0,0 +1,104 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import static java.lang.reflect.Modifier.isPublic;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import com.j2speed.async.HandlingProcessor.Dispatch;
+
+/**
+ * Compares the invocation of typed {@code onException} overloads and of transferers through the
+ * method handles bound by {@link HandlingProcessor} against the plain reflective path, that
+ * resolves the accessibility and boxes the arguments on every call.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class InvocationBenchmark {
+
+  private static final int INVOCATIONS = 2000000;
+
+  public static void main(String[] args) throws Exception {
+    final Throwable failure = new FileNotFoundException();
+    final ExceptionHandler handler = new ExceptionAdapter() {
+      @SuppressWarnings("unused")
+      public void onException(IOException exception) {}
+    };
+    final Method onException = handler.getClass().getMethod("onException", IOException.class);
+    final Dispatch dispatch = (Dispatch) HandlingProcessor.dispatchOf(handler.getClass());
+    final Method transfer = Inline.class.getDeclaredMethod("transfer", Runnable.class);
+    final ThreadTransferer transferer = ThreadTransferers.of(Inline.class);
+    final Runnable nop = new Runnable() {
+      @Override
+      public void run() {}
+    };
+
+    new Benchmark("onException(IOException), reflective") {
+      @Override
+      void iteration(int operations) throws Exception {
+        for (int i = 0; i < operations; i++) {
+          if (onException.getParameterTypes()[0] != Throwable.class) {
+            if (!isPublic(onException.getDeclaringClass().getModifiers())) {
+              onException.setAccessible(true);
+            }
+            onException.invoke(handler, failure);
+          }
+        }
+      }
+    }.measure(INVOCATIONS);
+
+    new Benchmark("onException(IOException), bound") {
+      @Override
+      void iteration(int operations) {
+        for (int i = 0; i < operations; i++) {
+          dispatch.onException(failure.getClass()).handle(handler, failure);
+        }
+      }
+    }.measure(INVOCATIONS);
+
+    new Benchmark("transfer, reflective") {
+      @Override
+      void iteration(int operations) throws Exception {
+        for (int i = 0; i < operations; i++) {
+          transfer.invoke(null, nop);
+        }
+      }
+    }.measure(INVOCATIONS);
+
+    new Benchmark("transfer, bound") {
+      @Override
+      void iteration(int operations) {
+        for (int i = 0; i < operations; i++) {
+          transferer.execute(nop);
+        }
+      }
+    }.measure(INVOCATIONS);
+  }
+
+  /**
+   * A transferer that runs on the calling thread, so that only the invocation cost is measured.
+   */
+  static final class Inline {
+    private Inline() {}
+
+    public static void transfer(Runnable runnable) {
+      runnable.run();
+    }
+  }
+}
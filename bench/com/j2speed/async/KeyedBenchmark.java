@@ -0,0 +1,86 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the jobs per second run by a {@link DefaultRunner} of 4 threads, when the jobs of each
+ * of 4 keys must not overlap, serialising them with a lock per key and with keyed starts. Each
+ * job spins for a microsecond.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class KeyedBenchmark {
+
+  private static final int JOBS = 200000;
+
+  private static final int KEYS = 4;
+
+  public static void main(String[] args) throws Exception {
+    final DefaultRunner runner = new DefaultRunner(4, "bench");
+    try {
+      new Benchmark("lock per key") {
+        @Override
+        void iteration(int operations) throws InterruptedException {
+          final CountDownLatch done = new CountDownLatch(operations);
+          final Object[] locks = new Object[KEYS];
+          for (int k = 0; k < KEYS; k++) {
+            locks[k] = new Object();
+          }
+          for (int i = 0; i < operations; i++) {
+            final Object lock = locks[i % KEYS];
+            runner.start(new Async() {
+              @Override
+              public void run(State state) {
+                synchronized (lock) {
+                  spin();
+                }
+                done.countDown();
+              }
+            });
+          }
+          done.await();
+        }
+      }.measure(JOBS);
+
+      new Benchmark("keyed start") {
+        @Override
+        void iteration(int operations) throws InterruptedException {
+          final CountDownLatch done = new CountDownLatch(operations);
+          Async job = new Async() {
+            @Override
+            public void run(State state) {
+              spin();
+              done.countDown();
+            }
+          };
+          for (int i = 0; i < operations; i++) {
+            runner.start(Integer.valueOf(i % KEYS), job);
+          }
+          done.await();
+        }
+      }.measure(JOBS);
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  static void spin() {
+    long until = System.nanoTime() + 1000;
+    while (System.nanoTime() < until);
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the iterations per second of a loop spending about a microsecond per iteration, run by
+ * an {@link AsyncLoop} and by a {@link ParallelAsyncLoop} over {@value #THREADS} splits, unordered
+ * and ordered, on a {@link ReentrantExecutor}.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class ParallelLoopBenchmark {
+
+  private static final int ITERATIONS = 200000;
+
+  private static final int THREADS = 4;
+
+  public static void main(String[] args) throws Exception {
+    final DefaultRunner runner = new DefaultRunner(THREADS, "bench");
+    try {
+      new Loop("AsyncLoop", runner) {
+        @Override
+        Progressive<Integer> loop(final int operations) {
+          return new AsyncLoop<Integer>() {
+            private int index;
+
+            @Override
+            protected boolean hasNext() {
+              return index < operations;
+            }
+
+            @Override
+            protected Integer next() {
+              return work(index++);
+            }
+          };
+        }
+      }.measure(ITERATIONS);
+
+      new Loop("ParallelAsyncLoop, unordered", runner) {
+        @Override
+        Progressive<Integer> loop(int operations) {
+          return new ParallelAsyncLoop<Integer>(0, operations, THREADS, false) {
+            @Override
+            protected Integer next(long index) {
+              return work((int) index);
+            }
+          };
+        }
+      }.measure(ITERATIONS);
+
+      new Loop("ParallelAsyncLoop, ordered", runner) {
+        @Override
+        Progressive<Integer> loop(int operations) {
+          return new ParallelAsyncLoop<Integer>(0, operations, THREADS, true) {
+            @Override
+            protected Integer next(long index) {
+              return work((int) index);
+            }
+          };
+        }
+      }.measure(ITERATIONS);
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  /**
+   * Spends about a microsecond and returns the specified value.
+   */
+  static Integer work(int value) {
+    long until = System.nanoTime() + 1000;
+    while (System.nanoTime() < until);
+    return Integer.valueOf(value);
+  }
+
+  /**
+   * Runs a loop of the requested number of iterations and waits for its completion.
+   */
+  private abstract static class Loop extends Benchmark {
+    private final DefaultRunner runner;
+
+    Loop(String name, DefaultRunner runner) {
+      super(name);
+      this.runner = runner;
+    }
+
+    abstract Progressive<Integer> loop(int operations);
+
+    @Override
+    void iteration(int operations) throws InterruptedException {
+      final CountDownLatch done = new CountDownLatch(1);
+      runner.start(loop(operations), new ProgressAdapter<Integer>() {
+        @Override
+        public void onProgress(Progress<Integer> progress) {
+          progress.get();
+        }
+
+        @Override
+        public void onFinally() {
+          done.countDown();
+        }
+      });
+      done.await();
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency, from start to run, of interactive jobs started every couple of
+ * milliseconds while a {@link DefaultRunner} of 2 threads is saturated by a backlog of batch jobs
+ * of 100 microseconds each, with all the jobs at the same priority and with the interactive ones
+ * {@link Priority#HIGH} and the batch ones {@link Priority#LOW}.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class PriorityBenchmark {
+
+  private static final int BATCH = 20000;
+
+  private static final int INTERACTIVE = 200;
+
+  public static void main(String[] args) throws Exception {
+    measure("same priority", Priority.NORMAL, Priority.NORMAL);
+    measure("interactive high, batch low", Priority.HIGH, Priority.LOW);
+  }
+
+  private static void measure(String name, Priority interactive, Priority batch)
+          throws InterruptedException {
+    DefaultRunner runner = new DefaultRunner(2, "bench");
+    try {
+      final CountDownLatch done = new CountDownLatch(BATCH + INTERACTIVE);
+      for (int i = 0; i < BATCH; i++) {
+        runner.start(new Job(batch, done) {
+          @Override
+          public void run(State state) {
+            long until = System.nanoTime() + 100000;
+            while (System.nanoTime() < until);
+            super.run(state);
+          }
+        });
+      }
+      final long[] latencies = new long[INTERACTIVE];
+      for (int i = 0; i < INTERACTIVE; i++) {
+        final int index = i;
+        final long started = System.nanoTime();
+        runner.start(new Job(interactive, done) {
+          @Override
+          public void run(State state) {
+            latencies[index] = System.nanoTime() - started;
+            super.run(state);
+          }
+        });
+        Thread.sleep(2);
+      }
+      done.await();
+      Arrays.sort(latencies);
+      System.out.printf("%-40s p50 %,10d us, p99 %,10d us, max %,10d us%n", name,
+              TimeUnit.NANOSECONDS.toMicros(latencies[INTERACTIVE / 2]),
+              TimeUnit.NANOSECONDS.toMicros(latencies[INTERACTIVE * 99 / 100]),
+              TimeUnit.NANOSECONDS.toMicros(latencies[INTERACTIVE - 1]));
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  /**
+   * A job with a priority.
+   */
+  private static class Job implements Async, Prioritized {
+    private final Priority priority;
+
+    private final CountDownLatch done;
+
+    Job(Priority priority, CountDownLatch done) {
+      this.priority = priority;
+      this.done = done;
+    }
+
+    @Override
+    public Priority getPriority() {
+      return priority;
+    }
+
+    @Override
+    public void run(State state) {
+      done.countDown();
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+/**
+ * Measures the progress notifications per second that a chatty {@link Progressive} can deliver to
+ * its {@link ProgressHandler}s, both directly and through a {@link RunOn} transfer.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class ProgressNotificationBenchmark {
+
+  private static final int NOTIFICATIONS = 1000000;
+
+  public static void main(String[] args) throws Exception {
+    new Notifications("progress, direct", new ProgressAdapter<Integer>() {
+      @Override
+      public void onProgress(Progress<Integer> progress) {
+        progress.get();
+      }
+    }).measure(NOTIFICATIONS);
+
+    new Notifications("progress, @RunOn", new ProgressAdapter<Integer>() {
+      @Override
+      @RunOn(Inline.class)
+      public void onProgress(Progress<Integer> progress) {
+        progress.get();
+      }
+    }).measure(NOTIFICATIONS);
+
+    new Notifications("progress, @RunOn on target thread", new ProgressAdapter<Integer>() {
+      @Override
+      @RunOn(Current.class)
+      public void onProgress(Progress<Integer> progress) {
+        progress.get();
+      }
+    }).measure(NOTIFICATIONS);
+  }
+
+  /**
+   * Notifies the requested number of progress values to a handler, on the calling thread.
+   */
+  private static final class Notifications extends Benchmark {
+    private final ProgressHandler<Integer> handler;
+
+    Notifications(String name, ProgressHandler<Integer> handler) {
+      super(name);
+      this.handler = handler;
+    }
+
+    @Override
+    void iteration(final int operations) {
+      SyncRunner.get().start(new Progressive<Integer>() {
+        @Override
+        public void run(ProgressState<Integer> state) {
+          Integer value = Integer.valueOf(0);
+          for (int i = 0; i < operations; i++) {
+            state.notifyProgress(value);
+          }
+        }
+      }, handler);
+    }
+  }
+
+  /**
+   * A transferer that runs on the calling thread, so that only the dispatch cost is measured.
+   */
+  public static final class Inline {
+    private Inline() {}
+
+    public static void transfer(Runnable runnable) {
+      runnable.run();
+    }
+  }
+
+  /**
+   * A {@link ThreadTransferer} whose target is always the calling thread, so that the transfer is
+   * skipped.
+   */
+  static final class Current implements ThreadTransferer {
+    @Override
+    public boolean isOnTargetThread() {
+      return true;
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+      runnable.run();
+    }
+
+    @Override
+    public void transfer(Runnable[] runnables) {
+      for (Runnable runnable : runnables) {
+        runnable.run();
+      }
+    }
+  }
+}
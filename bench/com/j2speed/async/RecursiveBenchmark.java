@@ -0,0 +1,134 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the elements per second summed by a {@link Request} computing them in one go and by a
+ * {@link RecursiveRequest} split down to parts of 1024 elements, spending about a microsecond per
+ * element, on a {@link ReentrantExecutor} of {@value #THREADS} threads.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class RecursiveBenchmark {
+
+  private static final int ELEMENTS = 200000;
+
+  private static final int THREADS = 4;
+
+  public static void main(String[] args) throws Exception {
+    final DefaultRunner runner = new DefaultRunner(THREADS, "bench");
+    try {
+      new Summing("Request", runner) {
+        @Override
+        Request<Long> request(final int operations) {
+          return new Request<Long>() {
+            @Override
+            public Long run(State state) {
+              return sum(0, operations);
+            }
+          };
+        }
+      }.measure(ELEMENTS);
+
+      new Summing("RecursiveRequest", runner) {
+        @Override
+        Request<Long> request(int operations) {
+          return new Sum(0, operations);
+        }
+      }.measure(ELEMENTS);
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  /**
+   * Sums the elements of the specified range, spending about a microsecond on each.
+   */
+  static Long sum(int from, int to) {
+    long sum = 0;
+    for (int i = from; i < to; i++) {
+      long until = System.nanoTime() + 1000;
+      while (System.nanoTime() < until);
+      sum += i;
+    }
+    return Long.valueOf(sum);
+  }
+
+  /**
+   * Splits the range in halves down to 1024 elements.
+   */
+  private static final class Sum extends RecursiveRequest<Long> {
+    private final int from;
+    private final int to;
+
+    Sum(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected boolean isSmall() {
+      return to - from <= 1024;
+    }
+
+    @Override
+    protected Long compute(State state) {
+      return sum(from, to);
+    }
+
+    @Override
+    protected List<Sum> split() {
+      int middle = (from + to) >>> 1;
+      return Arrays.asList(new Sum(from, middle), new Sum(middle, to));
+    }
+
+    @Override
+    protected Long combine(List<Long> results) {
+      return Long.valueOf(results.get(0).longValue() + results.get(1).longValue());
+    }
+  }
+
+  /**
+   * Starts a request summing the requested number of elements and waits for its response.
+   */
+  private abstract static class Summing extends Benchmark {
+    private final DefaultRunner runner;
+
+    Summing(String name, DefaultRunner runner) {
+      super(name);
+      this.runner = runner;
+    }
+
+    abstract Request<Long> request(int operations);
+
+    @Override
+    void iteration(int operations) throws InterruptedException {
+      final CountDownLatch done = new CountDownLatch(1);
+      runner.start(request(operations), new ResponseAdapter<Long>() {
+        @Override
+        public void onResponse(Result<Long> value) {
+          value.get();
+          done.countDown();
+        }
+      });
+      done.await();
+    }
+  }
+}
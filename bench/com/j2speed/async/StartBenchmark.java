@@ -0,0 +1,69 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+/**
+ * Measures the starts per second of a request that is its own response handler, with an extra
+ * handler, both with the varargs {@code start} and with a prepared {@link HandlerSet}. The
+ * {@link SyncRunner} is used, so that only the cost of starting and running a job is measured.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class StartBenchmark {
+
+  private static final int STARTS = 2000000;
+
+  public static void main(String[] args) throws Exception {
+    final AsyncResponse<Integer> request = new AsyncResponse<Integer>() {
+      @Override
+      public Integer run(State state) {
+        return Integer.valueOf(0);
+      }
+
+      @Override
+      public void onResponse(Result<Integer> result) {
+        result.get();
+      }
+    };
+    final ResponseHandler<Integer> handler = new ResponseAdapter<Integer>() {
+      @Override
+      public void onResponse(Result<Integer> result) {
+        result.get();
+      }
+    };
+    final AsyncRunner runner = SyncRunner.get();
+
+    new Benchmark("start, varargs") {
+      @Override
+      @SuppressWarnings("unchecked")
+      void iteration(int operations) {
+        for (int i = 0; i < operations; i++) {
+          runner.start(request, handler);
+        }
+      }
+    }.measure(STARTS);
+
+    final HandlerSet<ResponseHandler<Integer>> handlers = HandlerSet.of(request, handler);
+    new Benchmark("start, handler set") {
+      @Override
+      void iteration(int operations) {
+        for (int i = 0; i < operations; i++) {
+          runner.start(request, handlers);
+        }
+      }
+    }.measure(STARTS);
+  }
+}
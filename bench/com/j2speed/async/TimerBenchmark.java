@@ -0,0 +1,112 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the timers per second that can be scheduled, with delays between 1 and 10 seconds, and
+ * then cancelled, while 500k of them are pending, with a {@link ScheduledThreadPoolExecutor}
+ * removing the cancelled ones, with the bare {@link TimingWheel} and with
+ * {@link DefaultRunner#schedule}, that also builds a job per timer.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class TimerBenchmark {
+
+  private static final int TIMERS = 500000;
+
+  public static void main(String[] args) throws Exception {
+    final long[] delays = new long[TIMERS];
+    Random random = new Random(42);
+    for (int i = 0; i < TIMERS; i++) {
+      delays[i] = 1000 + random.nextInt(9000);
+    }
+    final Runnable nothing = new Runnable() {
+      @Override
+      public void run() {}
+    };
+    final Async async = new Async() {
+      @Override
+      public void run(State state) {}
+    };
+
+    final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    scheduler.setRemoveOnCancelPolicy(true);
+    new Benchmark("scheduled thread pool, remove on cancel") {
+      @Override
+      void iteration(int operations) {
+        ScheduledFuture<?>[] futures = new ScheduledFuture<?>[operations];
+        for (int i = 0; i < operations; i++) {
+          futures[i] = scheduler.schedule(nothing, delays[i], TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < operations; i++) {
+          futures[i].cancel(false);
+        }
+      }
+
+      @Override
+      void tearDown() {
+        scheduler.shutdownNow();
+      }
+    }.measure(TIMERS);
+
+    final TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 1024, "bench");
+    new Benchmark("timing wheel, bare timers") {
+      @Override
+      void iteration(int operations) {
+        TimingWheel.Timer[] timers = new TimingWheel.Timer[operations];
+        long now = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+          timers[i] = wheel.schedule(new TimingWheel.Timer() {
+            @Override
+            void expire() {}
+          }, now + TimeUnit.MILLISECONDS.toNanos(delays[i]));
+        }
+        for (int i = 0; i < operations; i++) {
+          timers[i].cancel();
+        }
+      }
+
+      @Override
+      void tearDown() {
+        wheel.stop();
+      }
+    }.measure(TIMERS);
+
+    final DefaultRunner runner = new DefaultRunner(1, "bench");
+    new Benchmark("runner, timing wheel") {
+      @Override
+      void iteration(int operations) {
+        AsyncRun[] runs = new AsyncRun[operations];
+        for (int i = 0; i < operations; i++) {
+          runs[i] = runner.schedule(async, delays[i], TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < operations; i++) {
+          runs[i].cancel();
+        }
+      }
+
+      @Override
+      void tearDown() {
+        runner.shutdown();
+      }
+    }.measure(TIMERS);
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the jobs per second run by a {@link DefaultRunner}, when each job started from outside
+ * starts a number of small nested jobs, using a {@link ReentrantExecutor} and a
+ * {@link WorkStealingExecutor} with as many threads as the available processors.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class WorkStealingBenchmark {
+
+  private static final int JOBS = 400000;
+
+  private static final int NESTED = 16;
+
+  public static void main(String[] args) throws Exception {
+    int threads = Runtime.getRuntime().availableProcessors();
+    new NestedStarts("reentrant executor, " + threads + " threads", new DefaultRunner(
+            new ReentrantExecutor(threads, "bench"))).measure(JOBS);
+    new NestedStarts("work stealing executor, " + threads + " threads", new DefaultRunner(
+            new WorkStealingExecutor(threads, "bench"))).measure(JOBS);
+  }
+
+  /**
+   * Starts jobs that start {@link #NESTED} nested jobs each and waits for all of them to run.
+   */
+  private static final class NestedStarts extends Benchmark {
+    private final DefaultRunner runner;
+
+    NestedStarts(String name, DefaultRunner runner) {
+      super(name);
+      this.runner = runner;
+    }
+
+    @Override
+    void iteration(int operations) throws InterruptedException {
+      final int outers = operations / (NESTED + 1);
+      final CountDownLatch done = new CountDownLatch(outers * (NESTED + 1));
+      final Async nested = new Async() {
+        @Override
+        public void run(State state) {
+          done.countDown();
+        }
+      };
+      Async outer = new Async() {
+        @Override
+        public void run(State state) {
+          for (int i = 0; i < NESTED; i++) {
+            runner.start(nested);
+          }
+          done.countDown();
+        }
+      };
+      for (int i = 0; i < outers; i++) {
+        runner.start(outer);
+      }
+      done.await();
+    }
+
+    @Override
+    void tearDown() {
+      runner.shutdown();
+    }
+  }
+}
@@ -0,0 +1,476 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async.processor;
+
+import static javax.lang.model.element.Modifier.ABSTRACT;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.lang.model.util.ElementFilter.methodsIn;
+import static javax.lang.model.util.ElementFilter.typesIn;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+import com.j2speed.async.HandlerDispatcher;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Annotation processor that generates a {@link HandlerDispatcher} for each concrete handler class
+ * being compiled.
+ * <p>
+ * The generated dispatchers route the call-backs, the {@link com.j2speed.async.RunOn} transfers
+ * and the typed {@code onException} overloads with plain Java calls, so that runners do not need
+ * to discover them by reflection. Handler classes that cannot be reached from a generated class in
+ * their own package, eg: private member classes, or anonymous classes, which are not visible to
+ * annotation processors, are left to the reflective dispatching.
+ * </p>
+ * <p>
+ * The processor is registered as a service in its jar, so it is enough to have the jar in the
+ * processor path of the compilation.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+@SupportedAnnotationTypes("*")
+public class DispatcherProcessor extends AbstractProcessor {
+
+  private static final String PACKAGE = "com.j2speed.async.";
+
+  private static final String RUN_ON = PACKAGE + "RunOn";
+
+  private static final String DISPATCHER = PACKAGE + "HandlerDispatcher";
+
+  private static final String TRANSFERER = PACKAGE + "ThreadTransferer";
+
+  private static final String TRANSFERERS = PACKAGE + "ThreadTransferers";
+
+  /**
+   * The qualified names of the dispatchers generated so far, to avoid generating twice.
+   */
+  @NonNull
+  private final Set<String> generated = new HashSet<String>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+    TypeElement exceptionHandler = elements().getTypeElement(PACKAGE + "ExceptionHandler");
+    if (exceptionHandler == null) {
+      // not compiling against asyncworks
+      return false;
+    }
+    for (TypeElement type : typesIn(round.getRootElements())) {
+      process(type, exceptionHandler.asType());
+    }
+    // never claim the annotations, other processors may be interested in them
+    return false;
+  }
+
+  private void process(@NonNull TypeElement type, @NonNull TypeMirror exceptionHandler) {
+    for (TypeElement member : typesIn(type.getEnclosedElements())) {
+      process(member, exceptionHandler);
+    }
+    if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(ABSTRACT)
+      || !types().isAssignable(types().erasure(type.asType()), exceptionHandler)
+      || !isAccessible(type, packageOf(type))) {
+      return;
+    }
+    try {
+      generate(type);
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Kind.ERROR,
+        "Cannot generate the dispatcher: " + e.getMessage(), type);
+    }
+  }
+
+  private void generate(@NonNull TypeElement type) throws IOException {
+    PackageElement pakage = packageOf(type);
+    String packageName = pakage.getQualifiedName().toString();
+    String binaryName = elements().getBinaryName(type).toString();
+    String simpleName = (packageName.length() == 0 ? binaryName : binaryName
+      .substring(packageName.length() + 1))
+      + HandlerDispatcher.SUFFIX;
+    String qualifiedName = packageName.length() == 0 ? simpleName : packageName + '.' + simpleName;
+    if (!generated.add(qualifiedName)) {
+      return;
+    }
+
+    List<ExecutableElement> methods = methodsIn(elements().getAllMembers(type));
+    List<ExecutableElement> onExceptions = onExceptions(methods);
+    for (ExecutableElement method : onExceptions) {
+      if (!isAccessible(method.getParameters().get(0).asType(), pakage)) {
+        skip(type, "exception type " + method.getParameters().get(0).asType());
+        return;
+      }
+    }
+    // the field holding the transferer of each transfer class
+    Map<String, String> transferers = new LinkedHashMap<String, String>();
+    for (ExecutableElement method : methods) {
+      TypeElement transfer = runOn(method);
+      if (transfer != null) {
+        if (!isAccessible(transfer, pakage)) {
+          skip(type, "transfer class " + transfer.getQualifiedName());
+          return;
+        }
+        String name = transfer.getQualifiedName().toString();
+        if (!transferers.containsKey(name)) {
+          transferers.put(name, "transferer" + transferers.size());
+        }
+      }
+    }
+
+    String handler = type.getQualifiedName().toString();
+    PrintWriter out = new PrintWriter(processingEnv.getFiler()
+      .createSourceFile(qualifiedName, type)
+      .openWriter());
+    try {
+      if (packageName.length() > 0) {
+        out.println("package " + packageName + ";");
+        out.println();
+      }
+      out.println("/**");
+      out.println(" * The {@link " + DISPATCHER + "} of {@link " + handler + "}.");
+      out.println(" * <p>");
+      out.println(" * Generated by " + getClass().getName() + ", do not edit.");
+      out.println(" * </p>");
+      out.println(" */");
+      out.println("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+      out.println("public final class " + simpleName + " extends " + DISPATCHER + " {");
+      for (Map.Entry<String, String> transferer : transferers.entrySet()) {
+        out.println();
+        out.println("  private final " + TRANSFERER + " " + transferer.getValue() + " = "
+          + TRANSFERERS + ".of(" + transferer.getKey() + ".class);");
+      }
+
+      ExecutableElement onResponse = callback(methods, "onResponse", PACKAGE + "Result");
+      out.println();
+      out.println("  @Override");
+      out.println("  public <T> void onResponse(" + PACKAGE + "ResponseHandler<T> handler, final "
+        + PACKAGE + "Result<T> result) {");
+      if (onResponse != null) {
+        out.println("    final " + handler + " target = (" + handler + ") handler;");
+        call(out, transferers, "    ", onResponse, "target.onResponse((" + PACKAGE
+          + "Result) result);");
+      } else {
+        direct(out, "handler.onResponse(result);");
+      }
+      out.println("  }");
+
+      ExecutableElement onProgress = callback(methods, "onProgress", PACKAGE + "Progress");
+      out.println();
+      out.println("  @Override");
+      out.println("  public <T> void onProgress(" + PACKAGE + "ProgressHandler<T> handler, final "
+        + PACKAGE + "Progress<T> progress) {");
+      if (onProgress != null) {
+        out.println("    final " + handler + " target = (" + handler + ") handler;");
+        call(out, transferers, "    ", onProgress, "target.onProgress((" + PACKAGE
+          + "Progress) progress);");
+      } else {
+        direct(out, "handler.onProgress(progress);");
+      }
+      out.println("  }");
+
+      ExecutableElement onProgressBatch = callback(methods, "onProgressBatch", "java.util.List");
+      out.println();
+      out.println("  @Override");
+      out.println("  public <T> void onProgressBatch(" + PACKAGE
+        + "BatchProgressHandler<T> handler, final java.util.List<T> values) {");
+      if (onProgressBatch != null) {
+        out.println("    final " + handler + " target = (" + handler + ") handler;");
+        call(out, transferers, "    ", onProgressBatch,
+          "target.onProgressBatch((java.util.List) values);");
+      } else {
+        direct(out, "handler.onProgressBatch(values);");
+      }
+      out.println("  }");
+
+      ExecutableElement onComplete = callback(methods, "onComplete", null);
+      out.println();
+      out.println("  @Override");
+      out.println("  public void onComplete(" + PACKAGE + "CompletionHandler handler) {");
+      if (onComplete != null) {
+        out.println("    final " + handler + " target = (" + handler + ") handler;");
+        call(out, transferers, "    ", onComplete, "target.onComplete();");
+      } else {
+        direct(out, "handler.onComplete();");
+      }
+      out.println("  }");
+
+      out.println();
+      out.println("  @Override");
+      out.println("  public void onException(" + PACKAGE
+        + "ExceptionHandler handler, final Throwable throwable) {");
+      out.println("    final " + handler + " target = (" + handler + ") handler;");
+      boolean first = true;
+      for (ExecutableElement method : onExceptions) {
+        TypeMirror exception = types().erasure(method.getParameters().get(0).asType());
+        if (isThrowable(exception)) {
+          // always the last one
+          if (!first) {
+            out.println("    } else {");
+          }
+          call(out, transferers, first ? "    " : "      ", method,
+            "target.onException(throwable);");
+        } else {
+          out.println((first ? "    if" : "    } else if") + " (throwable instanceof "
+            + exception + ") {");
+          call(out, transferers, "      ", method, "target.onException((" + exception
+            + ") throwable);");
+        }
+        first = false;
+      }
+      if (onExceptions.size() > 1) {
+        out.println("    }");
+      }
+      out.println("  }");
+
+      out.println();
+      out.println("  @Override");
+      out.println("  public void onFinally(" + PACKAGE + "ExceptionHandler handler) {");
+      out.println("    final " + handler + " target = (" + handler + ") handler;");
+      call(out, transferers, "    ", callback(methods, "onFinally", null),
+        "target.onFinally();");
+      out.println("  }");
+      out.println("}");
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Prints the direct call of a call-back that the handler class does not implement, so that it
+   * is never routed to the handlers of the class.
+   */
+  private void direct(@NonNull PrintWriter out, @NonNull String invocation) {
+    out.println("    // not a call-back of the handler class, called as it is");
+    out.println("    " + invocation);
+  }
+
+  /**
+   * Prints the call to the specified method, transferred if the method is annotated with
+   * {@link com.j2speed.async.RunOn} and not already on the target thread, and wrapping the checked
+   * exceptions it declares as {@link RuntimeException}.
+   */
+  private void call(@NonNull PrintWriter out, @NonNull Map<String, String> transferers,
+    @NonNull String indent, @NonNull ExecutableElement method, @NonNull String invocation) {
+    TypeElement transfer = runOn(method);
+    if (transfer != null) {
+      String transferer = transferers.get(transfer.getQualifiedName().toString());
+      out.println(indent + "if (" + transferer + ".isOnTargetThread()) {");
+      invoke(out, indent + "  ", method, invocation);
+      out.println(indent + "} else {");
+      out.println(indent + "  " + transferer + ".execute(new Runnable() {");
+      out.println(indent + "    public void run() {");
+      invoke(out, indent + "      ", method, invocation);
+      out.println(indent + "    }");
+      out.println(indent + "  });");
+      out.println(indent + "}");
+    } else {
+      invoke(out, indent, method, invocation);
+    }
+  }
+
+  private void invoke(@NonNull PrintWriter out, @NonNull String indent,
+    @NonNull ExecutableElement method, @NonNull String invocation) {
+    if (method.getThrownTypes().isEmpty()) {
+      out.println(indent + invocation);
+    } else {
+      out.println(indent + "try {");
+      out.println(indent + "  " + invocation);
+      out.println(indent + "} catch (RuntimeException e) {");
+      out.println(indent + "  throw e;");
+      out.println(indent + "} catch (Error e) {");
+      out.println(indent + "  throw e;");
+      out.println(indent + "} catch (Throwable e) {");
+      out.println(indent + "  throw new RuntimeException(e);");
+      out.println(indent + "}");
+    }
+  }
+
+  /**
+   * Returns the public {@code onException} overloads, the most specific exception types first, so
+   * that the first matching {@code instanceof} selects the closest superclass of a throwable, and
+   * {@code onException(Throwable)} last.
+   */
+  @NonNull
+  private List<ExecutableElement> onExceptions(@NonNull List<ExecutableElement> methods) {
+    TypeMirror throwable = elements().getTypeElement(Throwable.class.getName()).asType();
+    List<ExecutableElement> onExceptions = new ArrayList<ExecutableElement>();
+    Set<String> signatures = new HashSet<String>();
+    for (ExecutableElement method : methods) {
+      if (isCallback(method, "onException", 1)) {
+        TypeMirror parameter = types().erasure(method.getParameters().get(0).asType());
+        if (types().isAssignable(parameter, throwable)
+          && signatures.add(parameter.toString())) {
+          onExceptions.add(mostSpecific(methods, method));
+        }
+      }
+    }
+    Collections.sort(onExceptions, new Comparator<ExecutableElement>() {
+      @Override
+      public int compare(ExecutableElement o1, ExecutableElement o2) {
+        return depth(o2.getParameters().get(0).asType()) - depth(o1.getParameters().get(0).asType());
+      }
+    });
+    return onExceptions;
+  }
+
+  /**
+   * Returns the public, non static, method with the specified name and parameter type.
+   */
+  @CheckForNull
+  private ExecutableElement callback(@NonNull List<ExecutableElement> methods,
+    @NonNull String name, @CheckForNull String parameterType) {
+    for (ExecutableElement method : methods) {
+      if (isCallback(method, name, parameterType == null ? 0 : 1)
+        && (parameterType == null || types().erasure(method.getParameters().get(0).asType())
+          .toString()
+          .equals(parameterType))) {
+        return mostSpecific(methods, method);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the method with the same signature of the specified one declared by the most specific
+   * type, as members can be listed more than once, eg: when also declared by an interface.
+   */
+  @NonNull
+  private ExecutableElement mostSpecific(@NonNull List<ExecutableElement> methods,
+    @NonNull ExecutableElement selected) {
+    for (ExecutableElement method : methods) {
+      if (method != selected && method.getSimpleName().equals(selected.getSimpleName())
+        && types().isSameType(types().erasure(method.asType()), types().erasure(selected.asType()))
+        && types().isSubtype(types().erasure(method.getEnclosingElement().asType()),
+          types().erasure(selected.getEnclosingElement().asType()))) {
+        selected = method;
+      }
+    }
+    return selected;
+  }
+
+  private static boolean isCallback(@NonNull ExecutableElement method, @NonNull String name,
+    int parameters) {
+    return method.getSimpleName().contentEquals(name) && method.getModifiers().contains(PUBLIC)
+      && !method.getModifiers().contains(STATIC) && method.getParameters().size() == parameters;
+  }
+
+  /**
+   * Returns the transfer class specified by the {@link com.j2speed.async.RunOn} annotation of the
+   * specified method, if any.
+   */
+  @CheckForNull
+  private TypeElement runOn(@NonNull ExecutableElement method) {
+    for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+      if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName()
+        .contentEquals(RUN_ON)) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation
+          .getElementValues()
+          .entrySet()) {
+          if (entry.getKey().getSimpleName().contentEquals("value")) {
+            return (TypeElement) ((DeclaredType) entry.getValue().getValue()).asElement();
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private boolean isThrowable(@NonNull TypeMirror type) {
+    return type.toString().equals(Throwable.class.getName());
+  }
+
+  private int depth(@NonNull TypeMirror type) {
+    int depth = 0;
+    for (List<? extends TypeMirror> supertypes = types().directSupertypes(type); !supertypes
+      .isEmpty(); supertypes = types().directSupertypes(supertypes.get(0))) {
+      depth++;
+    }
+    return depth;
+  }
+
+  private boolean isAccessible(@NonNull TypeMirror type, @NonNull PackageElement from) {
+    Element element = types().asElement(type);
+    return !(element instanceof TypeElement) || isAccessible((TypeElement) element, from);
+  }
+
+  /**
+   * Whether the specified type can be referenced from a top level class in the specified package.
+   */
+  private boolean isAccessible(@NonNull TypeElement type, @NonNull PackageElement from) {
+    for (Element element = type; element instanceof TypeElement; element = element
+      .getEnclosingElement()) {
+      Set<javax.lang.model.element.Modifier> modifiers = element.getModifiers();
+      if (modifiers.contains(PRIVATE) || !modifiers.contains(PUBLIC)
+        && !packageOf(element).equals(from)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void skip(@NonNull TypeElement type, @NonNull String reason) {
+    processingEnv.getMessager().printMessage(Kind.NOTE,
+      "No dispatcher generated, " + reason + " is not accessible", type);
+  }
+
+  @NonNull
+  private PackageElement packageOf(@NonNull Element element) {
+    return elements().getPackageOf(element);
+  }
+
+  @NonNull
+  private Elements elements() {
+    return processingEnv.getElementUtils();
+  }
+
+  @NonNull
+  private Types types() {
+    return processingEnv.getTypeUtils();
+  }
+}
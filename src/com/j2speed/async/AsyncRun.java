@@ -40,6 +40,14 @@ public interface AsyncRun {
    */
   public boolean isCancelled();
 
+  /**
+   * Whether the asynchronous computation has been cancelled without running because it was started
+   * with a deadline, that passed before it could start. An expired computation is also cancelled.
+   * 
+   * @return {@code true} if expired, {@code false} otherwise.
+   */
+  public boolean isExpired();
+
   /**
    * Returns true if the asynchronous computation is completed. Completion may be due to normal
    * termination, an exception, or cancellation; in all of these cases, this method will return
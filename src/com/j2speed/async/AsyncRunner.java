@@ -114,6 +114,22 @@ public interface AsyncRunner {
   @NonNull
   public AsyncRun start(@NonNull Async async, @NonNull CompletionHandler... handlers);
 
+  /**
+   * Asynchronously invokes the specified {@link Async}, with no handlers other than the async
+   * itself, if it is a {@link CompletionHandler}.
+   * <p>
+   * Equivalent to {@link #start(Async, CompletionHandler...)} without handlers, but with no array
+   * to allocate for the call.
+   * </p>
+   * 
+   * @param async
+   *          the {@link Async} to be started.
+   * 
+   * @return The {@link AsyncRun} instance for the started {@link Async}.
+   */
+  @NonNull
+  public AsyncRun start(@NonNull Async async);
+
   /**
    * Asynchronously invokes the specified {@link Request}.
    * <p>
@@ -225,6 +241,74 @@ public interface AsyncRunner {
   public <T> AsyncRun start(@NonNull Progressive<T> progressive,
     @NonNull ProgressHandler<T>... handlers);
 
+  /**
+   * Asynchronously invokes the specified {@link Async}, calling back the handlers of a prepared
+   * {@link HandlerSet}.
+   * <p>
+   * Unlike {@link #start(Async, CompletionHandler...)}, the {@code async} receives call-backs only
+   * if it is part of the set.
+   * </p>
+   * 
+   * @param async
+   *          the {@link Async} to be started.
+   * @param handlers
+   *          the {@link CompletionHandler}s registered to handle call-backs from the computation.
+   * 
+   * @return The {@link AsyncRun} instance for the started {@link Async}.
+   */
+  @NonNull
+  public AsyncRun start(@NonNull Async async, @NonNull HandlerSet<CompletionHandler> handlers);
+
+  /**
+   * Asynchronously invokes the specified {@link Request}, calling back the handlers of a prepared
+   * {@link HandlerSet}.
+   * <p>
+   * Unlike {@link #start(Request, ResponseHandler...)}, the {@code request} receives call-backs
+   * only if it is part of the set.
+   * </p>
+   * 
+   * @param <T>
+   *          the type for the requested value.
+   * 
+   * @param request
+   *          the {@link Request} instance to run.
+   * @param handlers
+   *          the {@link ResponseHandler}s registered to handle call-backs from the computation.
+   * 
+   * @return The {@link AsyncRun} instance for the started {@link Request}.
+   * 
+   * @throws IllegalArgumentException
+   *           if the set is empty.
+   */
+  @NonNull
+  public <T> AsyncRun start(@NonNull Request<T> request,
+    @NonNull HandlerSet<ResponseHandler<T>> handlers);
+
+  /**
+   * Asynchronously invokes the specified {@link Progressive}, calling back the handlers of a
+   * prepared {@link HandlerSet}.
+   * <p>
+   * Unlike {@link #start(Progressive, ProgressHandler...)}, the {@code progressive} receives
+   * call-backs only if it is part of the set.
+   * </p>
+   * 
+   * @param <T>
+   *          the type for the requested value.
+   * 
+   * @param progressive
+   *          the {@link Progressive} instance to run.
+   * @param handlers
+   *          the {@link ProgressHandler}s registered to handle call-backs from the computation.
+   * 
+   * @return The {@link AsyncRun} instance for the started {@link Progressive}.
+   * 
+   * @throws IllegalArgumentException
+   *           if the set is empty.
+   */
+  @NonNull
+  public <T> AsyncRun start(@NonNull Progressive<T> progressive,
+    @NonNull HandlerSet<ProgressHandler<T>> handlers);
+
   /**
    * Cancels pending asynchronous computations;
    */
@@ -0,0 +1,36 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.Collections;
+
+/**
+ * An adapter for the interface, that handles the values received one by one as chunks of one
+ * value.
+ * 
+ * @param <T>
+ *          the type of the value.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public abstract class BatchProgressAdapter<T> extends ProgressAdapter<T> implements
+  BatchProgressHandler<T> {
+  @Override
+  public void onProgress(Progress<T> value) {
+    // routed, so that the RunOn annotation of onProgressBatch is honoured
+    HandlingProcessor.handleProgressBatch(this, Collections.singletonList(value.get()));
+  }
+}
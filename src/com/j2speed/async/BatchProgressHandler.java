@@ -0,0 +1,48 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.List;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * A {@link ProgressHandler} that can receive the progress values of a {@link Progressive} in
+ * chunks.
+ * <p>
+ * Part of a set built with {@link HandlerSet#batching}, the handler receives the values only
+ * through {@link #onProgressBatch(List)}, otherwise it receives them one by one through
+ * {@link #onProgress(Progress)}.
+ * </p>
+ * 
+ * @param <T>
+ *          the type of the value.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public interface BatchProgressHandler<T> extends ProgressHandler<T> {
+  /**
+   * Handles a chunk of the values notified by the {@link Progressive}, in notification order.
+   * <p>
+   * This method supports the @{@link RunOn} annotation that causes the runner to call-back this
+   * method on the EDT.
+   * </p>
+   * 
+   * @param values
+   *          the values, never empty. The list is not used by the runner after the call.
+   */
+  public void onProgressBatch(@NonNull List<T> values);
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * A {@link ThreadTransferer} that coalesces the call-backs transferred to another one.
+ * <p>
+ * Call-backs from any thread are appended to a lock-free queue, and at most one drain is
+ * transferred to the target at a time. A drain runs all the call-backs queued when it starts, in
+ * order, so that the call-backs transferred by a job keep their order, and a chatty job, eg: a
+ * {@link Progressive} notifying thousands of values per second to a {@code @RunOn(Edt.class)}
+ * handler, posts a handful of events to the target instead of one per call-back.
+ * </p>
+ * <p>
+ * Coalescing can be enabled for any {@link RunOn} class with
+ * {@link ThreadTransferers#coalesce(Class)}, eg:
+ * 
+ * <pre>
+ * ThreadTransferers.coalesce(Edt.class);
+ * </pre>
+ * 
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public final class CoalescingTransferer implements ThreadTransferer {
+
+  /**
+   * The transferer the drains are transferred to.
+   */
+  @NonNull
+  private final ThreadTransferer target;
+
+  /**
+   * Whether a drain has been transferred and has not completed yet.
+   */
+  @NonNull
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  /**
+   * The last node appended, shared by the producers.
+   */
+  @NonNull
+  private final AtomicReference<Node> tail;
+
+  /**
+   * The last node consumed, only updated by the running drain.
+   */
+  @NonNull
+  private volatile Node head;
+
+  /**
+   * The drain transferred to the target.
+   */
+  @NonNull
+  private final Runnable drain = new Runnable() {
+    @Override
+    public void run() {
+      drain();
+    }
+  };
+
+  /**
+   * Constructor of the class.
+   * 
+   * @param target
+   *          the transferer to coalesce the call-backs for.
+   */
+  public CoalescingTransferer(@NonNull ThreadTransferer target) {
+    if (target == null) {
+      throw new NullPointerException();
+    }
+    this.target = target;
+    this.head = new Node(null);
+    this.tail = new AtomicReference<Node>(head);
+  }
+
+  /**
+   * Returns the transferer the call-backs are coalesced for.
+   * 
+   * @return the target transferer.
+   */
+  @NonNull
+  public ThreadTransferer getTarget() {
+    return target;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Call-backs are run inline only if no call-back is still queued, as it would otherwise overtake
+   * them.
+   * </p>
+   */
+  @Override
+  public boolean isOnTargetThread() {
+    return target.isOnTargetThread() && tail.get() == head;
+  }
+
+  @Override
+  public void execute(@NonNull Runnable runnable) {
+    append(runnable);
+    schedule();
+  }
+
+  @Override
+  public void transfer(@NonNull Runnable[] runnables) {
+    for (Runnable runnable : runnables) {
+      append(runnable);
+    }
+    schedule();
+  }
+
+  private void append(@NonNull Runnable runnable) {
+    if (runnable == null) {
+      throw new NullPointerException();
+    }
+    Node node = new Node(runnable);
+    // the swap orders the producers, the link makes the node visible to the drain
+    tail.getAndSet(node).next = node;
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        target.execute(drain);
+      } catch (RuntimeException e) {
+        scheduled.set(false);
+        throw e;
+      } catch (Error e) {
+        scheduled.set(false);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Runs the call-backs queued so far. A failing call-back does not prevent the others from
+   * running, the first failure is rethrown at the end.
+   */
+  private void drain() {
+    RuntimeException failure = null;
+    try {
+      Node last = tail.get();
+      while (head != last) {
+        Node next = head.next;
+        if (next == null) {
+          // a producer swapped the tail but has not linked the node yet
+          Thread.yield();
+          continue;
+        }
+        head = next;
+        Runnable runnable = next.runnable;
+        next.runnable = null;
+        try {
+          runnable.run();
+        } catch (RuntimeException e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+    } finally {
+      scheduled.set(false);
+      if (tail.get() != head) {
+        // appended while draining, and the producers found the drain still scheduled
+        schedule();
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * A node of the queue.
+   */
+  private static final class Node {
+    @CheckForNull
+    volatile Node next;
+
+    @CheckForNull
+    Runnable runnable;
+
+    Node(@CheckForNull Runnable runnable) {
+      this.runnable = runnable;
+    }
+  }
+}
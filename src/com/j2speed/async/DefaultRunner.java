@@ -15,16 +15,28 @@
  */
 package com.j2speed.async;
 
-import static com.j2speed.async.HandlingProcessor.complete;
-import static com.j2speed.async.HandlingProcessor.handleException;
-import static com.j2speed.async.HandlingProcessor.handleFinally;
-import static com.j2speed.async.HandlingProcessor.handleProgress;
-import static com.j2speed.async.HandlingProcessor.handleResult;
+import static com.j2speed.async.HandlerSet.completes;
+import static com.j2speed.async.HandlingProcessor.dispatchesOf;
 
 import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.Nonnegative;
 
@@ -34,6 +46,11 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 /**
  * An {@link AsyncRunner} that uses a bound number of maximum threads. The asynchrounous
  * computations will be run in one of these threads.
+ * <p>
+ * Computations can also be scheduled after a delay, or periodically. Their timers are kept by a
+ * hashed timing wheel shared by the runners, with a precision of a millisecond, whose thread only
+ * hands the due computations to the executor of their runner.
+ * </p>
  * 
  * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
  */
@@ -44,6 +61,19 @@ public final class DefaultRunner implements AsyncRunner {
   @NonNull
   private final AsyncExecutor executor;
 
+  /**
+   * The strands of the keys that have jobs pending or running.
+   */
+  @NonNull
+  private final ConcurrentMap<Object, Strand> strands = new ConcurrentHashMap<Object, Strand>();
+
+  /**
+   * Incremented when the pending computations are cancelled, so that the scheduled ones from
+   * before are cancelled when due.
+   */
+  @NonNull
+  private final AtomicInteger epoch = new AtomicInteger();
+
   /**
    * Constructor of the class.
    * 
@@ -75,7 +105,18 @@ public final class DefaultRunner implements AsyncRunner {
     this(new ReentrantExecutor(maximumPoolSize, baseName));
   }
 
-  DefaultRunner(@NonNull AsyncExecutor executor) {
+  /**
+   * Constructs a runner that runs the asynchronous computations in the specified executor, eg: a
+   * {@link WorkStealingExecutor}.
+   * <p>
+   * The executor should be dedicated to this runner, as {@link #cancelPendings()} and
+   * {@link #shutdown()} cancel all the tasks pending in it.
+   * </p>
+   * 
+   * @param executor
+   *          the executor that runs the asynchronous computations.
+   */
+  public DefaultRunner(@NonNull AsyncExecutor executor) {
     if (executor == null) {
       throw new NullPointerException();
     }
@@ -89,6 +130,11 @@ public final class DefaultRunner implements AsyncRunner {
     return task;
   }
 
+  @Override
+  public AsyncRun start(Async async) {
+    return start(async, NO_HANDLERS);
+  }
+
   @Override
   public <T> AsyncRun start(Request<T> request, ResponseHandler<T>... handlers) {
     if (handlers.length == 0 && !(request instanceof ResponseHandler<?>)) {
@@ -110,251 +156,2212 @@ public final class DefaultRunner implements AsyncRunner {
   }
 
   @Override
-  public void cancelPendings() {
-    List<Runnable> cancelled = executor.cancelPendings();
-    // Note that all these Runnables have been removed from the executor's queue, so they will never
-    // be run.
-    for (Runnable r : cancelled) {
-      // Safe cast because the executor does not escape this runner, so we know what is the content.
-      AbstractJob<?, ?> cancelledTask = (AbstractJob<?, ?>) r;
-      cancelledTask.cancelUnstarted();
+  public AsyncRun start(Async async, HandlerSet<CompletionHandler> handlers) {
+    AsyncJob task = new AsyncJob(async, handlers);
+    executor.execute(task);
+    return task;
+  }
+
+  @Override
+  public <T> AsyncRun start(Request<T> request, HandlerSet<ResponseHandler<T>> handlers) {
+    if (handlers.size() == 0) {
+      throw new IllegalArgumentException();
+    }
+    RequestJob<T> task = new RequestJob<T>(request, handlers);
+    executor.execute(task);
+    return task;
+  }
+
+  @Override
+  public <T> AsyncRun start(Progressive<T> request, HandlerSet<ProgressHandler<T>> handlers) {
+    if (handlers.size() == 0) {
+      throw new IllegalArgumentException();
     }
+    ProgressiveJob<T> task = new ProgressiveJob<T>(request, handlers);
+    executor.execute(task);
+    return task;
   }
 
   /**
-   * Shut down the this runner. All the pending asynchronous computations will be cancelled.
+   * Starts all the specified requests at once, as a group. On a {@link ReentrantExecutor} the
+   * whole batch is queued with a single queue operation, waking up only as many threads as needed,
+   * rather than one hand-off per request.
+   * <p>
+   * The returned group is done once all the requests are done, and cancelling it cancels all of
+   * them.
+   * </p>
+   * 
+   * @param requests
+   *          the requests.
+   * @param handlers
+   *          the handlers of each request.
+   * 
+   * @return the running group.
+   * 
+   * @throws IllegalArgumentException
+   *           if no handlers are specified and a request is not a {@link ResponseHandler}.
+   * 
+   * @see #start(Request, ResponseHandler...)
    */
-  public final void shutdown() {
-    executor.cancelPendings();
-    executor.shutdown();
+  @NonNull
+  public <T> AsyncRun startAll(@NonNull Collection<? extends Request<T>> requests,
+    @NonNull ResponseHandler<T>... handlers) {
+    AbstractJob<?, ?>[] jobs = new AbstractJob<?, ?>[requests.size()];
+    int i = 0;
+    for (Request<T> request : requests) {
+      if (handlers.length == 0 && !(request instanceof ResponseHandler<?>)) {
+        throw new IllegalArgumentException();
+      }
+      jobs[i++] = new RequestJob<T>(request, handlers);
+    }
+    return startAll(jobs, NO_HANDLERS);
   }
 
   /**
-   * An abstract computation job.
+   * Starts all the specified requests at once, as a group, see
+   * {@link #startAll(Collection, ResponseHandler...)}, calling back the specified completion
+   * handlers once all of them are done: {@link CompletionHandler#onException(Throwable)} with the
+   * exception of the first request that failed, if any, otherwise
+   * {@link CompletionHandler#onComplete()} unless the group has been cancelled, and then
+   * {@link CompletionHandler#onFinally()}.
    * 
-   * @param <A>
-   *          the async type.
-   * @param <H>
-   *          the handler type
+   * @param requests
+   *          the requests.
+   * @param handlers
+   *          the handlers of each request, at least one.
+   * @param completion
+   *          the handlers of the group.
+   * 
+   * @return the running group.
    */
-  private abstract class AbstractJob<A, H extends ExceptionHandler> implements Runnable, AsyncRun, State {
-
-    /**
-     * Whether a request to cancel this task has been made.
-     */
-    @NonNull
-    private final AtomicBoolean cancelRequested = new AtomicBoolean();
-
-    /**
-     * Whether this task has been started or not.
-     */
-    private volatile boolean started;
-
-    /**
-     * Whether this task has been cancelled or not.
-     */
-    private volatile boolean cancelled;
-
-    /**
-     * Whether this task is done or not.
-     */
-    private volatile boolean done;
-
-    /**
-     * The thread that is running this task.
-     */
-    @CheckForNull
-    private volatile Thread runner;
-
-    /**
-     * The async to execute.
-     */
-    @NonNull
-    private final A async;
-
-    @NonNull
-    final H[] handlers;
-
-    private AbstractJob(@NonNull A async, @NonNull H... handlers) {
-      this.async = async;
-      this.handlers = prepare(async, handlers);
+  @NonNull
+  public <T> AsyncRun startAll(@NonNull Collection<? extends Request<T>> requests,
+    @NonNull HandlerSet<ResponseHandler<T>> handlers, @NonNull CompletionHandler... completion) {
+    if (handlers.size() == 0) {
+      throw new IllegalArgumentException();
     }
-
-    @NonNull
-    @SuppressWarnings("unchecked")
-    private final H[] prepare(@NonNull A async, @NonNull H... handlers) {
-      Class<?> handlerClass = handlers.getClass().getComponentType();
-      if (handlerClass.isInstance(async)) {
-        H[] handlers2 = (H[]) Array.newInstance(handlerClass, handlers.length + 1);
-        System.arraycopy(handlers, 0, handlers2, 1, handlers.length);
-        handlers2[0] = (H) async;
-        return handlers2;
-      }
-      return handlers;
+    AbstractJob<?, ?>[] jobs = new AbstractJob<?, ?>[requests.size()];
+    int i = 0;
+    for (Request<T> request : requests) {
+      jobs[i++] = new RequestJob<T>(request, handlers);
     }
+    return startAll(jobs, completion);
+  }
 
-    @Override
-    public final void run() {
-      started = true;
-      try {
+  @NonNull
+  private AsyncRun startAll(@NonNull AbstractJob<?, ?>[] jobs,
+    @NonNull CompletionHandler[] completion) {
+    Group group = new Group(jobs, completion);
+    try {
+      for (AbstractJob<?, ?> job : jobs) {
+        group.adopt(job);
+      }
+      int executed = 0;
+      if (executor instanceof ReentrantExecutor) {
+        executed = ((ReentrantExecutor) executor).executeAll(Arrays.asList(jobs));
+      }
+      // the jobs that did not fit at once, or all of them on other executors
+      for (int i = executed; i < jobs.length; i++) {
         try {
-          // set the reference to the running thread
-          runner = Thread.currentThread();
-          checkCancelled();
-          doRun(async);
-        } catch (CancelledException e) {
-          cancelled = true;
-        } catch (InterruptedException e) {
-          if (!(cancelled = cancelRequested.get())) {
-            // something else interrupted the thread, so we need to propagate the interruption
-            Thread.currentThread().interrupt();
-          }
-        } finally {
-          // at this point the execution is done, exception handling and finally is not considered
-          // part of the execution.
-          done = true;
-          runner = null;
-          if (cancelRequested.get()) {
-            // the task has been cancelled in the meantime, clear the thread interrupted flag, in
-            // case cancel managed to call interrupt on it.
-            Thread.interrupted();
-          }
-        }
-        if (CompletionHandler.class.isAssignableFrom(handlers.getClass().getComponentType())) {
-          for (H handler : handlers) {
-            complete((CompletionHandler) handler);
+          executor.execute(jobs[i]);
+        } catch (RejectedExecutionException e) {
+          for (int j = i; j < jobs.length; j++) {
+            jobs[j].cancelUnstarted();
           }
+          group.cancel();
+          throw e;
         }
-      } catch (Exception e) {
-        for (H handler : handlers) {
-          handleException(handler, e);
-        }
-      } finally {
-        doFinnally();
       }
+    } finally {
+      group.close();
     }
+    return group;
+  }
 
-    @Override
-    public final void cancel() {
-      if (done || !cancelRequested.compareAndSet(false, true)) {
-        return;
-      }
-      if (executor.cancel(this)) {
-        // this task will never start
-        cancelUnstarted();
-      } else {
-        // this task is already on the way to execute
-        Thread runner = this.runner;
-        if (runner != null) {
-          try {
-            runner.interrupt();
-          } catch (SecurityException e) {}// can't interrupt
-        }
-      }
-    }
+  /**
+   * Starts an async after all the asyncs started with the same key, and before all the ones that
+   * will, never running at the same time as any of them. Asyncs with different keys run in
+   * parallel.
+   * 
+   * @param key
+   *          the key, eg: the entity the async works on.
+   * @param async
+   *          the async.
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return the running async.
+   * 
+   * @see #start(Async, CompletionHandler...)
+   */
+  @NonNull
+  public AsyncRun start(@NonNull Object key, @NonNull Async async,
+    @NonNull CompletionHandler... handlers) {
+    return serialize(key, new AsyncJob(async, handlers));
+  }
 
-    @Override
-    public final boolean isStarted() {
-      return started;
+  /**
+   * Starts a request after all the asyncs started with the same key, and before all the ones that
+   * will, never running at the same time as any of them. Asyncs with different keys run in
+   * parallel.
+   * 
+   * @param key
+   *          the key, eg: the entity the request works on.
+   * @param request
+   *          the request.
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return the running request.
+   * 
+   * @see #start(Request, ResponseHandler...)
+   */
+  @NonNull
+  public <T> AsyncRun start(@NonNull Object key, @NonNull Request<T> request,
+    @NonNull ResponseHandler<T>... handlers) {
+    if (handlers.length == 0 && !(request instanceof ResponseHandler<?>)) {
+      throw new IllegalArgumentException();
     }
+    return serialize(key, new RequestJob<T>(request, handlers));
+  }
 
-    @Override
-    public final boolean isDone() {
-      return done;
+  /**
+   * Starts a progressive request after all the asyncs started with the same key, and before all
+   * the ones that will, never running at the same time as any of them. Asyncs with different keys
+   * run in parallel.
+   * 
+   * @param key
+   *          the key, eg: the entity the request works on.
+   * @param request
+   *          the progressive request.
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return the running request.
+   * 
+   * @see #start(Progressive, ProgressHandler...)
+   */
+  @NonNull
+  public <T> AsyncRun start(@NonNull Object key, @NonNull Progressive<T> request,
+    @NonNull ProgressHandler<T>... handlers) {
+    if (handlers.length == 0 && !(request instanceof ProgressHandler<?>)) {
+      throw new IllegalArgumentException();
     }
+    return serialize(key, new ProgressiveJob<T>(request, handlers));
+  }
 
-    @Override
-    public final void checkCancelled() {
-      if (cancelRequested.get()) {
-        throw new CancelledException();
-      }
-    }
+  /**
+   * Starts an async in the order of its key, see {@link #start(Object, Async, CompletionHandler...)}.
+   * 
+   * @param key
+   *          the key, eg: the entity the async works on.
+   * @param async
+   *          the async.
+   * @param handlers
+   *          the prepared handlers.
+   * 
+   * @return the running async.
+   */
+  @NonNull
+  public AsyncRun start(@NonNull Object key, @NonNull Async async,
+    @NonNull HandlerSet<CompletionHandler> handlers) {
+    return serialize(key, new AsyncJob(async, handlers));
+  }
 
-    @Override
-    public boolean isCancelled() {
-      return cancelled;
+  /**
+   * Starts a request in the order of its key, see
+   * {@link #start(Object, Request, ResponseHandler...)}.
+   * 
+   * @param key
+   *          the key, eg: the entity the request works on.
+   * @param request
+   *          the request.
+   * @param handlers
+   *          the prepared handlers.
+   * 
+   * @return the running request.
+   */
+  @NonNull
+  public <T> AsyncRun start(@NonNull Object key, @NonNull Request<T> request,
+    @NonNull HandlerSet<ResponseHandler<T>> handlers) {
+    if (handlers.size() == 0) {
+      throw new IllegalArgumentException();
     }
+    return serialize(key, new RequestJob<T>(request, handlers));
+  }
 
-    final void cancelUnstarted() {
-      cancelled = true;
-      done = true;
-      doFinnally();
+  /**
+   * Starts a progressive request in the order of its key, see
+   * {@link #start(Object, Progressive, ProgressHandler...)}.
+   * 
+   * @param key
+   *          the key, eg: the entity the request works on.
+   * @param request
+   *          the progressive request.
+   * @param handlers
+   *          the prepared handlers.
+   * 
+   * @return the running request.
+   */
+  @NonNull
+  public <T> AsyncRun start(@NonNull Object key, @NonNull Progressive<T> request,
+    @NonNull HandlerSet<ProgressHandler<T>> handlers) {
+    if (handlers.size() == 0) {
+      throw new IllegalArgumentException();
     }
+    return serialize(key, new ProgressiveJob<T>(request, handlers));
+  }
 
-    abstract void doRun(@NonNull A async) throws Exception;
+  /**
+   * Starts an async that is only worth running before the specified deadline. Among the pending
+   * jobs of its priority, it is taken earliest deadline first, and if still pending when the
+   * deadline passes it expires: it is cancelled without running, and its handlers only receive
+   * {@link CompletionHandler#onFinally()}.
+   * 
+   * @param deadline
+   *          the deadline, as of {@link System#nanoTime()}.
+   * @param async
+   *          the async.
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return the running async, see {@link AsyncRun#isExpired()}.
+   * 
+   * @see #start(Async, CompletionHandler...)
+   */
+  @NonNull
+  public AsyncRun startBy(long deadline, @NonNull Async async,
+    @NonNull CompletionHandler... handlers) {
+    return expiring(deadline, new AsyncJob(async, handlers));
+  }
 
-    final void doFinnally() {
-      for (H handler : handlers) {
-        handleFinally(handler);
-      }
+  /**
+   * Starts a request that is only worth running before the specified deadline, see
+   * {@link #startBy(long, Async, CompletionHandler...)}.
+   * 
+   * @param deadline
+   *          the deadline, as of {@link System#nanoTime()}.
+   * @param request
+   *          the request.
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return the running request.
+   * 
+   * @see #start(Request, ResponseHandler...)
+   */
+  @NonNull
+  public <T> AsyncRun startBy(long deadline, @NonNull Request<T> request,
+    @NonNull ResponseHandler<T>... handlers) {
+    if (handlers.length == 0 && !(request instanceof ResponseHandler<?>)) {
+      throw new IllegalArgumentException();
     }
+    return expiring(deadline, new RequestJob<T>(request, handlers));
   }
 
-  private final class AsyncJob extends AbstractJob<Async, CompletionHandler> {
-    private AsyncJob(@NonNull Async async, @NonNull CompletionHandler... handlers) {
-      super(async, handlers);
+  /**
+   * Starts a progressive request that is only worth running before the specified deadline, see
+   * {@link #startBy(long, Async, CompletionHandler...)}.
+   * 
+   * @param deadline
+   *          the deadline, as of {@link System#nanoTime()}.
+   * @param request
+   *          the progressive request.
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return the running request.
+   * 
+   * @see #start(Progressive, ProgressHandler...)
+   */
+  @NonNull
+  public <T> AsyncRun startBy(long deadline, @NonNull Progressive<T> request,
+    @NonNull ProgressHandler<T>... handlers) {
+    if (handlers.length == 0 && !(request instanceof ProgressHandler<?>)) {
+      throw new IllegalArgumentException();
     }
+    return expiring(deadline, new ProgressiveJob<T>(request, handlers));
+  }
 
-    @Override
-    final void doRun(Async async) throws Exception {
-      async.run(this);
-    }
+  /**
+   * Starts an async by its deadline, see {@link #startBy(long, Async, CompletionHandler...)}.
+   * 
+   * @param deadline
+   *          the deadline, as of {@link System#nanoTime()}.
+   * @param async
+   *          the async.
+   * @param handlers
+   *          the prepared handlers.
+   * 
+   * @return the running async.
+   */
+  @NonNull
+  public AsyncRun startBy(long deadline, @NonNull Async async,
+    @NonNull HandlerSet<CompletionHandler> handlers) {
+    return expiring(deadline, new AsyncJob(async, handlers));
   }
 
-  private final class RequestJob<T> extends AbstractJob<Request<T>, ResponseHandler<T>> implements Result<T> {
+  /**
+   * Starts a request by its deadline, see {@link #startBy(long, Request, ResponseHandler...)}.
+   * 
+   * @param deadline
+   *          the deadline, as of {@link System#nanoTime()}.
+   * @param request
+   *          the request.
+   * @param handlers
+   *          the prepared handlers.
+   * 
+   * @return the running request.
+   */
+  @NonNull
+  public <T> AsyncRun startBy(long deadline, @NonNull Request<T> request,
+    @NonNull HandlerSet<ResponseHandler<T>> handlers) {
+    if (handlers.size() == 0) {
+      throw new IllegalArgumentException();
+    }
+    return expiring(deadline, new RequestJob<T>(request, handlers));
+  }
 
-    /**
+  /**
+   * Starts a progressive request by its deadline, see
+   * {@link #startBy(long, Progressive, ProgressHandler...)}.
+   * 
+   * @param deadline
+   *          the deadline, as of {@link System#nanoTime()}.
+   * @param request
+   *          the progressive request.
+   * @param handlers
+   *          the prepared handlers.
+   * 
+   * @return the running request.
+   */
+  @NonNull
+  public <T> AsyncRun startBy(long deadline, @NonNull Progressive<T> request,
+    @NonNull HandlerSet<ProgressHandler<T>> handlers) {
+    if (handlers.size() == 0) {
+      throw new IllegalArgumentException();
+    }
+    return expiring(deadline, new ProgressiveJob<T>(request, handlers));
+  }
+
+  /**
+   * Sets the deadline of the job, before it is published to the executor.
+   */
+  @NonNull
+  private AsyncRun expiring(long deadline, @NonNull AbstractJob<?, ?> job) {
+    job.expiring = true;
+    job.deadline = deadline;
+    executor.execute(job);
+    return job;
+  }
+
+  /**
+   * Starts an async after the specified delay. Cancelling the run before the delay elapses
+   * removes its timer. Scheduled asyncs that are not due yet when the pending computations are
+   * cancelled, are cancelled when due.
+   * 
+   * @param async
+   *          the async.
+   * @param delay
+   *          the delay.
+   * @param unit
+   *          the time unit.
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return the run of the async.
+   * 
+   * @see #start(Async, CompletionHandler...)
+   */
+  @NonNull
+  public AsyncRun schedule(@NonNull Async async, long delay, @NonNull TimeUnit unit,
+    @NonNull CompletionHandler... handlers) {
+    return delay(new AsyncJob(async, handlers), delay, unit);
+  }
+
+  /**
+   * Starts a request after the specified delay, see
+   * {@link #schedule(Async, long, TimeUnit, CompletionHandler...)}.
+   * 
+   * @param request
+   *          the request.
+   * @param delay
+   *          the delay.
+   * @param unit
+   *          the time unit.
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return the run of the request.
+   * 
+   * @see #start(Request, ResponseHandler...)
+   */
+  @NonNull
+  public <T> AsyncRun schedule(@NonNull Request<T> request, long delay, @NonNull TimeUnit unit,
+    @NonNull ResponseHandler<T>... handlers) {
+    if (handlers.length == 0 && !(request instanceof ResponseHandler<?>)) {
+      throw new IllegalArgumentException();
+    }
+    return delay(new RequestJob<T>(request, handlers), delay, unit);
+  }
+
+  /**
+   * Starts a progressive request after the specified delay, see
+   * {@link #schedule(Async, long, TimeUnit, CompletionHandler...)}.
+   * 
+   * @param request
+   *          the progressive request.
+   * @param delay
+   *          the delay.
+   * @param unit
+   *          the time unit.
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return the run of the request.
+   * 
+   * @see #start(Progressive, ProgressHandler...)
+   */
+  @NonNull
+  public <T> AsyncRun schedule(@NonNull Progressive<T> request, long delay,
+    @NonNull TimeUnit unit, @NonNull ProgressHandler<T>... handlers) {
+    if (handlers.length == 0 && !(request instanceof ProgressHandler<?>)) {
+      throw new IllegalArgumentException();
+    }
+    return delay(new ProgressiveJob<T>(request, handlers), delay, unit);
+  }
+
+  /**
+   * Runs an async periodically, first after the initial delay, then every period from when the
+   * previous run was due, until cancelled. A run that takes longer than the period delays the
+   * next, as runs never overlap, and a run rejected or dropped by the executor is skipped. The
+   * handlers are called back for each run, and the pending computations are cancelled with the
+   * next run.
+   * 
+   * @param async
+   *          the async.
+   * @param initialDelay
+   *          the delay of the first run.
+   * @param period
+   *          the period between the starts of the runs.
+   * @param unit
+   *          the time unit.
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return the periodic run, that is only done once cancelled.
+   * 
+   * @throws IllegalArgumentException
+   *           if the period is not positive.
+   */
+  @NonNull
+  public AsyncRun scheduleAtFixedRate(@NonNull Async async, long initialDelay, long period,
+    @NonNull TimeUnit unit, @NonNull CompletionHandler... handlers) {
+    if (period <= 0) {
+      throw new IllegalArgumentException();
+    }
+    Periodic periodic = new Periodic(async, handlers, unit.toNanos(period), true);
+    periodic.arm(deadlineAfter(initialDelay, unit));
+    return periodic;
+  }
+
+  /**
+   * Runs an async periodically, first after the initial delay, then after the delay from the end
+   * of the previous run, until cancelled. A run rejected or dropped by the executor is skipped.
+   * The handlers are called back for each run, and the pending computations are cancelled with the
+   * next run.
+   * 
+   * @param async
+   *          the async.
+   * @param initialDelay
+   *          the delay of the first run.
+   * @param delay
+   *          the delay between the end of a run and the start of the next.
+   * @param unit
+   *          the time unit.
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return the periodic run, that is only done once cancelled.
+   * 
+   * @throws IllegalArgumentException
+   *           if the delay is not positive.
+   */
+  @NonNull
+  public AsyncRun scheduleWithFixedDelay(@NonNull Async async, long initialDelay, long delay,
+    @NonNull TimeUnit unit, @NonNull CompletionHandler... handlers) {
+    if (delay <= 0) {
+      throw new IllegalArgumentException();
+    }
+    Periodic periodic = new Periodic(async, handlers, unit.toNanos(delay), false);
+    periodic.arm(deadlineAfter(initialDelay, unit));
+    return periodic;
+  }
+
+  /**
+   * Schedules the job to be handed to the executor after the delay.
+   */
+  @NonNull
+  private AsyncRun delay(@NonNull AbstractJob<?, ?> job, long delay, @NonNull TimeUnit unit) {
+    job.timer = TimingWheel.Shared.WHEEL.schedule(new Due(job, epoch.get()),
+      deadlineAfter(delay, unit));
+    return job;
+  }
+
+  /**
+   * Returns the deadline after the specified delay, as of {@link System#nanoTime()}, capping the
+   * delay so that the deadline is still comparable with the clock.
+   */
+  private static long deadlineAfter(long delay, @NonNull TimeUnit unit) {
+    return System.nanoTime() + Math.min(unit.toNanos(Math.max(0, delay)), Long.MAX_VALUE >> 1);
+  }
+
+  /**
+   * Hands the due job to the executor, unless the pending computations have been cancelled since
+   * it was scheduled. Called in the thread of the wheel, that a full {@link ReentrantExecutor}
+   * never runs the job in nor blocks, but rejects, so that the job is cancelled.
+   */
+  private void handOff(@NonNull AbstractJob<?, ?> job, int scheduled) {
+    if (scheduled != epoch.get()) {
+      job.cancelUnstarted();
+      return;
+    }
+    try {
+      executor.execute(job);
+    } catch (RejectedExecutionException e) {
+      job.cancelUnstarted();
+    }
+  }
+
+  /**
+   * Queues the job in the strand of the key, creating it if the key is idle.
+   */
+  @NonNull
+  private AsyncRun serialize(@NonNull Object key, @NonNull AbstractJob<?, ?> job) {
+    if (key == null) {
+      throw new NullPointerException();
+    }
+    for (;;) {
+      Strand strand = strands.get(key);
+      if (strand == null) {
+        Strand created = new Strand(key);
+        strand = strands.putIfAbsent(key, created);
+        if (strand == null) {
+          strand = created;
+        }
+      }
+      if (strand.add(job)) {
+        return job;
+      }
+      // the strand retired meanwhile, and has been removed from the map
+    }
+  }
+
+  @Override
+  public void cancelPendings() {
+    epoch.incrementAndGet();
+    List<Runnable> cancelled = executor.cancelPendings();
+    // Note that all these Runnables have been removed from the executor's queue, so they will never
+    // be run.
+    for (Runnable r : cancelled) {
+      // The executor may have been shared, although it should not, only our jobs need cancelling.
+      if (r instanceof AbstractJob<?, ?>) {
+        ((AbstractJob<?, ?>) r).cancelUnstarted();
+      } else if (r instanceof Strand) {
+        ((Strand) r).cancelUnstarted();
+      }
+    }
+  }
+
+  /**
+   * Shut down the this runner. All the pending asynchronous computations will be cancelled.
+   */
+  public final void shutdown() {
+    epoch.incrementAndGet();
+    executor.cancelPendings();
+    executor.shutdown();
+  }
+
+  /**
+   * Returns the priority of the specified async, {@link Priority#NORMAL} unless it is
+   * {@link Prioritized}.
+   */
+  @NonNull
+  private static Priority priorityOf(@NonNull Object async) {
+    if (async instanceof Prioritized) {
+      Priority priority = ((Prioritized) async).getPriority();
+      if (priority == null) {
+        throw new NullPointerException();
+      }
+      return priority;
+    }
+    return Priority.NORMAL;
+  }
+
+  /**
+   * Returns the class of the jobs, typed with wildcards for the updaters of their fields.
+   */
+  @NonNull
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static Class<AbstractJob<?, ?>> jobClass() {
+    // class literals are raw, the cast only adds the wildcards
+    return (Class) AbstractJob.class;
+  }
+
+  /**
+   * The updater of the {@link AbstractJob#state} of the jobs.
+   */
+  @NonNull
+  private static final AtomicIntegerFieldUpdater<AbstractJob<?, ?>> JOB_STATE = AtomicIntegerFieldUpdater
+    .newUpdater(jobClass(), "state");
+
+  /**
+   * The updater of the {@link AbstractJob#scope} of the jobs.
+   */
+  @NonNull
+  private static final AtomicReferenceFieldUpdater<AbstractJob<?, ?>, Forks> JOB_SCOPE = AtomicReferenceFieldUpdater
+    .newUpdater(jobClass(), Forks.class, "scope");
+
+  /**
+   * No completion handler, shared by the asyncs started without.
+   */
+  @NonNull
+  private static final CompletionHandler[] NO_HANDLERS = new CompletionHandler[0];
+
+  /**
+   * An abstract computation job.
+   * <p>
+   * The life cycle of the job is a set of flags in a single int, updated atomically, so that a job
+   * is a single object and moving it through its life cycle takes a write per step.
+   * </p>
+   * <p>
+   * A job that forks children through its {@link State} owns them in a {@link Forks} scope, allocated by
+   * the first fork, and is done, and calls back its handlers, only once all of them are done.
+   * </p>
+   * 
+   * @param <A>
+   *          the async type.
+   * @param <H>
+   *          the handler type
+   */
+  private abstract class AbstractJob<A, H extends ExceptionHandler> extends ExecutionQueue.Node
+    implements Runnable, AsyncRun, State {
+
+    /**
+     * The run of this task has begun.
+     */
+    private static final int STARTED = 1;
+
+    /**
+     * A request to cancel this task has been made.
+     */
+    private static final int CANCEL_REQUESTED = 2;
+
+    /**
+     * This task has been cancelled.
+     */
+    private static final int CANCELLED = 4;
+
+    /**
+     * This task is done, normally, exceptionally or cancelled.
+     */
+    private static final int DONE = 8;
+
+    /**
+     * This task has been cancelled without running because its deadline passed before it started.
+     */
+    private static final int EXPIRED = 16;
+
+    /**
+     * The flags of the life cycle of this task.
+     */
+    volatile int state;
+
+    /**
+     * The thread that is running this task.
+     */
+    @CheckForNull
+    private volatile Thread runner;
+
+    /**
+     * The async to execute.
+     */
+    @NonNull
+    private final A async;
+
+    @NonNull
+    final H[] handlers;
+
+    /**
+     * The {@link HandlerDispatcher} of each handler, by position.
+     */
+    @NonNull
+    final HandlerDispatcher[] dispatchers;
+
+    /**
+     * Whether the handlers receive {@link CompletionHandler#onComplete()}.
+     */
+    private final boolean completing;
+
+    /**
+     * The priority of the async, see {@link Prioritized}.
+     */
+    @NonNull
+    private final Priority priority;
+
+    /**
+     * The entry of this job in the strand of its key, if started with one.
+     */
+    @CheckForNull
+    private volatile KeyedEntry entry;
+
+    /**
+     * The timer of this job, if scheduled after a delay.
+     */
+    @CheckForNull
+    private volatile TimingWheel.Timer timer;
+
+    /**
+     * The periodic run this job is a run of, if any, set before it is executed.
+     */
+    @CheckForNull
+    Periodic periodic;
+
+    /**
+     * The children forked by this job, if any.
+     */
+    @CheckForNull
+    volatile Forks scope;
+
+    /**
+     * The scope of the job this job has been forked by, or of its group, if any, set before it is
+     * executed.
+     */
+    @CheckForNull
+    Scope parent;
+
+    /**
+     * Whether this job has a deadline, set before it is executed.
+     */
+    boolean expiring;
+
+    /**
+     * The deadline, as of {@link System#nanoTime()}, if expiring.
+     */
+    long deadline;
+
+
+    private AbstractJob(@NonNull A async, @NonNull H... handlers) {
+      this.async = async;
+      this.handlers = prepare(async, handlers);
+      this.dispatchers = dispatchesOf(this.handlers);
+      this.completing = completes(this.handlers);
+      this.priority = priorityOf(async);
+    }
+
+    private AbstractJob(@NonNull A async, @NonNull HandlerSet<H> handlers) {
+      this.async = async;
+      this.handlers = handlers.handlers;
+      this.dispatchers = handlers.dispatchers;
+      this.completing = handlers.completing;
+      this.priority = priorityOf(async);
+    }
+
+    @Override
+    final Priority priority() {
+      return priority;
+    }
+
+    @Override
+    final void dropped() {
+      cancelUnstarted();
+    }
+
+    @Override
+    final boolean expiring() {
+      return expiring;
+    }
+
+    @Override
+    final long deadline() {
+      return deadline;
+    }
+
+    @NonNull
+    @SuppressWarnings("unchecked")
+    private final H[] prepare(@NonNull A async, @NonNull H... handlers) {
+      Class<?> handlerClass = handlers.getClass().getComponentType();
+      if (handlerClass.isInstance(async)) {
+        H[] handlers2 = (H[]) Array.newInstance(handlerClass, handlers.length + 1);
+        System.arraycopy(handlers, 0, handlers2, 1, handlers.length);
+        handlers2[0] = (H) async;
+        return handlers2;
+      }
+      return handlers;
+    }
+
+    /**
+     * Adds the specified flags to the state.
+     */
+    private void set(int flags) {
+      int current;
+      do {
+        current = state;
+      } while (!JOB_STATE.compareAndSet(this, current, current | flags));
+    }
+
+    @Override
+    public final void run() {
+      if (expiring && System.nanoTime() - deadline > 0) {
+        // nobody waits for the result any longer
+        cancelUnstarted(EXPIRED);
+        return;
+      }
+      // set the reference to the running thread, published by the start
+      runner = Thread.currentThread();
+      set(STARTED);
+      int outcome = DONE;
+      boolean succeeded = false;
+      Exception failure = null;
+      try {
+        try {
+          checkCancelled();
+          doRun(async);
+          succeeded = true;
+        } catch (CancelledException e) {
+          outcome |= CANCELLED;
+        } catch (InterruptedException e) {
+          if ((state & CANCEL_REQUESTED) != 0) {
+            outcome |= CANCELLED;
+          } else {
+            // something else interrupted the thread, so we need to propagate the interruption
+            Thread.currentThread().interrupt();
+          }
+        } catch (Exception e) {
+          failure = e;
+        } finally {
+          // at this point the execution is done, exception handling and finally is not considered
+          // part of the execution.
+          runner = null;
+          if ((state & CANCEL_REQUESTED) != 0) {
+            // the task has been cancelled in the meantime, clear the thread interrupted flag, in
+            // case cancel managed to call interrupt on it.
+            Thread.interrupted();
+          }
+        }
+      } catch (Error e) {
+        Forks scope = this.scope;
+        if (scope != null) {
+          scope.abandon();
+        }
+        set(outcome);
+        end(null);
+        throw e;
+      }
+      Forks scope = this.scope;
+      if (scope == null) {
+        complete(outcome, succeeded, failure);
+      } else {
+        scope.close(outcome, succeeded, failure);
+      }
+    }
+
+    /**
+     * Calls back the handlers with the outcome of the run of this task, once its children, if any,
+     * are done.
+     */
+    final void complete(int outcome, boolean succeeded, @CheckForNull Exception failure) {
+      Exception reported = null;
+      try {
+        flush();
+        set(outcome);
+        if (failure != null) {
+          throw failure;
+        }
+        if (succeeded) {
+          respond();
+        }
+        if (completing) {
+          for (int i = 0; i < handlers.length; i++) {
+            complete(i);
+          }
+        }
+      } catch (Exception e) {
+        reported = e;
+        for (int i = 0; i < handlers.length; i++) {
+          dispatchers[i].onException(handlers[i], e);
+        }
+      } finally {
+        end(reported);
+      }
+    }
+
+    /**
+     * Ends this task, after its handlers, releasing it from the scope of its parent.
+     */
+    private void end(@CheckForNull Exception failure) {
+      try {
+        doFinnally();
+        if (periodic != null) {
+          periodic.ran();
+        }
+      } finally {
+        if (parent != null) {
+          parent.release(this, failure);
+        }
+      }
+    }
+
+    @Override
+    public final void cancel() {
+      int current;
+      do {
+        current = state;
+        if ((current & (DONE | CANCEL_REQUESTED)) != 0) {
+          return;
+        }
+      } while (!JOB_STATE.compareAndSet(this, current, current | CANCEL_REQUESTED));
+      KeyedEntry entry = this.entry;
+      TimingWheel.Timer timer = this.timer;
+      if ((timer != null && timer.cancel()) || executor.cancel(this)
+        || (entry != null && entry.remove(this))) {
+        // this task will never start
+        cancelUnstarted();
+      } else {
+        // this task is already on the way to execute
+        Thread runner = this.runner;
+        if (runner != null) {
+          try {
+            runner.interrupt();
+          } catch (SecurityException e) {}// can't interrupt
+        }
+        Forks scope = this.scope;
+        if (scope != null) {
+          scope.cancel();
+        }
+      }
+    }
+
+    @Override
+    public final AsyncRun fork(Async async, CompletionHandler... handlers) {
+      return fork(new AsyncJob(async, handlers));
+    }
+
+    @Override
+    public final <T> AsyncRun fork(Request<T> request, ResponseHandler<T>... handlers) {
+      if (handlers.length == 0 && !(request instanceof ResponseHandler<?>)) {
+        throw new IllegalArgumentException();
+      }
+      return fork(new RequestJob<T>(request, handlers));
+    }
+
+    @Override
+    public final void failFast() {
+      scope().failFast = true;
+    }
+
+    /**
+     * Starts the specified job as a child of this job.
+     */
+    @NonNull
+    private AsyncRun fork(@NonNull AbstractJob<?, ?> child) {
+      Forks scope = scope();
+      scope.adopt(child);
+      if ((state & CANCEL_REQUESTED) != 0 || scope.failed()) {
+        child.cancelUnstarted();
+        return child;
+      }
+      try {
+        if (executor instanceof ReentrantExecutor) {
+          // the parent never waits for its children, so they wait for a thread rather than run in
+          // the current one
+          ((ReentrantExecutor) executor).dispatch(child);
+        } else {
+          executor.execute(child);
+        }
+      } catch (RejectedExecutionException e) {
+        child.cancelUnstarted();
+        throw e;
+      }
+      return child;
+    }
+
+    /**
+     * Returns the scope of the children of this job, allocating it the first time.
+     */
+    @NonNull
+    private Forks scope() {
+      Forks scope = this.scope;
+      if (scope == null) {
+        scope = new Forks(this);
+        if (!JOB_SCOPE.compareAndSet(this, null, scope)) {
+          scope = this.scope;
+        }
+      }
+      return scope;
+    }
+
+    @Override
+    public final boolean isStarted() {
+      return (state & STARTED) != 0;
+    }
+
+    @Override
+    public final boolean isDone() {
+      return (state & DONE) != 0;
+    }
+
+    @Override
+    public final void checkCancelled() {
+      if ((state & CANCEL_REQUESTED) != 0) {
+        throw new CancelledException();
+      }
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return (state & CANCELLED) != 0;
+    }
+
+    @Override
+    public final boolean isExpired() {
+      return (state & EXPIRED) != 0;
+    }
+
+    final void cancelUnstarted() {
+      cancelUnstarted(0);
+    }
+
+    /**
+     * Completes this task as cancelled, adding the specified flags.
+     */
+    private void cancelUnstarted(int flags) {
+      set(CANCELLED | DONE | flags);
+      try {
+        doFinnally();
+        if (periodic != null) {
+          periodic.skipped();
+        }
+      } finally {
+        if (parent != null) {
+          parent.release(this, null);
+        }
+      }
+    }
+
+    /**
+     * Returns whether a request to cancel this task has been made.
+     */
+    final boolean isCancelRequested() {
+      return (state & CANCEL_REQUESTED) != 0;
+    }
+
+    abstract void doRun(@NonNull A async) throws Exception;
+
+    /**
+     * Delivers what the run left pending, once the run and the children, if any, are done, before
+     * the handlers are called back with the outcome.
+     */
+    void flush() {}
+
+    /**
+     * Calls back {@link ResponseHandler#onResponse(Result)} on the handlers, once the run succeeded
+     * and the children, if any, are done.
+     */
+    void respond() {}
+
+    /**
+     * Calls back {@link CompletionHandler#onComplete()} on the handler at the specified position.
+     * 
+     * @param i
+     *          the position of the handler.
+     */
+    void complete(int i) {
+      dispatchers[i].onComplete((CompletionHandler) handlers[i]);
+    }
+
+    final void doFinnally() {
+      for (int i = 0; i < handlers.length; i++) {
+        dispatchers[i].onFinally(handlers[i]);
+      }
+    }
+  }
+
+  private final class AsyncJob extends AbstractJob<Async, CompletionHandler> {
+    private AsyncJob(@NonNull Async async, @NonNull CompletionHandler... handlers) {
+      super(async, handlers);
+    }
+
+    private AsyncJob(@NonNull Async async, @NonNull HandlerSet<CompletionHandler> handlers) {
+      super(async, handlers);
+    }
+
+    @Override
+    final void doRun(Async async) throws Exception {
+      async.run(this);
+    }
+  }
+
+  private final class RequestJob<T> extends AbstractJob<Request<T>, ResponseHandler<T>> implements Result<T> {
+
+    /**
      * The result generated by the request.
      */
     @CheckForNull
-    private volatile T value;
+    private volatile T value;
+
+    private RequestJob(@NonNull Request<T> request, @NonNull ResponseHandler<T>... handlers) {
+      super(request, handlers);
+    }
+
+    private RequestJob(@NonNull Request<T> request, @NonNull HandlerSet<ResponseHandler<T>> handlers) {
+      super(request, handlers);
+    }
+
+    @Override
+    final void doRun(Request<T> async) throws Exception {
+      value = async.run(this);
+    }
+
+    @Override
+    final void respond() {
+      for (int i = 0; i < handlers.length; i++) {
+        dispatchers[i].onResponse(handlers[i], this);
+      }
+    }
+
+    @Override
+    public T get() {
+      return value;
+    }
+  }
+
+  private final class ProgressiveJob<T> extends AbstractJob<Progressive<T>, ProgressHandler<T>> implements ProgressState<T>, Progress<T> {
+
+    /**
+     * The current value notified as progress.
+     */
+    @CheckForNull
+    private volatile T current;
+
+    /**
+     * The progress transferers of the handlers, see {@link HandlerSet#progressTransferers}.
+     */
+    @CheckForNull
+    private final ThreadTransferer[] transferers;
+
+    /**
+     * Whether a conflated delivery is pending, 1, or not, 0, for each handler, when conflating.
+     */
+    @CheckForNull
+    private final AtomicIntegerArray pendings;
+
+    /**
+     * The maximum number of notifications still to be delivered, {@code 0} if unbounded.
+     */
+    private final int capacity;
+
+    /**
+     * How to wait for the capacity, when bounded.
+     */
+    @CheckForNull
+    private final WaitStrategy wait;
+
+    /**
+     * The number of notifications still to be delivered, when bounded.
+     */
+    @CheckForNull
+    private final AtomicInteger undelivered;
+
+    /**
+     * The thread waiting for the capacity, if any.
+     */
+    @CheckForNull
+    private volatile Thread waiter;
+
+    /**
+     * The chunk being filled for each handler, when batching.
+     */
+    @CheckForNull
+    private final Batch[] batches;
+
+    /**
+     * The maximum number of values per chunk, when batching.
+     */
+    private final int batchSize;
+
+    /**
+     * The maximum time, in nanoseconds, a value waits in a chunk, {@code 0} if none.
+     */
+    private final long batchWindow;
+
+    private ProgressiveJob(@NonNull Progressive<T> request, @NonNull ProgressHandler<T>... handlers) {
+      super(request, handlers);
+      this.transferers = null;
+      this.pendings = null;
+      this.capacity = 0;
+      this.wait = null;
+      this.undelivered = null;
+      this.batches = null;
+      this.batchSize = 0;
+      this.batchWindow = 0;
+    }
+
+    private ProgressiveJob(@NonNull Progressive<T> request,
+      @NonNull HandlerSet<ProgressHandler<T>> handlers) {
+      super(request, handlers);
+      this.transferers = handlers.progressTransferers;
+      this.pendings = handlers.conflating ? new AtomicIntegerArray(transferers.length) : null;
+      this.capacity = handlers.capacity;
+      this.wait = handlers.wait;
+      this.undelivered = capacity > 0 ? new AtomicInteger() : null;
+      this.batchSize = handlers.batchSize;
+      this.batchWindow = handlers.batchWindow;
+      if (batchSize > 0) {
+        // an array of an inner class of a generic class can only be created reflectively, as an
+        // array of the erased type
+        @SuppressWarnings("unchecked")
+        Batch[] batches = (Batch[]) Array.newInstance(Batch.class, this.handlers.length);
+        for (int i = 0; i < batches.length; i++) {
+          batches[i] = new Batch(i);
+        }
+        this.batches = batches;
+      } else {
+        this.batches = null;
+      }
+    }
+
+    @Override
+    final void doRun(Progressive<T> async) throws Exception {
+      async.run(this);
+    }
+
+    /**
+     * Delivers the last chunks, only once the children are done, as they may notify progress too.
+     */
+    @Override
+    final void flush() {
+      if (batches != null) {
+        for (Batch batch : batches) {
+          batch.flush();
+        }
+      }
+    }
+
+    @Override
+    public final void notifyProgressBatch(Collection<? extends T> values) {
+      if (batches != null) {
+        for (Batch batch : batches) {
+          batch.addAll(values);
+        }
+      } else {
+        for (T value : values) {
+          notifyProgress(value);
+        }
+      }
+    }
+
+    @Override
+    public final void notifyProgress(T value) {
+      current = value;
+      if (batches != null) {
+        for (Batch batch : batches) {
+          batch.add(value);
+        }
+        return;
+      }
+      ThreadTransferer[] transferers = this.transferers;
+      for (int i = 0; i < handlers.length; i++) {
+        ThreadTransferer transferer;
+        if (transferers == null || (transferer = transferers[i]) == null
+          || transferer.isOnTargetThread()) {
+          dispatchers[i].onProgress(handlers[i], this);
+        } else if (pendings != null) {
+          if (pendings.compareAndSet(i, 0, 1)) {
+            // the value is read when delivered, so later values are delivered by the pending one
+            transferer.execute(new Delivery(i));
+          }
+        } else {
+          awaitCapacity();
+          undelivered.incrementAndGet();
+          transferer.execute(new BoundedDelivery<T>(this, i, value));
+        }
+      }
+    }
+
+    /**
+     * Waits until less than {@link #capacity} notifications are still to be delivered.
+     * 
+     * @throws CancelledException
+     *           if this job is cancelled while waiting.
+     */
+    private void awaitCapacity() {
+      if (undelivered.get() < capacity) {
+        return;
+      }
+      boolean interrupted = false;
+      waiter = Thread.currentThread();
+      try {
+        int rounds = 0;
+        while (undelivered.get() >= capacity) {
+          checkCancelled();
+          rounds = wait.idle(rounds);
+          if (Thread.interrupted()) {
+            // either a cancellation, checked at the next round, or to be restored
+            interrupted = true;
+          }
+        }
+        // the capacity may have been freed by the same call-back that cancelled this job
+        checkCancelled();
+      } finally {
+        waiter = null;
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    /**
+     * Notes that a bounded delivery completed, waking up the waiting progressive, if any, once half
+     * of the capacity is free, so that it is not woken up for each delivery.
+     */
+    final void delivered() {
+      if (undelivered.decrementAndGet() <= capacity >> 1) {
+        Thread waiter = this.waiter;
+        if (waiter != null) {
+          LockSupport.unpark(waiter);
+        }
+      }
+    }
+
+    @Override
+    final void complete(final int i) {
+      ThreadTransferer transferer;
+      if (transferers == null || (transferer = transferers[i]) == null
+        || transferer.isOnTargetThread()) {
+        super.complete(i);
+      } else {
+        // queue after the pending deliveries, so that the final value is delivered first
+        transferer.execute(new Runnable() {
+          @Override
+          public void run() {
+            ProgressiveJob.super.complete(i);
+          }
+        });
+      }
+    }
+
+    @Override
+    public T get() {
+      return current;
+    }
+
+    /**
+     * A conflated delivery of the progress to a handler.
+     */
+    private final class Delivery implements Runnable {
+      private final int index;
+
+      Delivery(int index) {
+        this.index = index;
+      }
+
+      @Override
+      public void run() {
+        // clear before the value is read, so that any newer value will be delivered again
+        pendings.set(index, 0);
+        dispatchers[index].onProgress(handlers[index], ProgressiveJob.this);
+      }
+    }
+
+    /**
+     * The chunk of progress values still to be delivered to a handler. The progressive fills it
+     * and a timer of the shared {@link TimingWheel} takes it out when its window elapses, so it is
+     * guarded by its own lock, uncontended but for the timer. The lock is held only to swap the
+     * chunk out: chunks are delivered outside of it, one at a time and in order, by the progressive
+     * when full and, when their window elapses, by the timer if the handler transfers them anyway,
+     * by the executor of the runner otherwise.
+     */
+    private final class Batch {
+      private final int index;
+
+      @NonNull
+      private ArrayList<T> chunk;
+
+      /**
+       * When the first value of the chunk was added, when a window is specified.
+       */
+      private long started;
+
+      /**
+       * The chunks taken out and not yet delivered, in order.
+       */
+      @NonNull
+      private final ConcurrentLinkedQueue<List<T>> ready = new ConcurrentLinkedQueue<List<T>>();
+
+      /**
+       * Held by the thread delivering the ready chunks.
+       */
+      @NonNull
+      private final ReentrantLock delivering = new ReentrantLock();
+
+      Batch(int index) {
+        this.index = index;
+        this.chunk = newChunk();
+      }
+
+      @NonNull
+      private ArrayList<T> newChunk() {
+        return new ArrayList<T>(Math.min(batchSize, 1024));
+      }
+
+      void add(@CheckForNull T value) {
+        boolean full;
+        synchronized (this) {
+          chunk.add(value);
+          full = chunk.size() >= batchSize;
+          if (full) {
+            takeChunk();
+          } else if (batchWindow > 0 && chunk.size() == 1) {
+            started = System.nanoTime();
+            TimingWheel.Shared.WHEEL.schedule(new TimingWheel.Timer() {
+              @Override
+              void expire() {
+                elapsed();
+              }
+            }, started + batchWindow);
+          }
+        }
+        if (full) {
+          deliver();
+        }
+      }
+
+      void addAll(@NonNull Collection<? extends T> values) {
+        for (T value : values) {
+          add(value);
+        }
+      }
+
+      /**
+       * Takes the chunk out, ready to be delivered, while holding the lock of this batch.
+       */
+      private void takeChunk() {
+        ready.offer(chunk);
+        chunk = newChunk();
+      }
+
+      /**
+       * Delivers the chunk, if not empty, after the chunks already taken out, waiting for the ones
+       * being delivered by the executor, so that all of them are delivered before the completion.
+       */
+      void flush() {
+        synchronized (this) {
+          if (!chunk.isEmpty()) {
+            takeChunk();
+          }
+        }
+        delivering.lock();
+        try {
+          deliverReady();
+        } finally {
+          delivering.unlock();
+        }
+      }
+
+      /**
+       * Delivers the ready chunks, unless another thread is delivering them, in which case that
+       * thread checks again for the chunks made ready in the meantime once done.
+       */
+      void deliver() {
+        while (!ready.isEmpty() && delivering.tryLock()) {
+          try {
+            deliverReady();
+          } finally {
+            delivering.unlock();
+          }
+        }
+      }
+
+      private void deliverReady() {
+        List<T> values;
+        while ((values = ready.poll()) != null) {
+          dispatchers[index].onProgressBatch((BatchProgressHandler<T>) handlers[index], values);
+        }
+      }
+
+      /**
+       * Takes the chunk out if its window elapsed and delivers it, a chunk taken out when full is
+       * followed by a new one with its own timeout.
+       */
+      void elapsed() {
+        synchronized (this) {
+          if (chunk.isEmpty() || System.nanoTime() - started < batchWindow) {
+            return;
+          }
+          takeChunk();
+        }
+        if (transferers[index] != null) {
+          // the delivery only hands the chunk to the transferer
+          deliverReporting();
+          return;
+        }
+        try {
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              deliverReporting();
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          // the chunk is delivered by the next flush of the progressive
+        }
+      }
+
+      /**
+       * Delivers the ready chunks from a thread that would not see a failure of the handler.
+       */
+      private void deliverReporting() {
+        try {
+          deliver();
+        } catch (RuntimeException e) {
+          dispatchers[index].onException(handlers[index], e);
+        }
+      }
+    }
+  }
+
+  /**
+   * The jobs started with the same key, run one after the other.
+   * <p>
+   * The strand is executed only while it has jobs, and the execution runs them in order until none
+   * is left. Producers count a job before appending it, so that only the first job after an idle
+   * period executes the strand, and the running execution retires the strand, removing it from the
+   * map, when it runs out of jobs.
+   * </p>
+   */
+  private final class Strand extends ExecutionQueue.Node implements Runnable {
+    /**
+     * The value of {@link #pending} of a retired strand.
+     */
+    private static final int RETIRED = -1;
+
+    @NonNull
+    private final Object key;
+
+    /**
+     * The number of jobs added and not yet run, {@link #RETIRED} once retired.
+     */
+    @NonNull
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * The last entry appended, shared by the producers.
+     */
+    @NonNull
+    private final AtomicReference<KeyedEntry> tail;
+
+    /**
+     * The last entry consumed, only updated by the running execution.
+     */
+    @NonNull
+    private volatile KeyedEntry head;
+
+    Strand(@NonNull Object key) {
+      this.key = key;
+      this.head = new KeyedEntry(null);
+      this.tail = new AtomicReference<KeyedEntry>(head);
+    }
+
+    /**
+     * Appends the job, executing the strand if it was idle.
+     * 
+     * @return {@code false} if the strand is retired.
+     */
+    boolean add(@NonNull AbstractJob<?, ?> job) {
+      int count;
+      do {
+        count = pending.get();
+        if (count == RETIRED) {
+          return false;
+        }
+      } while (!pending.compareAndSet(count, count + 1));
+      KeyedEntry entry = new KeyedEntry(job);
+      job.entry = entry;
+      // the swap orders the producers, the link makes the entry visible to the execution
+      tail.getAndSet(entry).next = entry;
+      if (count == 0) {
+        executor.execute(this);
+      }
+      return true;
+    }
+
+    @Override
+    public void run() {
+      drain(true);
+    }
+
+    /**
+     * Cancels the jobs of a strand removed from the executor.
+     */
+    void cancelUnstarted() {
+      drain(false);
+    }
+
+    @Override
+    void dropped() {
+      cancelUnstarted();
+    }
+
+    private void drain(boolean run) {
+      do {
+        KeyedEntry next;
+        while ((next = head.next) == null) {
+          // a producer counted its job but has not linked it yet
+          Thread.yield();
+        }
+        head = next;
+        AbstractJob<?, ?> job = next.take();
+        if (job != null) {
+          // jobs do not throw, they call back their handlers
+          if (run) {
+            job.run();
+          } else {
+            job.cancelUnstarted();
+          }
+        }
+      } while (pending.decrementAndGet() > 0);
+      // a job added from now on executes the strand again, unless retired first
+      if (pending.compareAndSet(0, RETIRED)) {
+        strands.remove(key, this);
+      }
+    }
+  }
+
+  /**
+   * An entry of a {@link Strand}.
+   */
+  private static final class KeyedEntry {
+    @NonNull
+    private static final AtomicReferenceFieldUpdater<KeyedEntry, AbstractJob<?, ?>> JOB = AtomicReferenceFieldUpdater
+      .newUpdater(KeyedEntry.class, jobClass(), "job");
+
+    /**
+     * The job, {@code null} once taken or removed.
+     */
+    @CheckForNull
+    volatile AbstractJob<?, ?> job;
+
+    @CheckForNull
+    volatile KeyedEntry next;
+
+    KeyedEntry(@CheckForNull AbstractJob<?, ?> job) {
+      this.job = job;
+    }
+
+    @CheckForNull
+    AbstractJob<?, ?> take() {
+      AbstractJob<?, ?> taken = job;
+      return taken != null && JOB.compareAndSet(this, taken, null) ? taken : null;
+    }
+
+    boolean remove(@NonNull AbstractJob<?, ?> job) {
+      return JOB.compareAndSet(this, job, null);
+    }
+  }
+
+  /**
+   * Jobs that complete something once all of them are done, completed by the last one, so that no
+   * thread waits for them.
+   */
+  private abstract class Scope {
+    /**
+     * The jobs not yet done, plus one until the scope is closed.
+     */
+    @NonNull
+    final AtomicInteger pending = new AtomicInteger(1);
+
+    /**
+     * Adds the specified job, not yet started.
+     * 
+     * @throws IllegalStateException
+     *           if the scope is already done.
+     */
+    void adopt(@NonNull AbstractJob<?, ?> job) {
+      int count;
+      do {
+        count = pending.get();
+        if (count == 0) {
+          throw new IllegalStateException("the run has already completed");
+        }
+      } while (!pending.compareAndSet(count, count + 1));
+      job.parent = this;
+    }
+
+    /**
+     * Releases the specified job, done, concluding the scope if it is the last.
+     */
+    void release(@NonNull AbstractJob<?, ?> job, @CheckForNull Exception failure) {
+      if (pending.decrementAndGet() == 0) {
+        conclude();
+      }
+    }
+
+    /**
+     * Closes the scope to new jobs, concluding it if all of them are done.
+     */
+    final void close() {
+      if (pending.decrementAndGet() == 0) {
+        conclude();
+      }
+    }
+
+    /**
+     * Cancels the jobs not yet done.
+     */
+    abstract void cancel();
+
+    /**
+     * Called once, by the thread that finds the scope closed and all of its jobs done.
+     */
+    abstract void conclude();
+  }
+
+  /**
+   * The children forked by a job, that the job owns: cancelling the job cancels them and the job
+   * completes only once all of them are done.
+   */
+  private final class Forks extends Scope {
+    /**
+     * The job that forked the children.
+     */
+    @NonNull
+    private final AbstractJob<?, ?> owner;
+
+    /**
+     * The children not yet done.
+     */
+    @NonNull
+    private final Set<AbstractJob<?, ?>> children = Collections
+      .newSetFromMap(new ConcurrentHashMap<AbstractJob<?, ?>, Boolean>());
+
+    /**
+     * The failure of the first child that failed, when failing fast.
+     */
+    @NonNull
+    private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+    /**
+     * Whether the first child that fails cancels its siblings and fails the owner.
+     */
+    volatile boolean failFast;
+
+    /**
+     * Whether the run of the owner ended with an error, so that it does not complete.
+     */
+    private volatile boolean abandoned;
+
+    // The outcome of the run of the owner, published by the decrement of pending.
+    private int outcome;
+    private boolean succeeded;
+    @CheckForNull
+    private Exception thrown;
 
-    private RequestJob(@NonNull Request<T> request, @NonNull ResponseHandler<T>... handlers) {
-      super(request, handlers);
+    Forks(@NonNull AbstractJob<?, ?> owner) {
+      this.owner = owner;
     }
 
     @Override
-    final void doRun(Request<T> async) throws Exception {
-      value = async.run(this);
-      for (ResponseHandler<T> handler : handlers) {
-        handleResult(handler, this);
+    void adopt(@NonNull AbstractJob<?, ?> child) {
+      super.adopt(child);
+      children.add(child);
+    }
+
+    /**
+     * Returns whether a child failed, when failing fast.
+     */
+    boolean failed() {
+      return failure.get() != null;
+    }
+
+    @Override
+    void cancel() {
+      for (AbstractJob<?, ?> child : children) {
+        child.cancel();
       }
     }
 
     @Override
-    public T get() {
-      return value;
+    void release(@NonNull AbstractJob<?, ?> child, @CheckForNull Exception failure) {
+      children.remove(child);
+      if (failure != null && failFast && this.failure.compareAndSet(null, failure)) {
+        cancel();
+      }
+      super.release(child, failure);
+    }
+
+    /**
+     * Notes the outcome of the run of the owner, cancelling the children if it did not succeed, and
+     * completes the owner if they are all done.
+     */
+    void close(int outcome, boolean succeeded, @CheckForNull Exception thrown) {
+      this.outcome = outcome;
+      this.succeeded = succeeded;
+      this.thrown = thrown;
+      if (!succeeded) {
+        cancel();
+      }
+      close();
+    }
+
+    /**
+     * The run of the owner ended with an error, cancels the children and leaves the owner as it is
+     * once they are done.
+     */
+    void abandon() {
+      abandoned = true;
+      cancel();
+      pending.decrementAndGet();
+    }
+
+    /**
+     * Completes the owner, folding the failure of the children and its cancellation into the
+     * outcome of its run.
+     */
+    @Override
+    void conclude() {
+      if (abandoned) {
+        return;
+      }
+      int outcome = this.outcome;
+      boolean succeeded = this.succeeded;
+      Exception thrown = this.thrown;
+      if (thrown == null) {
+        Exception failure = this.failure.get();
+        if (failure != null) {
+          thrown = failure;
+          succeeded = false;
+        } else if (succeeded && owner.isCancelRequested()) {
+          outcome |= AbstractJob.CANCELLED;
+          succeeded = false;
+        }
+      }
+      owner.complete(outcome, succeeded, thrown);
     }
   }
 
-  private final class ProgressiveJob<T> extends AbstractJob<Progressive<T>, ProgressHandler<T>> implements ProgressState<T>, Progress<T> {
+  /**
+   * Jobs started together, done once all of them are done.
+   */
+  private final class Group extends Scope implements AsyncRun {
+    @NonNull
+    private final AbstractJob<?, ?>[] jobs;
 
     /**
-     * The current value notified as progress.
+     * The handlers of the group.
+     */
+    @NonNull
+    private final CompletionHandler[] handlers;
+
+    /**
+     * The {@link HandlerDispatcher} of each handler of the group, by position.
+     */
+    @NonNull
+    private final HandlerDispatcher[] dispatchers;
+
+    /**
+     * The failure of the first job that failed, if any.
+     */
+    @NonNull
+    private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+    private volatile boolean cancelled;
+
+    private volatile boolean done;
+
+    Group(@NonNull AbstractJob<?, ?>[] jobs, @NonNull CompletionHandler[] handlers) {
+      this.jobs = jobs;
+      this.handlers = handlers;
+      this.dispatchers = dispatchesOf(handlers);
+    }
+
+    @Override
+    void release(@NonNull AbstractJob<?, ?> job, @CheckForNull Exception failure) {
+      if (failure != null) {
+        this.failure.compareAndSet(null, failure);
+      }
+      super.release(job, failure);
+    }
+
+    @Override
+    public void cancel() {
+      if (done) {
+        return;
+      }
+      cancelled = true;
+      for (AbstractJob<?, ?> job : jobs) {
+        job.cancel();
+      }
+    }
+
+    @Override
+    void conclude() {
+      done = true;
+      try {
+        Exception failure = this.failure.get();
+        if (failure != null) {
+          throw failure;
+        }
+        if (!cancelled) {
+          for (int i = 0; i < handlers.length; i++) {
+            dispatchers[i].onComplete(handlers[i]);
+          }
+        }
+      } catch (Exception e) {
+        for (int i = 0; i < handlers.length; i++) {
+          dispatchers[i].onException(handlers[i], e);
+        }
+      } finally {
+        for (int i = 0; i < handlers.length; i++) {
+          dispatchers[i].onFinally(handlers[i]);
+        }
+      }
+    }
+
+    @Override
+    public boolean isStarted() {
+      for (AbstractJob<?, ?> job : jobs) {
+        if (job.isStarted()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isExpired() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return done;
+    }
+  }
+
+  /**
+   * The timer of a job scheduled after a delay.
+   */
+  private final class Due extends TimingWheel.Timer {
+    @NonNull
+    private final AbstractJob<?, ?> job;
+
+    /**
+     * The epoch the job was scheduled in.
      */
+    private final int scheduled;
+
+    Due(@NonNull AbstractJob<?, ?> job, int scheduled) {
+      this.job = job;
+      this.scheduled = scheduled;
+    }
+
+    @Override
+    void expire() {
+      handOff(job, scheduled);
+    }
+  }
+
+  /**
+   * An async run periodically, by a new job for each run, whose timer is armed when the previous
+   * run ends.
+   */
+  private final class Periodic implements AsyncRun {
+    @NonNull
+    private final Async async;
+
+    @NonNull
+    private final CompletionHandler[] handlers;
+
+    /**
+     * The period or the delay, in nanoseconds.
+     */
+    private final long period;
+
+    /**
+     * Whether the period is from when the previous run was due, rather than from its end.
+     */
+    private final boolean fixedRate;
+
+    /**
+     * The epoch the async was scheduled in.
+     */
+    private final int scheduled;
+
+    /**
+     * When the next run is due, only used by the run before it.
+     */
+    private long next;
+
     @CheckForNull
-    private volatile T current;
+    private volatile TimingWheel.Timer timer;
 
-    private ProgressiveJob(@NonNull Progressive<T> request, @NonNull ProgressHandler<T>... handlers) {
-      super(request, handlers);
+    @CheckForNull
+    private volatile AsyncJob current;
+
+    private volatile boolean ran;
+
+    private volatile boolean cancelled;
+
+    Periodic(@NonNull Async async, @NonNull CompletionHandler[] handlers, long period,
+      boolean fixedRate) {
+      this.async = async;
+      this.handlers = handlers;
+      this.period = period;
+      this.fixedRate = fixedRate;
+      this.scheduled = epoch.get();
+    }
+
+    /**
+     * Schedules the next run.
+     */
+    void arm(long deadline) {
+      next = deadline;
+      TimingWheel.Timer timer = new TimingWheel.Timer() {
+        @Override
+        void expire() {
+          if (cancelled) {
+            return;
+          }
+          AsyncJob job = new AsyncJob(async, handlers);
+          job.periodic = Periodic.this;
+          current = job;
+          if (cancelled) {
+            // cancelled before the job could be seen
+            job.cancelUnstarted();
+            return;
+          }
+          handOff(job, scheduled);
+        }
+      };
+      this.timer = timer;
+      TimingWheel.Shared.WHEEL.schedule(timer, deadline);
+      // cancelled before the timer could be seen
+      if (cancelled) {
+        timer.cancel();
+      }
+    }
+
+    /**
+     * Called at the end of each run, to schedule the next.
+     */
+    void ran() {
+      ran = true;
+      armNext();
+    }
+
+    /**
+     * Called when a run is cancelled before starting, because rejected, dropped or expired, to
+     * schedule the next: only {@link #cancel()}, {@link DefaultRunner#cancelPendings()} and
+     * {@link DefaultRunner#shutdown()} stop the schedule.
+     */
+    void skipped() {
+      if (scheduled != epoch.get()) {
+        // the pending computations have been cancelled since the async was scheduled
+        cancel();
+      } else {
+        armNext();
+      }
+    }
+
+    private void armNext() {
+      if (!cancelled) {
+        arm(fixedRate ? next + period : System.nanoTime() + period);
+      }
     }
 
     @Override
-    final void doRun(Progressive<T> async) throws Exception {
-      async.run(this);
+    public boolean isStarted() {
+      AsyncJob job = current;
+      return ran || (job != null && job.isStarted());
     }
 
     @Override
-    public final void notifyProgress(T value) {
-      current = value;
-      for (ProgressHandler<T> handler : handlers) {
-        handleProgress(handler, this);
+    public void cancel() {
+      if (cancelled) {
+        return;
+      }
+      cancelled = true;
+      TimingWheel.Timer timer = this.timer;
+      if (timer != null) {
+        timer.cancel();
+      }
+      AsyncJob job = current;
+      if (job != null) {
+        job.cancel();
+      }
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isExpired() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      AsyncJob job = current;
+      return cancelled && (job == null || job.isDone());
+    }
+  }
+
+  /**
+   * A bounded delivery of a progress value to a handler.
+   * 
+   * @param <T>
+   *          the type of the value.
+   */
+  private static final class BoundedDelivery<T> implements Runnable, Progress<T> {
+    @NonNull
+    private final DefaultRunner.ProgressiveJob<T> job;
+
+    private final int index;
+
+    @CheckForNull
+    private final T value;
+
+    BoundedDelivery(@NonNull DefaultRunner.ProgressiveJob<T> job, int index, @CheckForNull T value) {
+      this.job = job;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    public void run() {
+      try {
+        job.dispatchers[index].onProgress(job.handlers[index], this);
+      } finally {
+        job.delivered();
       }
     }
 
     @Override
     public T get() {
-      return current;
+      return value;
+    }
+
+    @Override
+    public void cancel() {
+      job.cancel();
     }
   }
 }
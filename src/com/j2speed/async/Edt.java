@@ -16,19 +16,25 @@
 package com.j2speed.async;
 
 import static java.awt.EventQueue.invokeLater;
+import static java.awt.EventQueue.isDispatchThread;
 
 /**
  * Transfer class for the EDT. This class satisfies the contract established by the {@link RunOn}
  * annotation to transfer the execution to a specified thread, specifically the AWT Event Dispatch
  * Thread.
+ * <p>
+ * As a {@link ThreadTransferer}, call-backs already on the EDT are run inline and batches are
+ * posted as a single event. Call-backs from chatty jobs can be coalesced in few events with
+ * {@link ThreadTransferers#coalesce(Class)}.
+ * </p>
  * 
  * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
  */
-public abstract class Edt {
+public final class Edt implements ThreadTransferer {
   private Edt() {}
 
   /**
-   * This method satisfies the contract specified by the {@link RunOn} annotation.
+   * This method satisfies the original contract specified by the {@link RunOn} annotation.
    * 
    * @param runnable
    *          the code to transfer to the EDT to run.
@@ -36,4 +42,37 @@ public abstract class Edt {
   public static void transfer(Runnable runnable) {
     invokeLater(runnable);
   }
+
+  @Override
+  public boolean isOnTargetThread() {
+    return isDispatchThread();
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    invokeLater(runnable);
+  }
+
+  @Override
+  public void transfer(final Runnable[] runnables) {
+    invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        // as separate events, a failing call-back must not prevent the others from running
+        RuntimeException failure = null;
+        for (Runnable runnable : runnables) {
+          try {
+            runnable.run();
+          } catch (RuntimeException e) {
+            if (failure == null) {
+              failure = e;
+            }
+          }
+        }
+        if (failure != null) {
+          throw failure;
+        }
+      }
+    });
+  }
 }
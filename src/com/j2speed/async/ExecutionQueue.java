@@ -15,75 +15,1188 @@
  */
 package com.j2speed.async;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 
 /**
- * A synchronous queue with a buffer queue used to keep rejected task to reschedule when threads
- * free up.
+ * The queue of a {@link ReentrantExecutor}: a lock-free linked queue, for any number of producers
+ * and consumers, that hands tasks off to idle workers and keeps the tasks rejected by the executor
+ * until a worker frees up.
  * <p>
- * Buffered tasks are polled before the task in the underling queue so that scheduling sequence is
- * maintained, even if that is not strictly necessary considering the asynchronous nature of the
- * result.
+ * As a {@link SynchronousQueue}, {@link #offer(Runnable)} only accepts a task if a worker is
+ * waiting for one, so that the executor starts new threads up to its maximum before queuing, and
+ * the tasks it then rejects are queued by {@link #rejectedExecution(Runnable, ThreadPoolExecutor)}.
+ * Being a single queue, {@link #remove(Object)} and {@link #drainTo(Collection)} reach all the
+ * tasks not yet started, so that they can be cancelled.
+ * </p>
+ * <p>
+ * Removal is logical: the entry of the task is marked as dead, and the consumers skip it. Tasks
+ * extending {@link Node} are their own entry, so that they are queued without allocation and
+ * removed in constant time.
+ * </p>
+ * <p>
+ * Tasks are queued in a lane per {@link Priority}, as given by {@link Node#priority()}, and taken
+ * from the highest priority lane that is not empty. To prevent starvation, the first task of a lane
+ * is taken as if it were in the next higher lane for each aging period it has waited.
+ * </p>
+ * <p>
+ * Within a lane, the tasks with a {@link Node#deadline() deadline} are also indexed by it, and
+ * taken earliest deadline first, ahead of the tasks without one, unless the first of those has
+ * waited for an aging period.
+ * </p>
+ * <p>
+ * A batch of tasks is queued with {@link #queueAll(List)} by linking them in a single operation
+ * per lane, waking up only as many waiting consumers as tasks.
+ * </p>
+ * <p>
+ * The queue can be bounded: tasks rejected by the executor when the queue is full are handled by
+ * an {@link OverloadPolicy}, and {@link #put(Runnable)} waits for room.
+ * </p>
+ * <p>
+ * Consumers finding the queue empty wait as told by a {@link WaitStrategy}, parking by themselves
+ * on the rounds that park, so that their deadline is honoured. Producers handing a task off to a
+ * waiting consumer only unpark it if it parked, so that spinning consumers cost no system call.
  * </p>
  * 
  * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
  */
-class ExecutionQueue extends SynchronousQueue<Runnable> implements RejectedExecutionHandler {
+class ExecutionQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable>,
+  RejectedExecutionHandler {
+
+  /**
+   * The item of the entries whose task has been taken or removed.
+   */
+  @NonNull
+  static final Runnable DEAD = new Runnable() {
+    @Override
+    public void run() {}
+  };
 
-  private static final long serialVersionUID = 1L;
+  @NonNull
+  private static final AtomicReferenceFieldUpdater<Node, Node> NEXT = AtomicReferenceFieldUpdater
+    .newUpdater(Node.class, Node.class, "next");
+
+  @NonNull
+  private static final AtomicReferenceFieldUpdater<Node, Runnable> ITEM = AtomicReferenceFieldUpdater
+    .newUpdater(Node.class, Runnable.class, "item");
 
   /**
-   * The buffer queue.
+   * The default aging period, in nanoseconds.
+   */
+  static final long AGING = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * The lanes, by {@link Priority#ordinal()}.
    */
   @NonNull
-  private final Queue<Runnable> bufferQueue = new ConcurrentLinkedQueue<Runnable>();
+  private final Lane[] lanes;
+
+  /**
+   * How long, in nanoseconds, a task waits before being taken as if it had the next higher
+   * priority.
+   */
+  private final long aging;
+
+  /**
+   * The maximum number of tasks queued.
+   */
+  private final int capacity;
+
+  /**
+   * What to do with the tasks rejected by the executor when the queue is full.
+   */
+  @NonNull
+  private final OverloadPolicy policy;
+
+  /**
+   * How the consumers wait for a task.
+   */
+  @NonNull
+  private final WaitStrategy waiting;
+
+  /**
+   * The source of the sequence numbers that order the tasks with the same deadline.
+   */
+  private final AtomicLong sequence = new AtomicLong();
+
+  /**
+   * The number of tasks queued, or about to be.
+   */
+  @NonNull
+  private final AtomicInteger count = new AtomicInteger();
+
+  /**
+   * The number of tasks the policy did not queue as submitted.
+   */
+  @NonNull
+  private final AtomicLong overloads = new AtomicLong();
+
+  /**
+   * The stack of the consumers waiting for a task.
+   */
+  @NonNull
+  private final AtomicReference<Waiter> waiters = new AtomicReference<Waiter>();
+
+  /**
+   * The stack of the producers waiting for room in the queue.
+   */
+  @NonNull
+  private final AtomicReference<Waiter> producers = new AtomicReference<Waiter>();
+
+  /**
+   * Constructor of the class.
+   */
+  ExecutionQueue() {
+    this(Integer.MAX_VALUE, OverloadPolicy.REJECT);
+  }
+
+  /**
+   * Constructor of the class.
+   * 
+   * @param aging
+   *          how long a task waits before being taken as if it had the next higher priority.
+   * @param unit
+   *          the time unit.
+   */
+  ExecutionQueue(long aging, @NonNull TimeUnit unit) {
+    this(Integer.MAX_VALUE, OverloadPolicy.REJECT, aging, unit);
+  }
+
+  /**
+   * Constructor of the class.
+   * 
+   * @param capacity
+   *          the maximum number of tasks queued.
+   * @param policy
+   *          what to do with the tasks rejected by the executor when the queue is full.
+   */
+  ExecutionQueue(int capacity, @NonNull OverloadPolicy policy) {
+    this(capacity, policy, AGING, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Constructor of the class.
+   * 
+   * @param capacity
+   *          the maximum number of tasks queued.
+   * @param policy
+   *          what to do with the tasks rejected by the executor when the queue is full.
+   * @param aging
+   *          how long a task waits before being taken as if it had the next higher priority.
+   * @param unit
+   *          the time unit.
+   */
+  ExecutionQueue(int capacity, @NonNull OverloadPolicy policy, long aging, @NonNull TimeUnit unit) {
+    this(capacity, policy, aging, unit, WaitStrategy.PARK);
+  }
+
+  /**
+   * Constructor of the class.
+   * 
+   * @param capacity
+   *          the maximum number of tasks queued.
+   * @param policy
+   *          what to do with the tasks rejected by the executor when the queue is full.
+   * @param aging
+   *          how long a task waits before being taken as if it had the next higher priority.
+   * @param unit
+   *          the time unit.
+   * @param waiting
+   *          how the consumers wait for a task.
+   */
+  ExecutionQueue(int capacity, @NonNull OverloadPolicy policy, long aging, @NonNull TimeUnit unit,
+    @NonNull WaitStrategy waiting) {
+    if (capacity <= 0 || aging <= 0) {
+      throw new IllegalArgumentException();
+    }
+    if (policy == null || waiting == null) {
+      throw new NullPointerException();
+    }
+    this.capacity = capacity;
+    this.policy = policy;
+    this.waiting = waiting;
+    this.aging = unit.toNanos(aging);
+    lanes = new Lane[Priority.values().length];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new Lane();
+    }
+  }
 
+  /**
+   * Queues the task only if a consumer is waiting for it.
+   */
   @Override
-  public void clear() {
-    super.clear();
-    bufferQueue.clear();
+  public boolean offer(@NonNull Runnable task) {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+    Waiter waiter = reserve(waiters);
+    if (waiter == null) {
+      return false;
+    }
+    // handed off, so queued regardless of the capacity
+    count.incrementAndGet();
+    enqueue(entryOf(task));
+    waiter.wake();
+    return true;
   }
 
   @Override
-  public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
-    Runnable run;
-    // Note the buffer either has or not a task, so we don't want to wait on the buffer
-    if ((run = bufferQueue.poll()) == null) {
-      return super.poll(timeout, unit);
+  public void put(@NonNull Runnable task) throws InterruptedException {
+    if (task == null) {
+      throw new NullPointerException();
     }
-    return run;
+    awaitRoom(false, 0);
+    queue(task);
   }
 
   @Override
-  public Runnable poll() {
-    Runnable run;
-    if ((run = bufferQueue.poll()) == null) {
-      return super.poll();
+  public boolean offer(@NonNull Runnable task, long timeout, @NonNull TimeUnit unit)
+    throws InterruptedException {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+    if (!awaitRoom(true, unit.toNanos(timeout))) {
+      return false;
     }
-    return run;
+    queue(task);
+    return true;
+  }
+
+  /**
+   * Queues the task if the queue has room for it, otherwise the {@link OverloadPolicy} of the
+   * queue handles it, unless submitted by the thread of a {@link TimingWheel}, that it rejects.
+   * 
+   * @throws RejectedExecutionException
+   *           if the policy rejects the task.
+   */
+  @Override
+  public void rejectedExecution(@NonNull Runnable task, ThreadPoolExecutor executor) {
+    if (acquire()) {
+      queue(task);
+    } else if (TimingWheel.isWheelThread()) {
+      policy.shed(this);
+    } else {
+      policy.overflow(this, task);
+    }
+  }
+
+  /**
+   * Queues, in one go, the first of the specified tasks that the queue has room for, waking up as
+   * many waiting consumers as tasks queued, at most.
+   * 
+   * @param tasks
+   *          the tasks to queue.
+   * 
+   * @return the number of tasks queued, from the first.
+   */
+  int queueAll(@NonNull List<? extends Runnable> tasks) {
+    int room = acquire(tasks.size());
+    if (room == 0) {
+      return 0;
+    }
+    // chain the entries of each lane, so that each chain is linked with a single operation
+    Node[] firsts = new Node[lanes.length];
+    Node[] lasts = new Node[lanes.length];
+    long now = System.nanoTime();
+    for (int i = 0; i < room; i++) {
+      Node node = entryOf(tasks.get(i));
+      int lane = node.priority().ordinal();
+      node.queued = now;
+      if (node.expiring()) {
+        node.sequence = sequence.getAndIncrement();
+        // indexed before being linked: if taken meanwhile, it is linked dead and skipped
+        lanes[lane].deadlines.add(node);
+      }
+      if (lasts[lane] == null) {
+        firsts[lane] = node;
+      } else {
+        lasts[lane].next = node;
+      }
+      lasts[lane] = node;
+    }
+    for (int i = 0; i < lanes.length; i++) {
+      if (firsts[i] != null) {
+        lanes[i].enqueue(firsts[i], lasts[i]);
+      }
+    }
+    for (int i = 0; i < room; i++) {
+      Waiter waiter = reserve(waiters);
+      if (waiter == null) {
+        break;
+      }
+      waiter.wake();
+    }
+    return room;
+  }
+
+  /**
+   * Returns the maximum number of tasks queued.
+   * 
+   * @return the capacity.
+   */
+  int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns what is done with the tasks rejected by the executor when the queue is full.
+   * 
+   * @return the policy.
+   */
+  @NonNull
+  OverloadPolicy policy() {
+    return policy;
+  }
+
+  /**
+   * Returns how the consumers wait for a task.
+   * 
+   * @return the wait strategy.
+   */
+  @NonNull
+  WaitStrategy waiting() {
+    return waiting;
+  }
+
+  /**
+   * Returns the number of tasks the policy did not queue as submitted.
+   * 
+   * @return the number of overloads.
+   */
+  long overloads() {
+    return overloads.get();
+  }
+
+  /**
+   * Returns how long the oldest task in the queue has been waiting.
+   * 
+   * @return the wait in nanoseconds, 0 if the queue is empty.
+   */
+  long oldestWait() {
+    long now = System.nanoTime();
+    long wait = 0;
+    for (Lane lane : lanes) {
+      Node first = lane.first();
+      if (first != null) {
+        wait = Math.max(wait, now - first.queued);
+      }
+    }
+    return wait;
+  }
+
+  /**
+   * Counts a task the policy did not queue as submitted.
+   */
+  void overloaded() {
+    overloads.incrementAndGet();
+  }
+
+  /**
+   * Drops the oldest task of the lowest priority lane that is not empty, cancelling it if it is a
+   * {@link Node}, until the specified task can be queued in its place.
+   */
+  void replaceOldest(@NonNull Runnable task) {
+    while (!acquire()) {
+      Runnable dropped = null;
+      for (int i = lanes.length - 1; i >= 0 && dropped == null; i--) {
+        dropped = lanes[i].poll();
+      }
+      if (dropped == null) {
+        // the room is taken by tasks about to be queued
+        Thread.yield();
+        continue;
+      }
+      taken();
+      overloaded();
+      if (dropped instanceof Node) {
+        ((Node) dropped).dropped();
+      }
+    }
+    queue(task);
+  }
+
+  @Override
+  public Runnable poll() {
+    return dequeue();
+  }
+
+  @Override
+  public Runnable poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+    return await(true, unit.toNanos(timeout));
   }
 
   @Override
   public Runnable take() throws InterruptedException {
-    Runnable run;
-    if ((run = bufferQueue.poll()) == null) {
-      return super.take();
+    return await(false, 0);
+  }
+
+  /**
+   * Returns the first task of the highest priority lane that is not empty, regardless of aging.
+   */
+  @Override
+  public Runnable peek() {
+    for (Lane lane : lanes) {
+      Runnable item = lane.peek();
+      if (item != null) {
+        return item;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return peek() == null;
+  }
+
+  @Override
+  public int size() {
+    return count.get();
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return capacity - count.get();
+  }
+
+  /**
+   * Removes the specified task, if not taken yet. A task extending {@link Node} is removed in
+   * constant time, while any other task is searched from the head.
+   */
+  @Override
+  public boolean remove(Object task) {
+    if (task instanceof Node) {
+      Node node = (Node) task;
+      if (ITEM.compareAndSet(node, (Runnable) task, DEAD)) {
+        if (node.expiring()) {
+          lanes[node.priority().ordinal()].deadlines.remove(node);
+        }
+        taken();
+        return true;
+      }
+      return false;
+    }
+    if (task != null) {
+      for (Lane lane : lanes) {
+        for (Node node = lane.live(lane.head.get().next); node != null; node = lane.live(lane
+          .successor(node))) {
+          Runnable item = node.item;
+          if (task.equals(item) && ITEM.compareAndSet(node, item, DEAD)) {
+            taken();
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void clear() {
+    for (Lane lane : lanes) {
+      while (lane.poll() != null) {
+        taken();
+      }
     }
-    return run;
   }
 
   @Override
-  public void rejectedExecution(Runnable run, ThreadPoolExecutor executor) {
-    if (!bufferQueue.offer(run)) {
-      throw new RejectedExecutionException();
+  public int drainTo(@NonNull Collection<? super Runnable> tasks) {
+    return drainTo(tasks, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(@NonNull Collection<? super Runnable> tasks, int maxElements) {
+    if (tasks == this) {
+      throw new IllegalArgumentException();
+    }
+    int drained = 0;
+    Runnable task;
+    for (Lane lane : lanes) {
+      while (drained < maxElements && (task = lane.poll()) != null) {
+        taken();
+        tasks.add(task);
+        drained++;
+      }
+    }
+    return drained;
+  }
+
+  /**
+   * Returns an iterator over the tasks, by lane, from the highest priority.
+   */
+  @Override
+  public Iterator<Runnable> iterator() {
+    return new Iterator<Runnable>() {
+      private int lane;
+
+      @CheckForNull
+      private Node next;
+
+      @CheckForNull
+      private Runnable nextItem;
+
+      @CheckForNull
+      private Node last;
+
+      {
+        advance(lanes[0].head.get().next);
+      }
+
+      /**
+       * Moves to the first live entry from the specified one, moving on to the next lanes when the
+       * current one is over, keeping its task, as the entry can die before being returned.
+       */
+      private void advance(@CheckForNull Node node) {
+        for (;;) {
+          Lane current = lanes[lane];
+          for (node = current.live(node); node != null; node = current.live(current
+            .successor(node))) {
+            Runnable item = node.item;
+            if (item != DEAD) {
+              next = node;
+              nextItem = item;
+              return;
+            }
+          }
+          if (++lane == lanes.length) {
+            next = null;
+            nextItem = null;
+            return;
+          }
+          node = lanes[lane].head.get().next;
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      public Runnable next() {
+        Node node = next;
+        if (node == null) {
+          throw new NoSuchElementException();
+        }
+        Runnable item = nextItem;
+        last = node;
+        advance(lanes[lane].successor(node));
+        return item;
+      }
+
+      @Override
+      public void remove() {
+        Node node = last;
+        if (node == null) {
+          throw new IllegalStateException();
+        }
+        last = null;
+        Runnable item = node.item;
+        if (item != DEAD && ITEM.compareAndSet(node, item, DEAD)) {
+          taken();
+        }
+      }
+    };
+  }
+
+  /**
+   * Orders the entries by deadline, as of {@link System#nanoTime()}, then by the order they were
+   * queued.
+   */
+  @NonNull
+  private static final Comparator<Node> BY_DEADLINE = new Comparator<Node>() {
+    @Override
+    public int compare(Node a, Node b) {
+      long difference = a.deadline() - b.deadline();
+      if (difference == 0) {
+        difference = a.sequence - b.sequence;
+      }
+      return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+    }
+  };
+
+  /**
+   * Returns the entry of the specified task: the task itself if it extends {@link Node} and has
+   * never been queued, a new entry otherwise.
+   */
+  @NonNull
+  private static Node entryOf(@NonNull Runnable task) {
+    if (task instanceof Node && ITEM.compareAndSet((Node) task, null, task)) {
+      return (Node) task;
+    }
+    return new Node(task);
+  }
+
+  private void enqueue(@NonNull Node node) {
+    Priority priority = node.priority();
+    node.queued = System.nanoTime();
+    if (node.expiring()) {
+      node.sequence = sequence.getAndIncrement();
+    }
+    lanes[priority.ordinal()].enqueue(node);
+  }
+
+  /**
+   * Takes the first task of the highest priority lane that is not empty, unless the first task of
+   * a lower priority lane has waited long enough to be promoted above it.
+   */
+  @CheckForNull
+  private Runnable dequeue() {
+    for (;;) {
+      int chosen = -1;
+      Node chosenFirst = null;
+      long now = 0;
+      long best = 0;
+      for (int i = 0; i < lanes.length; i++) {
+        Node first = lanes[i].first();
+        if (first == null) {
+          continue;
+        }
+        if (chosenFirst == null) {
+          chosen = i;
+          chosenFirst = first;
+          continue;
+        }
+        if (now == 0) {
+          // only read the clock when there is a choice to make
+          now = System.nanoTime();
+          best = chosen - (now - chosenFirst.queued) / aging;
+        }
+        long effective = i - (now - first.queued) / aging;
+        if (effective < best) {
+          chosen = i;
+          best = effective;
+        }
+      }
+      if (chosen < 0) {
+        return null;
+      }
+      Runnable task = lanes[chosen].take(aging);
+      if (task != null) {
+        taken();
+        return task;
+      }
+      // taken meanwhile, choose again
+    }
+  }
+
+  /**
+   * Reserves room for a task, if the queue is not full.
+   */
+  private boolean acquire() {
+    for (;;) {
+      int queued = count.get();
+      if (queued >= capacity) {
+        return false;
+      }
+      if (count.compareAndSet(queued, queued + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Reserves room for up to the specified number of tasks, as many as the queue has room for.
+   * 
+   * @return the number of tasks reserved.
+   */
+  private int acquire(int tasks) {
+    for (;;) {
+      int queued = count.get();
+      int room = Math.min(tasks, capacity - queued);
+      if (room <= 0) {
+        return 0;
+      }
+      if (count.compareAndSet(queued, queued + room)) {
+        return room;
+      }
+    }
+  }
+
+  /**
+   * Queues a task for which room has been reserved, waking up a waiting consumer.
+   */
+  private void queue(@NonNull Runnable task) {
+    enqueue(entryOf(task));
+    signal(waiters);
+  }
+
+  /**
+   * Releases the room of a task taken or removed, waking up a waiting producer.
+   */
+  private void taken() {
+    count.decrementAndGet();
+    if (producers.get() != null) {
+      signal(producers);
+    }
+  }
+
+  /**
+   * Reserves room for a task, waiting for it if the queue is full.
+   */
+  private boolean awaitRoom(boolean timed, long nanos) throws InterruptedException {
+    long deadline = timed ? System.nanoTime() + nanos : 0;
+    for (;;) {
+      if (acquire()) {
+        return true;
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (timed && deadline - System.nanoTime() <= 0) {
+        return false;
+      }
+      Waiter waiter = new Waiter(Thread.currentThread());
+      push(producers, waiter);
+      // room released before the push did not find this waiter
+      if (acquire()) {
+        if (!waiter.cancel()) {
+          // reserved meanwhile, pass the wake-up on
+          signal(producers);
+        }
+        return true;
+      }
+      if (!park(producers, waiter, WaitStrategy.PARK, timed, deadline)) {
+        // timed out
+        return acquire();
+      }
+      // reserved, the room is free unless another producer got it first
+    }
+  }
+
+  /**
+   * Takes the next task, waiting for it if the queue is empty.
+   */
+  @CheckForNull
+  private Runnable await(boolean timed, long nanos) throws InterruptedException {
+    long deadline = timed ? System.nanoTime() + nanos : 0;
+    for (;;) {
+      Runnable task = dequeue();
+      if (task != null) {
+        return task;
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (timed && (nanos = deadline - System.nanoTime()) <= 0) {
+        return null;
+      }
+      Waiter waiter = new Waiter(Thread.currentThread());
+      push(waiters, waiter);
+      // a task queued before the push did not find this waiter
+      task = dequeue();
+      if (task != null) {
+        if (!waiter.cancel()) {
+          // reserved meanwhile, pass the hand-off on
+          signal(waiters);
+        }
+        return task;
+      }
+      if (!park(waiters, waiter, waiting, timed, deadline)) {
+        // timed out
+        return dequeue();
+      }
+      // reserved, the task is queued unless another consumer got it first
+    }
+  }
+
+  /**
+   * Waits, with the specified strategy, until the specified waiter is reserved, or the deadline
+   * expires.
+   * 
+   * @return {@code true} if reserved, {@code false} if timed out.
+   */
+  private boolean park(@NonNull AtomicReference<Waiter> stack, @NonNull Waiter waiter,
+    @NonNull WaitStrategy strategy, boolean timed, long deadline) throws InterruptedException {
+    int rounds = 0;
+    while (waiter.state == Waiter.WAITING) {
+      long nanos = 0;
+      if (timed && (nanos = deadline - System.nanoTime()) <= 0) {
+        break;
+      }
+      if (!strategy.parks(rounds)) {
+        rounds = strategy.idle(rounds);
+      } else {
+        // published before checking the state again, so that the reserving thread unparks
+        waiter.parked = true;
+        if (waiter.state != Waiter.WAITING) {
+          break;
+        }
+        if (timed) {
+          LockSupport.parkNanos(this, nanos);
+        } else {
+          LockSupport.park(this);
+        }
+        rounds++;
+      }
+      if (Thread.interrupted()) {
+        if (!waiter.cancel()) {
+          signal(stack);
+        }
+        throw new InterruptedException();
+      }
+    }
+    return !waiter.cancel();
+  }
+
+  private static void push(@NonNull AtomicReference<Waiter> stack, @NonNull Waiter waiter) {
+    Waiter top;
+    do {
+      top = stack.get();
+      // drop the cancelled waiters on the top, as they are only dropped when signalling otherwise
+      Waiter next = top;
+      while (next != null && next.state != Waiter.WAITING) {
+        next = next.next;
+      }
+      waiter.next = next;
+    } while (!stack.compareAndSet(top, waiter));
+  }
+
+  /**
+   * Pops and reserves a waiter, if any.
+   */
+  @CheckForNull
+  private static Waiter reserve(@NonNull AtomicReference<Waiter> stack) {
+    for (;;) {
+      Waiter waiter = stack.get();
+      if (waiter == null) {
+        return null;
+      }
+      if (stack.compareAndSet(waiter, waiter.next) && waiter.reserve()) {
+        return waiter;
+      }
+    }
+  }
+
+  /**
+   * Wakes up a waiter, if any.
+   */
+  private static void signal(@NonNull AtomicReference<Waiter> stack) {
+    Waiter waiter = reserve(stack);
+    if (waiter != null) {
+      waiter.wake();
+    }
+  }
+
+  /**
+   * A lock-free linked queue of entries.
+   */
+  private static final class Lane {
+    /**
+     * The sentinel preceding the first entry. Entries are consumed by moving the head on them.
+     */
+    @NonNull
+    final AtomicReference<Node> head;
+
+    /**
+     * The last entry, or one close to it.
+     */
+    @NonNull
+    private final AtomicReference<Node> tail;
+
+    /**
+     * The entries with a deadline, also linked in the lane, earliest deadline first.
+     */
+    @NonNull
+    final ConcurrentSkipListSet<Node> deadlines = new ConcurrentSkipListSet<Node>(BY_DEADLINE);
+
+    Lane() {
+      Node sentinel = new Node(DEAD);
+      head = new AtomicReference<Node>(sentinel);
+      tail = new AtomicReference<Node>(sentinel);
+    }
+
+    void enqueue(@NonNull Node node) {
+      for (;;) {
+        Node last = tail.get();
+        Node next = last.next;
+        if (next == null) {
+          if (NEXT.compareAndSet(last, null, node)) {
+            tail.compareAndSet(last, node);
+            if (node.expiring()) {
+              deadlines.add(node);
+            }
+            return;
+          }
+        } else if (next == last) {
+          // the tail has been consumed, restart from the head
+          tail.compareAndSet(last, head.get());
+        } else {
+          tail.compareAndSet(last, next);
+        }
+      }
+    }
+
+    /**
+     * Links the specified chain of entries, not yet linked, at the end of the lane.
+     */
+    void enqueue(@NonNull Node first, @NonNull Node last) {
+      for (;;) {
+        Node end = tail.get();
+        Node next = end.next;
+        if (next == null) {
+          if (NEXT.compareAndSet(end, null, first)) {
+            tail.compareAndSet(end, last);
+            return;
+          }
+        } else if (next == end) {
+          // the tail has been consumed, restart from the head
+          tail.compareAndSet(end, head.get());
+        } else {
+          tail.compareAndSet(end, next);
+        }
+      }
+    }
+
+    @CheckForNull
+    Runnable poll() {
+      for (;;) {
+        Node first = head.get();
+        Node next = first.next;
+        if (next == null) {
+          return null;
+        }
+        if (next != first && head.compareAndSet(first, next)) {
+          // unlink the consumed sentinel, so that a task holding it does not retain the queue
+          NEXT.lazySet(first, first);
+          Runnable item = next.item;
+          if (item != DEAD && ITEM.compareAndSet(next, item, DEAD)) {
+            if (next.expiring()) {
+              deadlines.remove(next);
+            }
+            return item;
+          }
+        }
+      }
+    }
+
+    /**
+     * Takes the entry with the earliest deadline, unless the first entry has none and has waited
+     * for the specified aging period, otherwise the first entry.
+     */
+    @CheckForNull
+    Runnable take(long aging) {
+      for (;;) {
+        Node urgent = urgent();
+        if (urgent == null) {
+          return poll();
+        }
+        Node first = first();
+        if (first != null && !first.expiring() && System.nanoTime() - first.queued >= aging) {
+          return poll();
+        }
+        Runnable item = urgent.item;
+        if (item != DEAD && ITEM.compareAndSet(urgent, item, DEAD)) {
+          // left dead in the links, where it is skipped
+          deadlines.remove(urgent);
+          return item;
+        }
+        // taken meanwhile, choose again
+      }
+    }
+
+    /**
+     * Returns the live entry with the earliest deadline, dropping the dead ones before it.
+     */
+    @CheckForNull
+    private Node urgent() {
+      for (;;) {
+        Node urgent;
+        try {
+          urgent = deadlines.first();
+        } catch (NoSuchElementException e) {
+          return null;
+        }
+        if (urgent.item != DEAD) {
+          return urgent;
+        }
+        deadlines.remove(urgent);
+      }
+    }
+
+    /**
+     * Returns the first entry whose task has not been taken or removed, if any.
+     */
+    @CheckForNull
+    Node first() {
+      return live(head.get().next);
+    }
+
+    @CheckForNull
+    Runnable peek() {
+      for (Node node = first(); node != null; node = live(successor(node))) {
+        Runnable item = node.item;
+        if (item != DEAD) {
+          return item;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Returns the entry following the specified one, restarting from the head if it has been
+     * consumed meanwhile.
+     */
+    @CheckForNull
+    Node successor(@NonNull Node node) {
+      Node next = node.next;
+      return next == node ? head.get().next : next;
+    }
+
+    /**
+     * Returns the first entry, from the specified one, whose task has not been taken or removed.
+     */
+    @CheckForNull
+    Node live(@CheckForNull Node node) {
+      while (node != null && node.item == DEAD) {
+        node = successor(node);
+      }
+      return node;
+    }
+  }
+
+  /**
+   * An entry of the queue. Tasks extending this class are their own entry, and must not be queued
+   * again once taken, as they would then be queued in a new entry that only a full search can
+   * remove.
+   */
+  static class Node {
+    /**
+     * The task, {@code null} for a task that is its own entry and has not been queued yet, or
+     * {@link ExecutionQueue#DEAD}.
+     */
+    @CheckForNull
+    volatile Runnable item;
+
+    @CheckForNull
+    volatile Node next;
+
+    /**
+     * When the entry was queued, as of {@link System#nanoTime()}.
+     */
+    long queued;
+
+    /**
+     * The order in which the entry was queued, among the ones with a deadline.
+     */
+    long sequence;
+
+    /**
+     * Constructor for the tasks that are their own entry.
+     */
+    Node() {}
+
+    Node(@NonNull Runnable item) {
+      this.item = item;
+    }
+
+    /**
+     * Returns the priority of the task, read once when it is queued.
+     * 
+     * @return the priority, {@link Priority#NORMAL} unless overridden.
+     */
+    @NonNull
+    Priority priority() {
+      return Priority.NORMAL;
+    }
+
+    /**
+     * Returns whether the task has a {@link #deadline()}, read when it is queued and taken.
+     * 
+     * @return {@code false} unless overridden.
+     */
+    boolean expiring() {
+      return false;
+    }
+
+    /**
+     * Returns the deadline of the task, as of {@link System#nanoTime()}, if {@link #expiring()}.
+     * 
+     * @return the deadline.
+     */
+    long deadline() {
+      return 0;
+    }
+
+    /**
+     * Called when the task is dropped from the queue by {@link OverloadPolicy#DROP_OLDEST}, in the
+     * thread that submitted the task taking its place.
+     */
+    void dropped() {}
+  }
+
+  /**
+   * A consumer waiting for a task.
+   */
+  private static final class Waiter {
+    static final int WAITING = 0;
+
+    static final int RESERVED = 1;
+
+    static final int CANCELLED = 2;
+
+    @NonNull
+    private static final AtomicIntegerFieldUpdater<Waiter> STATE = AtomicIntegerFieldUpdater
+      .newUpdater(Waiter.class, "state");
+
+    @NonNull
+    final Thread thread;
+
+    volatile int state;
+
+    /**
+     * Whether the thread parks, set before it checks the state for the last time before parking.
+     */
+    volatile boolean parked;
+
+    /**
+     * The waiter below in the stack, set before pushing this one.
+     */
+    @CheckForNull
+    Waiter next;
+
+    Waiter(@NonNull Thread thread) {
+      this.thread = thread;
+    }
+
+    boolean reserve() {
+      return STATE.compareAndSet(this, WAITING, RESERVED);
+    }
+
+    boolean cancel() {
+      return STATE.compareAndSet(this, WAITING, CANCELLED);
+    }
+
+    /**
+     * Unparks the thread of a reserved waiter, unless it is still spinning and sees the
+     * reservation by itself.
+     */
+    void wake() {
+      if (parked) {
+        LockSupport.unpark(thread);
+      }
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.List;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Routes the call-backs of the instances of a specific handler class, honouring the {@link RunOn}
+ * annotations and the typed {@code onException} overloads declared by the class.
+ * <p>
+ * Runners look for a dispatcher named after the binary name of the handler class followed by
+ * {@value #SUFFIX}, eg: {@code com.acme.MyHandler$$Dispatcher}, in the class loader of the handler
+ * class. Such dispatchers are generated at compile time by the annotation processor built with
+ * the {@code processor} target, and route the call-backs with plain Java calls. When no dispatcher
+ * is found, runners resolve the same routing by reflection.
+ * </p>
+ * <p>
+ * Dispatchers must be public, with a public no argument constructor, and they must not keep any
+ * state related to a specific handler instance.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public abstract class HandlerDispatcher {
+  /**
+   * The suffix appended to the binary name of a handler class to name its dispatcher.
+   */
+  public static final String SUFFIX = "$$Dispatcher";
+
+  /**
+   * Routes {@link ResponseHandler#onResponse(Result)}. Never called for handler classes that do not
+   * implement {@link ResponseHandler}.
+   * 
+   * @param <T>
+   *          the type of the value.
+   * @param handler
+   *          the handler to call-back.
+   * @param result
+   *          the result to pass.
+   */
+  public abstract <T> void onResponse(@NonNull ResponseHandler<T> handler,
+    @NonNull Result<T> result);
+
+  /**
+   * Routes {@link ProgressHandler#onProgress(Progress)}. Never called for handler classes that do
+   * not implement {@link ProgressHandler}.
+   * 
+   * @param <T>
+   *          the type of the value.
+   * @param handler
+   *          the handler to call-back.
+   * @param progress
+   *          the progress to pass.
+   */
+  public abstract <T> void onProgress(@NonNull ProgressHandler<T> handler,
+    @CheckForNull Progress<T> progress);
+
+  /**
+   * Routes {@link BatchProgressHandler#onProgressBatch(List)}. Never called for handler classes
+   * that do not implement {@link BatchProgressHandler}.
+   * 
+   * @param <T>
+   *          the type of the value.
+   * @param handler
+   *          the handler to call-back.
+   * @param values
+   *          the values to pass.
+   */
+  public abstract <T> void onProgressBatch(@NonNull BatchProgressHandler<T> handler,
+    @NonNull List<T> values);
+
+  /**
+   * Routes {@link CompletionHandler#onComplete()}. Never called for handler classes that do not
+   * implement {@link CompletionHandler}.
+   * 
+   * @param handler
+   *          the handler to call-back.
+   */
+  public abstract void onComplete(@NonNull CompletionHandler handler);
+
+  /**
+   * Routes the specified throwable to the {@code onException} overload of the handler that best
+   * matches it, that is, the one declaring the closest superclass of the throwable class.
+   * 
+   * @param handler
+   *          the handler to call-back.
+   * @param throwable
+   *          the throwable to handle.
+   */
+  public abstract void onException(@NonNull ExceptionHandler handler, @NonNull Throwable throwable);
+
+  /**
+   * Routes {@link ExceptionHandler#onFinally()}.
+   * 
+   * @param handler
+   *          the handler to call-back.
+   */
+  public abstract void onFinally(@NonNull ExceptionHandler handler);
+}
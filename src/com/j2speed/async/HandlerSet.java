@@ -0,0 +1,334 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import static com.j2speed.async.HandlingProcessor.batchTransfererOf;
+import static com.j2speed.async.HandlingProcessor.dispatchesOf;
+import static com.j2speed.async.HandlingProcessor.progressTransfererOf;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * An immutable set of handlers, prepared once to be passed to any number of
+ * {@link AsyncRunner#start(Async, HandlerSet)} calls.
+ * <p>
+ * Starting with a handler set, the runner does not copy or extend the handlers and does not
+ * resolve their dispatch again, so that the only per start cost is the job itself. Because of
+ * that, the started async is never added to the handlers: if it implements the handler type and
+ * must receive the call-backs, it has to be part of the set, eg:
+ * 
+ * <pre>
+ * HandlerSet&lt;ResponseHandler&lt;String&gt;&gt; handlers = HandlerSet.of(request, logger);
+ * ...
+ * runner.start(request, handlers);
+ * </pre>
+ * 
+ * </p>
+ * <p>
+ * Sets built with {@link #conflating(ProgressHandler...)} conflate the progress delivered to the
+ * handlers whose {@link ProgressHandler#onProgress(Progress)} is transferred by {@link RunOn},
+ * while sets built with {@link #bounded(int, WaitStrategy, ProgressHandler...)} bound the
+ * progress still to be delivered to them. Sets built with
+ * {@link #batching(int, long, TimeUnit, BatchProgressHandler...)} deliver the progress in chunks.
+ * </p>
+ * 
+ * @param <H>
+ *          the handler type.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public final class HandlerSet<H extends ExceptionHandler> {
+
+  /**
+   * The handlers, in call-back order.
+   */
+  @NonNull
+  final H[] handlers;
+
+  /**
+   * The {@link HandlerDispatcher} of each handler, by position.
+   */
+  @NonNull
+  final HandlerDispatcher[] dispatchers;
+
+  /**
+   * Whether the handlers receive {@link CompletionHandler#onComplete()}.
+   */
+  final boolean completing;
+
+  /**
+   * The transferer of {@link ProgressHandler#onProgress(Progress)} of each handler, by position,
+   * when progress is conflated or bounded, or of {@link BatchProgressHandler#onProgressBatch} when
+   * batched, {@code null} otherwise. A {@code null} transferer means that the handler is called
+   * back directly, so there is nothing to conflate or bound.
+   */
+  @CheckForNull
+  final ThreadTransferer[] progressTransferers;
+
+  /**
+   * Whether the progress is conflated.
+   */
+  final boolean conflating;
+
+  /**
+   * The maximum number of progress notifications still to be delivered, {@code 0} if unbounded.
+   */
+  final int capacity;
+
+  /**
+   * How the progressive waits for the capacity, when bounded.
+   */
+  @CheckForNull
+  final WaitStrategy wait;
+
+  /**
+   * The maximum number of progress values per chunk, {@code 0} if the progress is not batched.
+   */
+  final int batchSize;
+
+  /**
+   * The maximum time, in nanoseconds, a progress value waits in a chunk, {@code 0} if the chunks
+   * are only delivered when full.
+   */
+  final long batchWindow;
+
+  private HandlerSet(@NonNull H[] handlers) {
+    this(handlers, false, 0, null, 0, 0);
+  }
+
+  private HandlerSet(@NonNull H[] handlers, boolean conflating, int capacity,
+    @CheckForNull WaitStrategy wait, int batchSize, long batchWindow) {
+    for (H handler : handlers) {
+      if (handler == null) {
+        throw new NullPointerException();
+      }
+    }
+    this.handlers = handlers;
+    this.dispatchers = dispatchesOf(handlers);
+    this.completing = completes(handlers);
+    this.conflating = conflating;
+    this.capacity = capacity;
+    this.wait = wait;
+    this.batchSize = batchSize;
+    this.batchWindow = batchWindow;
+    if (batchSize > 0) {
+      progressTransferers = new ThreadTransferer[handlers.length];
+      for (int i = 0; i < handlers.length; i++) {
+        progressTransferers[i] = batchTransfererOf(handlers[i].getClass());
+      }
+    } else if (conflating || capacity > 0) {
+      progressTransferers = new ThreadTransferer[handlers.length];
+      for (int i = 0; i < handlers.length; i++) {
+        progressTransferers[i] = progressTransfererOf(handlers[i].getClass());
+      }
+    } else {
+      progressTransferers = null;
+    }
+  }
+
+  /**
+   * Builds a set of {@link CompletionHandler}s for {@link Async}s.
+   * 
+   * @param handlers
+   *          the handlers, in call-back order.
+   * 
+   * @return the handler set.
+   */
+  @NonNull
+  public static HandlerSet<CompletionHandler> of(@NonNull CompletionHandler... handlers) {
+    return new HandlerSet<CompletionHandler>(handlers.clone());
+  }
+
+  /**
+   * Builds a set of {@link ResponseHandler}s for {@link Request}s.
+   * 
+   * @param <T>
+   *          the type for the requested value.
+   * @param handlers
+   *          the handlers, in call-back order.
+   * 
+   * @return the handler set.
+   */
+  @NonNull
+  public static <T> HandlerSet<ResponseHandler<T>> of(@NonNull ResponseHandler<T>... handlers) {
+    return new HandlerSet<ResponseHandler<T>>(handlers.clone());
+  }
+
+  /**
+   * Builds a set of {@link ProgressHandler}s for {@link Progressive}s.
+   * 
+   * @param <T>
+   *          the type for the progress value.
+   * @param handlers
+   *          the handlers, in call-back order.
+   * 
+   * @return the handler set.
+   */
+  @NonNull
+  public static <T> HandlerSet<ProgressHandler<T>> of(@NonNull ProgressHandler<T>... handlers) {
+    return new HandlerSet<ProgressHandler<T>>(handlers.clone());
+  }
+
+  /**
+   * Builds a set of {@link ProgressHandler}s for {@link Progressive}s, that conflates the progress
+   * delivered to the handlers whose {@link ProgressHandler#onProgress(Progress)} is transferred.
+   * <p>
+   * At most one delivery per handler is pending at any time, while the progressive keeps notifying
+   * without ever blocking. A delivery always shows the newest value, and the final value is always
+   * delivered before {@link CompletionHandler#onComplete()}, that for these handlers is called on
+   * the thread that receives the progress.
+   * </p>
+   * 
+   * @param <T>
+   *          the type for the progress value.
+   * @param handlers
+   *          the handlers, in call-back order.
+   * 
+   * @return the handler set.
+   */
+  @NonNull
+  public static <T> HandlerSet<ProgressHandler<T>> conflating(
+    @NonNull ProgressHandler<T>... handlers) {
+    return new HandlerSet<ProgressHandler<T>>(handlers.clone(), true, 0, null, 0, 0);
+  }
+
+  /**
+   * Builds a set of {@link ProgressHandler}s for {@link Progressive}s, that bounds the progress
+   * notifications still to be delivered to the handlers whose
+   * {@link ProgressHandler#onProgress(Progress)} is transferred, parking the progressive when the
+   * capacity is exhausted.
+   * 
+   * @param <T>
+   *          the type for the progress value.
+   * @param capacity
+   *          the maximum number of notifications still to be delivered.
+   * @param handlers
+   *          the handlers, in call-back order.
+   * 
+   * @return the handler set.
+   * 
+   * @see #bounded(int, WaitStrategy, ProgressHandler...)
+   */
+  @NonNull
+  public static <T> HandlerSet<ProgressHandler<T>> bounded(@Nonnegative int capacity,
+    @NonNull ProgressHandler<T>... handlers) {
+    return bounded(capacity, WaitStrategy.PARK, handlers);
+  }
+
+  /**
+   * Builds a set of {@link ProgressHandler}s for {@link Progressive}s, that bounds the progress
+   * notifications still to be delivered to the handlers whose
+   * {@link ProgressHandler#onProgress(Progress)} is transferred.
+   * <p>
+   * Each notification is delivered with its own value. When the specified number of
+   * notifications is still to be delivered, {@link ProgressState#notifyProgress(Object)} waits
+   * with the specified strategy, until the deliveries free the capacity or the run is cancelled,
+   * in which case it throws {@link CancelledException}. The final value is always delivered before
+   * {@link CompletionHandler#onComplete()}, that for these handlers is called on the thread that
+   * receives the progress.
+   * </p>
+   * 
+   * @param <T>
+   *          the type for the progress value.
+   * @param capacity
+   *          the maximum number of notifications still to be delivered.
+   * @param wait
+   *          how the progressive waits for the capacity.
+   * @param handlers
+   *          the handlers, in call-back order.
+   * 
+   * @return the handler set.
+   * 
+   * @throws IllegalArgumentException
+   *           if the capacity is not positive.
+   */
+  @NonNull
+  public static <T> HandlerSet<ProgressHandler<T>> bounded(@Nonnegative int capacity,
+    @NonNull WaitStrategy wait, @NonNull ProgressHandler<T>... handlers) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException();
+    }
+    if (wait == null) {
+      throw new NullPointerException();
+    }
+    return new HandlerSet<ProgressHandler<T>>(handlers.clone(), false, capacity, wait, 0, 0);
+  }
+
+  /**
+   * Builds a set of {@link BatchProgressHandler}s for {@link Progressive}s, that delivers the
+   * progress values in chunks through {@link BatchProgressHandler#onProgressBatch(java.util.List)}.
+   * <p>
+   * A chunk is delivered when it reaches the specified size or, if a window is specified, when its
+   * first value has waited for the window, even if the progressive does not notify anymore. The
+   * last chunk is always delivered before {@link CompletionHandler#onComplete()}, that for these
+   * handlers is called on the thread that receives the chunks.
+   * </p>
+   * 
+   * @param <T>
+   *          the type for the progress value.
+   * @param size
+   *          the maximum number of values per chunk.
+   * @param window
+   *          the maximum time a value waits before being delivered, {@code 0} to deliver the
+   *          chunks only when full or at the end.
+   * @param unit
+   *          the unit of the window.
+   * @param handlers
+   *          the handlers, in call-back order.
+   * 
+   * @return the handler set.
+   * 
+   * @throws IllegalArgumentException
+   *           if the size is not positive or the window is negative.
+   */
+  @NonNull
+  public static <T> HandlerSet<ProgressHandler<T>> batching(@Nonnegative int size,
+    @Nonnegative long window, @NonNull TimeUnit unit, @NonNull BatchProgressHandler<T>... handlers) {
+    if (size <= 0 || window < 0) {
+      throw new IllegalArgumentException();
+    }
+    ProgressHandler<T>[] copy = handlers.clone();
+    return new HandlerSet<ProgressHandler<T>>(copy, false, 0, null, size, unit.toNanos(window));
+  }
+
+  /**
+   * Returns the number of handlers in this set.
+   * 
+   * @return the number of handlers.
+   */
+  @Nonnegative
+  public int size() {
+    return handlers.length;
+  }
+
+  /**
+   * Tells whether the specified handlers receive {@link CompletionHandler#onComplete()}, that is,
+   * whether they have been declared as {@link CompletionHandler}s.
+   * 
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return {@code true} if the handlers are {@link CompletionHandler}s.
+   */
+  static boolean completes(@NonNull ExceptionHandler[] handlers) {
+    return CompletionHandler.class.isAssignableFrom(handlers.getClass().getComponentType());
+  }
+}
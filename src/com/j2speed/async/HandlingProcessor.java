@@ -15,10 +15,18 @@
  */
 package com.j2speed.async;
 
+import static java.lang.invoke.MethodType.methodType;
 import static java.lang.reflect.Modifier.isPublic;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -28,13 +36,117 @@ import edu.umd.cs.findbugs.annotations.NonNull;
  */
 abstract class HandlingProcessor {
 
+  /**
+   * The resolved {@link HandlerDispatcher}s by handler class.
+   * <p>
+   * The dispatcher is held by the handler class itself, so that, once resolved, it is a field read
+   * away and, referencing only the handler methods and the transferers, it never keeps the class,
+   * and therefore its class loader, reachable.
+   * </p>
+   */
+  @NonNull
+  private static final ClassValue<HandlerDispatcher> DISPATCHERS = new ClassValue<HandlerDispatcher>() {
+    @Override
+    protected HandlerDispatcher computeValue(Class<?> handlerClass) {
+      HandlerDispatcher dispatcher = generatedDispatcherOf(handlerClass);
+      return dispatcher != null ? dispatcher : new Dispatch(handlerClass);
+    }
+  };
+
+  /**
+   * The dispatchers of no handlers, shared by all the jobs started without.
+   */
+  @NonNull
+  private static final HandlerDispatcher[] NO_DISPATCHERS = new HandlerDispatcher[0];
+
   private HandlingProcessor() {}
 
+  /**
+   * Returns the {@link HandlerDispatcher} for the specified handler class, resolving it only the
+   * first time the class is seen.
+   * <p>
+   * The dispatcher generated at compile time for the class is used if present, otherwise a
+   * reflective {@link Dispatch} is built.
+   * </p>
+   * 
+   * @param handlerClass
+   *          the class of the handler.
+   * 
+   * @return the {@link HandlerDispatcher} for the class.
+   */
+  @NonNull
+  static final HandlerDispatcher dispatchOf(@NonNull Class<?> handlerClass) {
+    return DISPATCHERS.get(handlerClass);
+  }
+
+  /**
+   * Returns the {@link HandlerDispatcher}s for the specified handlers.
+   * 
+   * @param handlers
+   *          the handlers.
+   * 
+   * @return an array with the {@link HandlerDispatcher} of each handler, by position.
+   */
+  @NonNull
+  static final HandlerDispatcher[] dispatchesOf(@NonNull ExceptionHandler[] handlers) {
+    if (handlers.length == 0) {
+      return NO_DISPATCHERS;
+    }
+    HandlerDispatcher[] dispatchers = new HandlerDispatcher[handlers.length];
+    for (int i = 0; i < handlers.length; i++) {
+      dispatchers[i] = dispatchOf(handlers[i].getClass());
+    }
+    return dispatchers;
+  }
+
+  /**
+   * Returns the transferer of {@link ProgressHandler#onProgress(Progress)} for the specified
+   * handler class.
+   * 
+   * @param handlerClass
+   *          the class of the handler.
+   * 
+   * @return the transferer, {@code null} if the call-back is invoked directly.
+   */
   @CheckForNull
-  private static final Method runOn(@NonNull Class<?> clazz, @NonNull String name,
-    @NonNull Class<?>... parameterTypes) {
+  static final ThreadTransferer progressTransfererOf(@NonNull Class<?> handlerClass) {
+    HandlerDispatcher dispatcher = dispatchOf(handlerClass);
+    if (dispatcher instanceof Dispatch) {
+      return ((Dispatch) dispatcher).progressTransferer;
+    }
+    return runOn(handlerClass, "onProgress", Progress.class);
+  }
+
+  /**
+   * Returns the transferer of {@link BatchProgressHandler#onProgressBatch(List)} of the specified
+   * handler class, if any.
+   * 
+   * @param handlerClass
+   *          the class of the handler.
+   * 
+   * @return the transferer or {@code null} if the call-back is not transferred.
+   */
+  @CheckForNull
+  static final ThreadTransferer batchTransfererOf(@NonNull Class<?> handlerClass) {
+    HandlerDispatcher dispatcher = dispatchOf(handlerClass);
+    if (dispatcher instanceof Dispatch) {
+      return ((Dispatch) dispatcher).batchTransferer;
+    }
+    return runOn(handlerClass, "onProgressBatch", List.class);
+  }
+
+  @CheckForNull
+  private static final HandlerDispatcher generatedDispatcherOf(@NonNull Class<?> handlerClass) {
+    final Class<?> dispatcherClass;
     try {
-      return runOn(clazz.getMethod(name, parameterTypes));
+      dispatcherClass = Class.forName(handlerClass.getName() + HandlerDispatcher.SUFFIX, true,
+        handlerClass.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      // not generated, fallback to reflection
+      return null;
+    }
+    try {
+      return (HandlerDispatcher) dispatcherClass.newInstance();
     } catch (RuntimeException e) {
       throw e;
     } catch (Exception e) {
@@ -43,82 +155,73 @@ abstract class HandlingProcessor {
   }
 
   @CheckForNull
-  private static final Method runOn(@NonNull Method method) {
+  private static final ThreadTransferer runOn(@NonNull Class<?> clazz, @NonNull String name,
+    @NonNull Class<?>... parameterTypes) {
     try {
-      // this call should never cause an exception because the methods checked are always public
-      RunOn runOn = method.getAnnotation(RunOn.class);
-      if (runOn != null) {
-        return runOn.value().getDeclaredMethod("transfer", Runnable.class);
-      }
+      return runOn(clazz.getMethod(name, parameterTypes));
     } catch (RuntimeException e) {
       throw e;
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
-    return null;
   }
 
-  private static final void transfer(@NonNull Method transferer, @NonNull Runnable run) {
-    try {
-      transferer.invoke(null, run);
-    } catch (InvocationTargetException e) {
-      handleInvocationTargetException(e);
-    } catch (IllegalArgumentException e) {
-      throw new RuntimeException(e);
-    } catch (IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
+  @CheckForNull
+  private static final ThreadTransferer runOn(@NonNull Method method) {
+    // this call should never cause an exception because the methods checked are always public
+    RunOn runOn = method.getAnnotation(RunOn.class);
+    return runOn != null ? ThreadTransferers.of(runOn.value()) : null;
   }
 
+  /**
+   * Makes the specified method invocable even if declared by a non public class.
+   * <p>
+   * There is a bug in reflection where a public method from a non public class cannot be invoked
+   * even if the method is an implementation of an interface and the non public class is used as an
+   * instance of that interface. See http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4071957
+   * </p>
+   * 
+   * @param method
+   *          the method to bind.
+   * 
+   * @return the specified method.
+   * 
+   * @throws SecurityException
+   *           if the access checks cannot be suppressed.
+   */
   @NonNull
-  private static final Method findBestMatch(@NonNull ExceptionHandler handler,
-    @NonNull Throwable throwable) {
-    final Class<?> handlerClass = handler.getClass();
-    Class<?> throwableClass = throwable.getClass();
-    do {
-      try {
-        return handlerClass.getMethod("onException", throwableClass);
-      } catch (NoSuchMethodException e) {
-        throwableClass = throwableClass.getSuperclass();
-        if (throwableClass == Object.class) {
-          // this should never happen because onException(Throwable) must be present for an instance
-          // of ExceptionHandler
-          throw new UnknownError("Expected method onException(Throwable) not found");
-        }
-      }
-    } while (true);
+  private static final Method bind(@NonNull Method method) {
+    if (!isPublic(method.getDeclaringClass().getModifiers())) {
+      method.setAccessible(true);
+    }
+    return method;
   }
 
-  private static final void handleException(@NonNull ExceptionHandler handler,
-    @NonNull Method handlerMethod, @NonNull Throwable throwable) {
-    if (handlerMethod.getParameterTypes()[0] == Throwable.class) {
-      // The handler method is the one defined in the interface, fallback to it
-      handler.onException(throwable);
-    } else {
-      try {
-        if (!isPublic(handlerMethod.getDeclaringClass().getModifiers())) {
-          // There is a bug in reflection where a public method from a non public class cannot be
-          // invoked even if the method is an implementation of an interface and the non public
-          // class
-          // is used as an instance of that interface.
-          // See http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4071957
-          handlerMethod.setAccessible(true);
-        }
-        handlerMethod.invoke(handler, throwable);
-      } catch (InvocationTargetException e) {
-        // The execution of the handling caused an exception
-        handleInvocationTargetException(e);
-      } catch (SecurityException e) {
-        throw e;
-      } catch (IllegalAccessException e) {
-        // This should never happen, selected methods are only public
-        throw new RuntimeException(e);
-      }
-    }
+  /**
+   * Binds the specified method to a handle typed as the specified type, so that it is invoked
+   * exactly, without the argument arrays and the access checks of reflection.
+   * 
+   * @param method
+   *          the method to bind.
+   * @param type
+   *          the type of the handle.
+   * 
+   * @return the handle of the method.
+   * 
+   * @throws IllegalAccessException
+   *           if the method cannot be accessed.
+   */
+  @NonNull
+  static final MethodHandle handleOf(@NonNull Method method, @NonNull MethodType type)
+    throws IllegalAccessException {
+    return MethodHandles.lookup().unreflect(bind(method)).asType(type);
   }
 
-  private static void handleInvocationTargetException(InvocationTargetException e) {
-    Throwable cause = e.getCause();
+  /**
+   * Rethrows what the invoked method threw, unchecked exceptions and errors as they are, checked
+   * exceptions, that methods cannot declare, wrapped in a {@link RuntimeException}.
+   */
+  static void handleInvocationTargetException(@NonNull Throwable cause) {
     if (cause instanceof RuntimeException) {
       throw (RuntimeException) cause;
     } else if (cause instanceof Error) {
@@ -127,77 +230,312 @@ abstract class HandlingProcessor {
     throw new RuntimeException(cause);
   }
 
-  static final void handleException(@NonNull final ExceptionHandler handler,
-    final @NonNull Throwable throwable) {
-    final Method bestMatch = findBestMatch(handler, throwable);
-    Method tranferer = runOn(bestMatch);
-    if (tranferer != null) {
-      transfer(tranferer, new Runnable() {
-        @Override
-        public void run() {
-          handleException(handler, bestMatch, throwable);
-        }
-      });
-    } else {
-      handleException(handler, bestMatch, throwable);
-    }
+  static final void handleException(@NonNull ExceptionHandler handler,
+    @NonNull Throwable throwable) {
+    dispatchOf(handler.getClass()).onException(handler, throwable);
+  }
+
+  static final <T> void handleResult(@NonNull ResponseHandler<T> handler, Result<T> value) {
+    dispatchOf(handler.getClass()).onResponse(handler, value);
+  }
+
+  static final <T> void handleProgress(@NonNull ProgressHandler<T> handler,
+    @CheckForNull Progress<T> value) {
+    dispatchOf(handler.getClass()).onProgress(handler, value);
+  }
+
+  static final <T> void handleProgressBatch(@NonNull BatchProgressHandler<T> handler,
+    @NonNull List<T> values) {
+    dispatchOf(handler.getClass()).onProgressBatch(handler, values);
+  }
+
+  static final void complete(@NonNull CompletionHandler handler) {
+    dispatchOf(handler.getClass()).onComplete(handler);
+  }
+
+  static final void handleFinally(@NonNull ExceptionHandler handler) {
+    dispatchOf(handler.getClass()).onFinally(handler);
   }
 
-  static final <T> void handleResult(final @NonNull ResponseHandler<T> handler,
-    final Result<T> value) {
-    Method transferer = runOn(handler.getClass(), "onResponse", Result.class);
-    if (transferer != null) {
-      transfer(transferer, new Runnable() {
-        @Override
-        public void run() {
-          handler.onResponse(value);
+  /**
+   * The reflective {@link HandlerDispatcher} of a handler class.
+   * <p>
+   * It holds the transferers, as specified by the {@link RunOn} annotation, of the call-backs
+   * supported by the handler class, resolved once when the dispatcher is built. A {@code null}
+   * transferer means that the call-back is invoked directly, as it is when the calling thread is
+   * already the target one of the transferer.
+   * </p>
+   */
+  static final class Dispatch extends HandlerDispatcher {
+    @CheckForNull
+    final ThreadTransferer responseTransferer;
+
+    @CheckForNull
+    final ThreadTransferer progressTransferer;
+
+    @CheckForNull
+    final ThreadTransferer batchTransferer;
+
+    @CheckForNull
+    final ThreadTransferer completeTransferer;
+
+    @CheckForNull
+    final ThreadTransferer finallyTransferer;
+
+    /**
+     * The public {@code onException} overloads of the handler class, by parameter type.
+     */
+    @NonNull
+    private final Map<Class<?>, Method> onExceptions = new HashMap<Class<?>, Method>();
+
+    /**
+     * The memoized best matches, by throwable class, only for the throwable classes that do not
+     * outlive the handler class, see {@link #isMemoizable(Class)}.
+     */
+    @NonNull
+    private final ConcurrentMap<Class<?>, ExceptionMatch> matches = new ConcurrentHashMap<Class<?>, ExceptionMatch>(
+      4);
+
+    /**
+     * The class loader of the handler class, {@code null} if the bootstrap one.
+     */
+    @CheckForNull
+    private final ClassLoader loader;
+
+    Dispatch(@NonNull Class<?> handlerClass) {
+      loader = handlerClass.getClassLoader();
+      responseTransferer = ResponseHandler.class.isAssignableFrom(handlerClass) ? runOn(
+        handlerClass, "onResponse", Result.class) : null;
+      progressTransferer = ProgressHandler.class.isAssignableFrom(handlerClass) ? runOn(
+        handlerClass, "onProgress", Progress.class) : null;
+      batchTransferer = BatchProgressHandler.class.isAssignableFrom(handlerClass) ? runOn(
+        handlerClass, "onProgressBatch", List.class) : null;
+      completeTransferer = CompletionHandler.class.isAssignableFrom(handlerClass) ? runOn(
+        handlerClass, "onComplete") : null;
+      finallyTransferer = runOn(handlerClass, "onFinally");
+      for (Method method : handlerClass.getMethods()) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if ("onException".equals(method.getName()) && parameterTypes.length == 1
+          && Throwable.class.isAssignableFrom(parameterTypes[0])) {
+          // the same signature can be listed more than once, eg: when also declared by an
+          // interface, the one from the most specific class is the one actually invoked
+          Method previous = onExceptions.get(parameterTypes[0]);
+          if (previous == null
+            || previous.getDeclaringClass().isAssignableFrom(method.getDeclaringClass())) {
+            onExceptions.put(parameterTypes[0], method);
+          }
         }
-      });
-    } else {
-      handler.onResponse(value);
+      }
     }
-  }
 
-  static final <T> void handleProgress(final @NonNull ProgressHandler<T> handler,
-    @CheckForNull final Progress<T> value) {
-    Method transferer = runOn(handler.getClass(), "onProgress", Progress.class);
-    if (transferer != null) {
-      transfer(transferer, new Runnable() {
-        @Override
-        public void run() {
-          handler.onProgress(value);
+    /**
+     * Returns the {@code onException} overload that best matches the specified throwable class,
+     * that is, the one declaring the closest superclass of the throwable class, resolving it only
+     * the first time the throwable class is seen, unless it cannot be memoized.
+     * 
+     * @param throwableClass
+     *          the class of the throwable to handle.
+     * 
+     * @return the best match.
+     */
+    @NonNull
+    final ExceptionMatch onException(@NonNull Class<?> throwableClass) {
+      ExceptionMatch match = matches.get(throwableClass);
+      if (match == null) {
+        Class<?> superClass = throwableClass;
+        Method method;
+        while ((method = onExceptions.get(superClass)) == null) {
+          superClass = superClass.getSuperclass();
+          if (superClass == Object.class) {
+            // this should never happen because onException(Throwable) must be present for an
+            // instance of ExceptionHandler
+            throw new UnknownError("Expected method onException(Throwable) not found");
+          }
         }
-      });
-    } else {
-      handler.onProgress(value);
+        match = new ExceptionMatch(method);
+        if (isMemoizable(throwableClass)) {
+          matches.put(throwableClass, match);
+        }
+      }
+      return match;
     }
-  }
 
-  static final void complete(final @NonNull CompletionHandler handler) {
-    Method transferer = runOn(handler.getClass(), "onComplete");
-    if (transferer != null) {
-      transfer(transferer, new Runnable() {
-        @Override
-        public void run() {
-          handler.onComplete();
+    /**
+     * Returns whether the specified class is loaded by the loader of the handler class or by one of
+     * its ancestors, that the handler class keeps alive anyway, so that memoizing it cannot pin the
+     * loader of a child or plug-in.
+     */
+    private boolean isMemoizable(@NonNull Class<?> throwableClass) {
+      ClassLoader throwableLoader = throwableClass.getClassLoader();
+      if (throwableLoader == null) {
+        return true;
+      }
+      for (ClassLoader ancestor = loader; ancestor != null; ancestor = ancestor.getParent()) {
+        if (ancestor == throwableLoader) {
+          return true;
         }
-      });
-    } else {
-      handler.onComplete();
+      }
+      return false;
+    }
+
+    @Override
+    public final <T> void onResponse(final @NonNull ResponseHandler<T> handler,
+      final Result<T> value) {
+      ThreadTransferer transferer = responseTransferer;
+      if (transferer != null && !transferer.isOnTargetThread()) {
+        transferer.execute(new Runnable() {
+          @Override
+          public void run() {
+            handler.onResponse(value);
+          }
+        });
+      } else {
+        handler.onResponse(value);
+      }
+    }
+
+    @Override
+    public final <T> void onProgress(final @NonNull ProgressHandler<T> handler,
+      @CheckForNull final Progress<T> value) {
+      ThreadTransferer transferer = progressTransferer;
+      if (transferer != null && !transferer.isOnTargetThread()) {
+        transferer.execute(new Runnable() {
+          @Override
+          public void run() {
+            handler.onProgress(value);
+          }
+        });
+      } else {
+        handler.onProgress(value);
+      }
+    }
+
+    @Override
+    public final <T> void onProgressBatch(final @NonNull BatchProgressHandler<T> handler,
+      final @NonNull List<T> values) {
+      ThreadTransferer transferer = batchTransferer;
+      if (transferer != null && !transferer.isOnTargetThread()) {
+        transferer.execute(new Runnable() {
+          @Override
+          public void run() {
+            handler.onProgressBatch(values);
+          }
+        });
+      } else {
+        handler.onProgressBatch(values);
+      }
+    }
+
+    @Override
+    public final void onComplete(final @NonNull CompletionHandler handler) {
+      ThreadTransferer transferer = completeTransferer;
+      if (transferer != null && !transferer.isOnTargetThread()) {
+        transferer.execute(new Runnable() {
+          @Override
+          public void run() {
+            handler.onComplete();
+          }
+        });
+      } else {
+        handler.onComplete();
+      }
+    }
+
+    @Override
+    public final void onException(@NonNull final ExceptionHandler handler,
+      final @NonNull Throwable throwable) {
+      final ExceptionMatch bestMatch = onException(throwable.getClass());
+      ThreadTransferer transferer = bestMatch.transferer;
+      if (transferer != null && !transferer.isOnTargetThread()) {
+        transferer.execute(new Runnable() {
+          @Override
+          public void run() {
+            bestMatch.handle(handler, throwable);
+          }
+        });
+      } else {
+        bestMatch.handle(handler, throwable);
+      }
+    }
+
+    @Override
+    public final void onFinally(final @NonNull ExceptionHandler handler) {
+      ThreadTransferer transferer = finallyTransferer;
+      if (transferer != null && !transferer.isOnTargetThread()) {
+        transferer.execute(new Runnable() {
+          @Override
+          public void run() {
+            handler.onFinally();
+          }
+        });
+      } else {
+        handler.onFinally();
+      }
     }
   }
 
-  static final void handleFinally(final @NonNull ExceptionHandler handler) {
-    Method transferer = runOn(handler.getClass(), "onFinally");
-    if (transferer != null) {
-      transfer(transferer, new Runnable() {
-        @Override
-        public void run() {
-          handler.onFinally();
+  /**
+   * The {@code onException} overload selected to handle a throwable class.
+   */
+  static final class ExceptionMatch {
+    /**
+     * The selected handler method.
+     */
+    @NonNull
+    final Method method;
+
+    /**
+     * The handle bound to the selected method, when a specific overload, {@code null} otherwise.
+     */
+    @CheckForNull
+    private final MethodHandle handle;
+
+    /**
+     * Whether the selected method is a specific overload or the {@code onException(Throwable)}
+     * defined in {@link ExceptionHandler}.
+     */
+    final boolean specific;
+
+    /**
+     * The transferer for the selected method, {@code null} if invoked directly.
+     */
+    @CheckForNull
+    final ThreadTransferer transferer;
+
+    ExceptionMatch(@NonNull Method method) {
+      this.specific = method.getParameterTypes()[0] != Throwable.class;
+      this.method = method;
+      try {
+        // only specific overloads are invoked through a handle
+        this.handle = specific ? handleOf(method, methodType(void.class, ExceptionHandler.class,
+          Throwable.class)) : null;
+      } catch (IllegalAccessException e) {
+        // This should never happen, selected methods are only public and bound
+        throw new RuntimeException(e);
+      }
+      this.transferer = runOn(method);
+    }
+
+    /**
+     * Invokes the selected method.
+     * 
+     * @param handler
+     *          the handler to invoke the method on.
+     * @param throwable
+     *          the throwable to handle.
+     */
+    final void handle(@NonNull ExceptionHandler handler, @NonNull Throwable throwable) {
+      if (!specific) {
+        // The handler method is the one defined in the interface, fallback to it
+        handler.onException(throwable);
+      } else {
+        try {
+          handle.invokeExact(handler, throwable);
+        } catch (Throwable e) {
+          // The execution of the handling caused an exception
+          handleInvocationTargetException(e);
         }
-      });
-    } else {
-      handler.onFinally();
+      }
     }
   }
 }
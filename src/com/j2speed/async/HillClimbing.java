@@ -0,0 +1,112 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * Hill climbing controller of the pool size of an adaptive {@link ReentrantExecutor}.
+ * <p>
+ * On every tick it is told the throughput measured since the previous tick and whether tasks are
+ * backing up in the queue. While they are, it moves the size by one thread at a time in the
+ * direction that last improved the throughput, reverses when the throughput drops and probes
+ * downwards when it does not change, so that threads that do not pay are given back. When no task
+ * completes at all, the threads are all blocked and it adds one, to avoid starvation. Without a
+ * backlog, it releases the threads that had nothing to do, one per tick.
+ * </p>
+ * <p>
+ * Not thread safe, it is only used by the tick of its executor.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+final class HillClimbing {
+
+  /**
+   * The relative change of throughput below which a move is considered to make no difference.
+   */
+  static final double TOLERANCE = 0.1;
+
+  private final int minimum;
+
+  private final int maximum;
+
+  /**
+   * The throughput measured at the previous tick, negative if there is no history to compare with.
+   */
+  private double last = -1;
+
+  /**
+   * Whether the next move adds threads.
+   */
+  private boolean up = true;
+
+  /**
+   * Constructor of the class.
+   * 
+   * @param minimum
+   *          the minimum pool size.
+   * @param maximum
+   *          the maximum pool size.
+   */
+  HillClimbing(@Nonnegative int minimum, @Nonnegative int maximum) {
+    this.minimum = minimum;
+    this.maximum = maximum;
+  }
+
+  /**
+   * Decides the pool size for the next tick.
+   * 
+   * @param size
+   *          the current pool size.
+   * @param throughput
+   *          the tasks completed per second since the previous tick.
+   * @param backlog
+   *          whether tasks waited in the queue for longer than a tick.
+   * @param busy
+   *          the number of threads running a task.
+   * 
+   * @return the new pool size, between the minimum and the maximum.
+   */
+  int next(int size, double throughput, boolean backlog, int busy) {
+    if (!backlog) {
+      last = -1;
+      up = true;
+      return busy < size ? Math.max(minimum, size - 1) : size;
+    }
+    if (throughput == 0) {
+      // starving: nothing to compare, and the threads are blocked rather than busy
+      last = -1;
+      up = true;
+      return Math.min(maximum, size + 1);
+    }
+    if (last > 0) {
+      double change = throughput / last - 1;
+      if (change < -TOLERANCE) {
+        up = !up;
+      } else if (change <= TOLERANCE) {
+        up = false;
+      }
+    }
+    last = throughput;
+    int next = up ? size + 1 : size - 1;
+    if (next > maximum || next < minimum) {
+      up = !up;
+      next = size;
+    }
+    return next;
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * What a {@link ReentrantExecutor} with a bounded queue does with a task when all its threads are
+ * busy and its queue is full.
+ * <p>
+ * Tasks that are not queued as submitted, because rejected, run by the caller, timed out or
+ * dropped, are counted by {@link ReentrantExecutor#getOverloadCount()}.
+ * </p>
+ * <p>
+ * Tasks handed off by the timers of a {@link DefaultRunner} are rejected whatever the policy, as
+ * the thread of the timers is shared and must neither run them nor wait, and their jobs are
+ * cancelled.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public abstract class OverloadPolicy {
+
+  /**
+   * Rejects the task with a {@link RejectedExecutionException}.
+   */
+  @NonNull
+  public static final OverloadPolicy REJECT = new OverloadPolicy() {
+    @Override
+    void overflow(ExecutionQueue queue, Runnable task) {
+      queue.overloaded();
+      throw new RejectedExecutionException();
+    }
+
+    @Override
+    public String toString() {
+      return "REJECT";
+    }
+  };
+
+  /**
+   * Runs the task in the thread that submitted it, slowing the submitter down to the pace of the
+   * executor.
+   */
+  @NonNull
+  public static final OverloadPolicy CALLER_RUNS = new OverloadPolicy() {
+    @Override
+    void overflow(ExecutionQueue queue, Runnable task) {
+      queue.overloaded();
+      task.run();
+    }
+
+    @Override
+    public String toString() {
+      return "CALLER_RUNS";
+    }
+  };
+
+  /**
+   * Drops the oldest task of the lowest priority, to make room for the submitted one. Dropped jobs
+   * of a {@link DefaultRunner} are cancelled, so that their handlers still receive
+   * {@link CompletionHandler#onFinally()}.
+   */
+  @NonNull
+  public static final OverloadPolicy DROP_OLDEST = new OverloadPolicy() {
+    @Override
+    void overflow(ExecutionQueue queue, Runnable task) {
+      queue.replaceOldest(task);
+    }
+
+    @Override
+    public String toString() {
+      return "DROP_OLDEST";
+    }
+  };
+
+  /**
+   * Package private constructor, as the policies need the internals of the queue.
+   */
+  OverloadPolicy() {}
+
+  /**
+   * Returns a policy that blocks the submitter until the queue has room for the task, rejecting it
+   * with a {@link RejectedExecutionException} if that takes longer than the specified timeout, or
+   * if the submitter is interrupted.
+   * 
+   * @param timeout
+   *          how long to wait for room in the queue.
+   * @param unit
+   *          the time unit.
+   * 
+   * @return the policy.
+   */
+  @NonNull
+  public static OverloadPolicy block(@Nonnegative long timeout, @NonNull TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException();
+    }
+    final long nanos = unit.toNanos(timeout);
+    return new OverloadPolicy() {
+      @Override
+      void overflow(ExecutionQueue queue, Runnable task) {
+        try {
+          if (queue.offer(task, nanos, TimeUnit.NANOSECONDS)) {
+            return;
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        queue.overloaded();
+        throw new RejectedExecutionException();
+      }
+
+      @Override
+      public String toString() {
+        return "BLOCK(" + nanos + "ns)";
+      }
+    };
+  }
+
+  /**
+   * Handles a task that found the queue full, submitted by the thread of a {@link TimingWheel}:
+   * rejects it.
+   * 
+   * @param queue
+   *          the full queue.
+   * 
+   * @throws RejectedExecutionException
+   *           always.
+   */
+  final void shed(@NonNull ExecutionQueue queue) {
+    queue.overloaded();
+    throw new RejectedExecutionException();
+  }
+
+  /**
+   * Handles a task that found the queue full.
+   * 
+   * @param queue
+   *          the full queue.
+   * @param task
+   *          the task.
+   * 
+   * @throws RejectedExecutionException
+   *           if the task is rejected.
+   */
+  abstract void overflow(@NonNull ExecutionQueue queue, @NonNull Runnable task);
+}
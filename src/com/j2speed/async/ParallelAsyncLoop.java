@@ -0,0 +1,282 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * A loop based {@link Progressive} over a range of indices, whose iterations are split across
+ * the threads of the runner: the run forks as many splits as the parallelism, less its own, and
+ * they all claim chunks of the range until it is exhausted or the execution is cancelled.
+ * <p>
+ * Chunks are claimed from a shared cursor, each a fraction of what is left of the range, so that
+ * they are large while there is plenty left and small towards the end, when a split that is late
+ * is caught up by the others. The values of a chunk are notified together once it is done, either
+ * as soon as it is done, or re-sequenced in the order of the range. Notifications are made by one
+ * split at a time, so that the handlers see them as from a single run.
+ * </p>
+ * <p>
+ * The splits share one cancellation: the first that fails, or is cancelled, stops the others, and
+ * the run completes, once, after all of them are done, with the exception of the first failure,
+ * if any. {@link #next(long)} is called by all the splits at the same time, so it has to be thread
+ * safe.
+ * </p>
+ * 
+ * @param <T>
+ *          the type of the progressive value.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public abstract class ParallelAsyncLoop<T> implements Progressive<T> {
+  /**
+   * The maximum number of iterations claimed at once, that bounds the values a split holds before
+   * notifying them.
+   */
+  private static final int CHUNK = 1024;
+
+  /**
+   * The first index.
+   */
+  private final long from;
+
+  /**
+   * The index after the last.
+   */
+  private final long to;
+
+  /**
+   * The number of splits.
+   */
+  private final int parallelism;
+
+  /**
+   * Whether the values are notified in the order of the range.
+   */
+  private final boolean ordered;
+
+  /**
+   * Constructor for subclasses.
+   * 
+   * @param from
+   *          the first index, inclusive.
+   * @param to
+   *          the last index, exclusive.
+   * @param parallelism
+   *          the number of splits, including the run itself.
+   * @param ordered
+   *          <code>true</code> to notify the values in the order of the range, <code>false</code>
+   *          to notify them as soon as they are ready.
+   */
+  protected ParallelAsyncLoop(long from, long to, @Nonnegative int parallelism, boolean ordered) {
+    if (to < from || parallelism < 1) {
+      throw new IllegalArgumentException();
+    }
+    this.from = from;
+    this.to = to;
+    this.parallelism = parallelism;
+    this.ordered = ordered;
+  }
+
+  @Override
+  public final void run(ProgressState<T> state) throws Exception {
+    Sweep sweep = new Sweep(state);
+    state.failFast();
+    for (int i = 1; i < parallelism; i++) {
+      state.fork(sweep);
+    }
+    sweep.run(state);
+  }
+
+  /**
+   * Invoked, by any split, for each index of the range, until the execution is cancelled.
+   * 
+   * @param index
+   *          the index of the iteration.
+   * 
+   * @return the result of the iteration or {@code null}.
+   * 
+   * @throws Exception
+   *           when an exception happened within the execution and need to be sent to the exception
+   *           handlers.
+   */
+  @CheckForNull
+  protected abstract T next(long index) throws Exception;
+
+  /**
+   * The iterations of a run, shared by its splits.
+   */
+  private final class Sweep implements Async {
+    /**
+     * The state of the run, notified by one split at a time.
+     */
+    @NonNull
+    private final ProgressState<T> progress;
+
+    /**
+     * The first index not yet claimed.
+     */
+    @NonNull
+    private final AtomicLong cursor;
+
+    /**
+     * Whether a split failed, so that the others stop.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * The chunks done and not yet notified, when unordered.
+     */
+    @CheckForNull
+    private final ConcurrentLinkedQueue<Chunk<T>> done;
+
+    /**
+     * The chunks done and not yet notified, by first index, when ordered.
+     */
+    @CheckForNull
+    private final ConcurrentHashMap<Long, Chunk<T>> ready;
+
+    /**
+     * The first index of the next chunk to notify, when ordered.
+     */
+    private volatile long expected;
+
+    /**
+     * Held by the split notifying the chunks done.
+     */
+    @NonNull
+    private final ReentrantLock notifying = new ReentrantLock();
+
+    Sweep(@NonNull ProgressState<T> progress) {
+      this.progress = progress;
+      this.cursor = new AtomicLong(from);
+      this.expected = from;
+      this.done = ordered ? null : new ConcurrentLinkedQueue<Chunk<T>>();
+      this.ready = ordered ? new ConcurrentHashMap<Long, Chunk<T>>() : null;
+    }
+
+    @Override
+    public void run(State state) throws Exception {
+      try {
+        long start;
+        while (!stopped && (start = claim()) < to) {
+          long end = end(start);
+          ArrayList<T> values = new ArrayList<T>((int) (end - start));
+          for (long i = start; i < end; i++) {
+            state.checkCancelled();
+            if (stopped) {
+              return;
+            }
+            values.add(next(i));
+          }
+          notify(new Chunk<T>(start, end, values));
+        }
+      } catch (Exception e) {
+        stopped = true;
+        throw e;
+      }
+    }
+
+    /**
+     * Claims the next chunk.
+     * 
+     * @return its first index, {@link ParallelAsyncLoop#to} if none is left.
+     */
+    private long claim() {
+      for (;;) {
+        long start = cursor.get();
+        if (start >= to) {
+          return to;
+        }
+        if (cursor.compareAndSet(start, end(start))) {
+          return start;
+        }
+      }
+    }
+
+    /**
+     * Returns the index after the last of the chunk starting at the specified index.
+     */
+    private long end(long start) {
+      return start + Math.min(CHUNK, Math.max(1, (to - start) / (2L * parallelism)));
+    }
+
+    /**
+     * Notifies the specified chunk, done, and any other that is ready, unless another split is
+     * notifying them.
+     */
+    private void notify(@NonNull Chunk<T> chunk) {
+      if (ordered) {
+        ready.put(chunk.start, chunk);
+      } else {
+        done.offer(chunk);
+      }
+      while (notifying.tryLock()) {
+        try {
+          for (Chunk<T> next = take(); next != null; next = take()) {
+            progress.notifyProgressBatch(next.values);
+          }
+        } finally {
+          notifying.unlock();
+        }
+        // a chunk done while unlocking would otherwise wait for the next one
+        if (ordered ? !ready.containsKey(expected) : done.isEmpty()) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Takes the next chunk to notify, if ready, while notifying.
+     */
+    @CheckForNull
+    private Chunk<T> take() {
+      if (!ordered) {
+        return done.poll();
+      }
+      Chunk<T> chunk = ready.remove(expected);
+      if (chunk != null) {
+        expected = chunk.end;
+      }
+      return chunk;
+    }
+  }
+
+  /**
+   * The values of a range of iterations.
+   */
+  private static final class Chunk<T> {
+    final long start;
+    final long end;
+
+    @NonNull
+    final ArrayList<T> values;
+
+    Chunk(long start, long end, @NonNull ArrayList<T> values) {
+      this.start = start;
+      this.end = end;
+      this.values = values;
+    }
+  }
+}
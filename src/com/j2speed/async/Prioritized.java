@@ -0,0 +1,51 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Implemented by an {@link Async}, {@link Request} or {@link Progressive} that has to be run with a
+ * {@link Priority} other than {@link Priority#NORMAL}, eg:
+ * 
+ * <pre>
+ * class Search implements Request&lt;List&lt;Item&gt;&gt;, Prioritized {
+ *   ...
+ *   public Priority getPriority() {
+ *     return Priority.HIGH;
+ *   }
+ * }
+ * </pre>
+ * <p>
+ * When all the threads of a {@link DefaultRunner} are busy, pending computations are taken by
+ * priority, so that a burst of batch work does not delay the interactive one. To prevent
+ * starvation, a computation that waits for long is then taken as if it had the next higher
+ * priority. Computations started from a thread of the runner are still run in that thread,
+ * whatever their priority.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public interface Prioritized {
+
+  /**
+   * Returns the priority to run this computation with, read once when it is started.
+   * 
+   * @return the priority.
+   */
+  @NonNull
+  Priority getPriority();
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+/**
+ * The priority of an asynchronous computation, see {@link Prioritized}.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public enum Priority {
+  /**
+   * For interactive work, taken before any other pending computation.
+   */
+  HIGH,
+
+  /**
+   * The priority of the computations that do not specify one.
+   */
+  NORMAL,
+
+  /**
+   * For batch work, taken when no other computation is pending, or when it has waited long enough.
+   */
+  LOW
+}
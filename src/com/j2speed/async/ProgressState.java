@@ -15,7 +15,10 @@
  */
 package com.j2speed.async;
 
+import java.util.Collection;
+
 import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
 
 /**
  * Notifies a progress handler of a progress. An instance of this class is passed as a parameter to
@@ -36,4 +39,14 @@ public interface ProgressState<T> extends State {
    *          the currently generated progress value.
    */
   public void notifyProgress(@CheckForNull T value);
+
+  /**
+   * Notifies the specified values in iteration order, as if {@link #notifyProgress(Object)} was
+   * called for each of them, but with a single call-back per chunk for the
+   * {@link BatchProgressHandler}s of a {@link HandlerSet#batching batching} handler set.
+   * 
+   * @param values
+   *          the currently generated progress values.
+   */
+  public void notifyProgressBatch(@NonNull Collection<? extends T> values);
 }
@@ -0,0 +1,238 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * A {@link Request} solved by divide and conquer: while it is not small enough to be computed
+ * directly, it is split in parts that are solved in parallel by the threads of the runner, and
+ * their results are combined into its own.
+ * <p>
+ * The parts, but the first, are forked through the {@link State} of the run, so they share its
+ * cancellation, while the current thread solves the first. The results are then joined in order:
+ * a part that is still waiting for a thread, or whose fork was rejected by a full executor, is
+ * taken back and solved in the current one, while one that is running is waited for, as it does
+ * not need a thread of the runner to be done. The first part that fails cancels the others and its exception is
+ * reported to the handlers of the request, as its result is when all the parts succeed.
+ * </p>
+ * <p>
+ * The granularity is set by {@link #isSmall()}: parts that are too small spend more forking than
+ * computing, while parts that are too large leave threads idle towards the end of the run.
+ * </p>
+ * 
+ * @param <T>
+ *          the type of the value.
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public abstract class RecursiveRequest<T> implements Request<T> {
+
+  /**
+   * The updater of the {@link Claimable#claimed} of the parts.
+   */
+  @NonNull
+  private static final AtomicIntegerFieldUpdater<Claimable> CLAIMED = AtomicIntegerFieldUpdater
+    .newUpdater(Claimable.class, "claimed");
+
+  @Override
+  public final T run(State state) throws Exception {
+    return solve(this, state);
+  }
+
+  /**
+   * Whether this request is small enough to be computed directly rather than split.
+   * 
+   * @return {@code true} to compute this request, {@code false} to split it.
+   */
+  protected abstract boolean isSmall();
+
+  /**
+   * Computes the value of this request directly, once it is small enough.
+   * 
+   * @param state
+   *          the current execution control.
+   * 
+   * @return the value of this request.
+   * 
+   * @throws Exception
+   *           when an exception happened within the execution and need to be sent to the exception
+   *           handlers.
+   */
+  @CheckForNull
+  protected abstract T compute(@NonNull State state) throws Exception;
+
+  /**
+   * Splits this request in parts, in the order their results are combined.
+   * 
+   * @return at least one part.
+   */
+  @NonNull
+  protected abstract List<? extends RecursiveRequest<T>> split();
+
+  /**
+   * Combines the results of the parts of this request into its value.
+   * 
+   * @param results
+   *          the results of the parts, in the order they were split.
+   * 
+   * @return the value of this request.
+   * 
+   * @throws Exception
+   *           when an exception happened within the execution and need to be sent to the exception
+   *           handlers.
+   */
+  @CheckForNull
+  protected abstract T combine(@NonNull List<T> results) throws Exception;
+
+  /**
+   * Solves the specified request in the current thread, forking its parts, but the first, through
+   * the specified state.
+   */
+  @CheckForNull
+  static <T> T solve(@NonNull RecursiveRequest<T> request, @NonNull State state) throws Exception {
+    state.checkCancelled();
+    if (request.isSmall()) {
+      return request.compute(state);
+    }
+    List<? extends RecursiveRequest<T>> parts = request.split();
+    int size = parts.size();
+    if (size == 0) {
+      throw new IllegalStateException("split in no parts");
+    }
+    if (size > 1) {
+      state.failFast();
+    }
+    // the last parts are forked first, so that they are the first taken by other threads while
+    // the current one takes back the first parts it joins
+    ArrayList<Part<T>> forked = new ArrayList<Part<T>>(size - 1);
+    for (int i = size - 1; i > 0; i--) {
+      Part<T> part = new Part<T>(parts.get(i));
+      forked.add(part);
+      try {
+        part.run = state.fork(part);
+      } catch (RejectedExecutionException e) {
+        // the executor is full, the part is solved in the current thread when joined
+      }
+    }
+    ArrayList<T> results = new ArrayList<T>(size);
+    results.add(solve(parts.get(0), state));
+    for (int i = size - 2; i >= 0; i--) {
+      results.add(forked.get(i).join(state));
+    }
+    return request.combine(results);
+  }
+
+  /**
+   * What can be claimed once, not generic, so that its updater is not raw.
+   */
+  private static class Claimable {
+    /**
+     * Set to 1 by the first that claims this.
+     */
+    volatile int claimed;
+
+    /**
+     * Claims this, if not claimed yet.
+     * 
+     * @return <code>true</code> if claimed by the current thread.
+     */
+    final boolean claim() {
+      return claimed == 0 && CLAIMED.compareAndSet(this, 0, 1);
+    }
+  }
+
+  /**
+   * A part forked by a run, solved by whichever claims it first, between its fork and the run that
+   * joins it.
+   */
+  private static final class Part<T> extends Claimable implements Async {
+    @NonNull
+    private final RecursiveRequest<T> request;
+
+    /**
+     * Counted down once the fork that claimed this part has solved it.
+     */
+    @NonNull
+    private final CountDownLatch solved = new CountDownLatch(1);
+
+    /**
+     * The fork of this part, set by the run that joins it, {@code null} if rejected.
+     */
+    @CheckForNull
+    AsyncRun run;
+
+    /**
+     * The outcome of the fork, published by {@link #solved}.
+     */
+    @CheckForNull
+    private T value;
+
+    @CheckForNull
+    private Throwable failure;
+
+    Part(@NonNull RecursiveRequest<T> request) {
+      this.request = request;
+    }
+
+    @Override
+    public void run(State state) throws Exception {
+      if (!claim()) {
+        // the run that forked this part has already taken it back
+        return;
+      }
+      try {
+        value = solve(request, state);
+      } catch (Throwable e) {
+        failure = e;
+        throw e;
+      } finally {
+        solved.countDown();
+      }
+    }
+
+    /**
+     * Returns the value of this part, solving it in the current thread if it has not started yet.
+     */
+    @CheckForNull
+    T join(@NonNull State state) throws Exception {
+      if (claim()) {
+        AsyncRun run = this.run;
+        if (run != null && !run.isStarted()) {
+          // unforks the part, so that it does not wait for a thread only to find it taken back
+          run.cancel();
+        }
+        return solve(request, state);
+      }
+      solved.await();
+      Throwable failure = this.failure;
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      if (failure != null) {
+        throw (Exception) failure;
+      }
+      return value;
+    }
+  }
+}
@@ -19,21 +19,68 @@ import static java.lang.Thread.currentThread;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnegative;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 
 /**
  * The default implementation of the {@link AsyncExecutor} interface.
+ * <p>
+ * An adaptive executor adjusts its pool size on a periodic tick, between a minimum and a maximum,
+ * climbing towards the size that gives the best throughput while tasks back up in its queue and
+ * releasing idle threads when they do not. The decisions can be observed through
+ * {@link #getTargetPoolSize()}, {@link #getThroughput()}, {@link #getQueueWait()} and
+ * {@link #getAdjustmentCount()}.
+ * </p>
  * 
  * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
  */
 public class ReentrantExecutor extends ThreadPoolExecutor implements AsyncExecutor {
+  /**
+   * The controller of the pool size, if adaptive.
+   */
+  @CheckForNull
+  private final HillClimbing climbing;
+
+  /**
+   * The period of the controller, in nanoseconds.
+   */
+  private final long tick;
+
+  /**
+   * The timer of the next run of the controller, if adaptive.
+   */
+  @CheckForNull
+  private volatile TimingWheel.Timer ticking;
+
+  /**
+   * The tasks completed per second, measured at the last tick.
+   */
+  private volatile double throughput;
+
+  /**
+   * The wait of the oldest queued task, in nanoseconds, measured at the last tick.
+   */
+  private volatile long queueWait;
+
+  /**
+   * The number of times the controller changed the pool size.
+   */
+  private final AtomicLong adjustments = new AtomicLong();
+
+  /**
+   * The completed tasks and the time of the last tick, only used by the controller.
+   */
+  private long lastCompleted, lastTick;
+
   /**
    * Constructor of the class.
    * 
@@ -49,12 +96,18 @@ public class ReentrantExecutor extends ThreadPoolExecutor implements AsyncExecut
    *          The base name for the threads built by this executor
    * @param queue
    *          The custom blocking queue to be used.
+   * @param climbing
+   *          the controller of the pool size, <code>null</code> if not adaptive.
+   * @param tick
+   *          the period of the controller, in nanoseconds.
    */
   private ReentrantExecutor(@Nonnegative int minimumPoolSize, @Nonnegative int maximumPoolSize,
     @Nonnegative long keepAlive, @NonNull TimeUnit unit, @NonNull String baseName,
-    @NonNull ExecutionQueue queue) {
+    @NonNull ExecutionQueue queue, @CheckForNull HillClimbing climbing, @Nonnegative long tick) {
     super(minimumPoolSize, maximumPoolSize, keepAlive, unit, queue, queue);
     setThreadFactory(new ReentrantThreadFactory(baseName));
+    this.climbing = climbing;
+    this.tick = tick;
   }
 
   /**
@@ -73,7 +126,33 @@ public class ReentrantExecutor extends ThreadPoolExecutor implements AsyncExecut
    */
   public ReentrantExecutor(@Nonnegative int minimumPoolSize, @Nonnegative int maximumPoolSize,
     @Nonnegative long keepAlive, @NonNull TimeUnit unit, @NonNull String baseName) {
-    this(minimumPoolSize, maximumPoolSize, keepAlive, unit, baseName, new ExecutionQueue());
+    this(minimumPoolSize, maximumPoolSize, keepAlive, unit, baseName, new ExecutionQueue(), null, 0);
+  }
+
+  /**
+   * Constructor of the class, with a bounded queue.
+   * 
+   * @param minimumPoolSize
+   *          the minimum number of live threads.
+   * @param maximumPoolSize
+   *          the maximum number of live threads.
+   * @param keepAlive
+   *          how long to keep them alive.
+   * @param unit
+   *          the time unit.
+   * @param baseName
+   *          The base name for the threads built by this executor
+   * @param capacity
+   *          the maximum number of tasks waiting for a thread.
+   * @param policy
+   *          what to do with the tasks submitted when all the threads are busy and the queue is
+   *          full.
+   */
+  public ReentrantExecutor(@Nonnegative int minimumPoolSize, @Nonnegative int maximumPoolSize,
+    @Nonnegative long keepAlive, @NonNull TimeUnit unit, @NonNull String baseName,
+    @Nonnegative int capacity, @NonNull OverloadPolicy policy) {
+    this(minimumPoolSize, maximumPoolSize, keepAlive, unit, baseName, new ExecutionQueue(capacity,
+      policy), null, 0);
   }
 
   /**
@@ -85,7 +164,77 @@ public class ReentrantExecutor extends ThreadPoolExecutor implements AsyncExecut
    *          The base name for the threads built by this executor
    */
   public ReentrantExecutor(@Nonnegative int maximumPoolSize, @NonNull String baseName) {
-    this(0, maximumPoolSize, Long.MAX_VALUE, TimeUnit.NANOSECONDS, baseName, new ExecutionQueue());
+    this(0, maximumPoolSize, Long.MAX_VALUE, TimeUnit.NANOSECONDS, baseName, new ExecutionQueue(),
+      null, 0);
+  }
+
+  /**
+   * Construct an executor with a specified pool size of threads that never die, waiting for tasks
+   * as told by the specified strategy when idle. Strategies that spin before parking save the
+   * hand-off of a task to an idle thread the cost of unparking it, at the cost of the CPU they
+   * spin on.
+   * 
+   * @param maximumPoolSize
+   *          the maximum number of live threads.
+   * @param baseName
+   *          The base name for the threads built by this executor
+   * @param waiting
+   *          how the idle threads wait for a task.
+   */
+  public ReentrantExecutor(@Nonnegative int maximumPoolSize, @NonNull String baseName,
+    @NonNull WaitStrategy waiting) {
+    this(0, maximumPoolSize, Long.MAX_VALUE, TimeUnit.NANOSECONDS, baseName, new ExecutionQueue(
+      Integer.MAX_VALUE, OverloadPolicy.REJECT, ExecutionQueue.AGING, TimeUnit.NANOSECONDS, waiting),
+      null, 0);
+  }
+
+  /**
+   * Construct an adaptive executor, whose threads never die unless the controller releases them.
+   * It starts with the minimum pool size.
+   * 
+   * @param minimumPoolSize
+   *          the minimum number of live threads, at least 1.
+   * @param maximumPoolSize
+   *          the maximum number of live threads.
+   * @param baseName
+   *          The base name for the threads built by this executor
+   * @param tick
+   *          the period of the controller. Tasks waiting in the queue for longer than a tick are
+   *          considered backing up.
+   * @param unit
+   *          the time unit.
+   */
+  public ReentrantExecutor(@Nonnegative int minimumPoolSize, @Nonnegative int maximumPoolSize,
+    @NonNull String baseName, @Nonnegative long tick, @NonNull TimeUnit unit) {
+    this(minimumPoolSize, minimumPoolSize, Long.MAX_VALUE, TimeUnit.NANOSECONDS, baseName,
+      new ExecutionQueue(), new HillClimbing(minimumPoolSize, maximumPoolSize), unit.toNanos(tick));
+    if (minimumPoolSize < 1 || maximumPoolSize < minimumPoolSize || tick <= 0) {
+      throw new IllegalArgumentException();
+    }
+    lastTick = System.nanoTime();
+    arm(lastTick + this.tick);
+  }
+
+  /**
+   * Schedules the next run of the controller, at a fixed rate, on the shared {@link TimingWheel}.
+   */
+  private void arm(final long deadline) {
+    TimingWheel.Timer timer = new TimingWheel.Timer() {
+      @Override
+      void expire() {
+        if (isShutdown()) {
+          return;
+        }
+        adapt();
+        arm(deadline + tick);
+      }
+    };
+    ticking = timer;
+    TimingWheel.Shared.WHEEL.schedule(timer, deadline);
+    // shut down before the timer could be seen
+    if (isShutdown()) {
+      timer.cancel();
+    }
   }
 
   /**
@@ -108,7 +257,191 @@ public class ReentrantExecutor extends ThreadPoolExecutor implements AsyncExecut
       super.execute(command);
     }
   }
+
+  /**
+   * Executes the task through the queue, even when called from a thread of this executor, for
+   * tasks that the caller never waits for, so that they cannot exhaust the threads.
+   * 
+   * @param command
+   *          the {@link Runnable} to execute.
+   */
+  final void dispatch(@NonNull Runnable command) {
+    super.execute(command);
+  }
+
+  /**
+   * Executes the specified tasks in one go: the threads still to be started take one each, as by
+   * {@link #execute(Runnable)}, and the others are queued with a single operation per priority,
+   * waking up only as many idle threads as needed. Called from a thread of this executor, the
+   * tasks are run in the current thread, as by {@link #execute(Runnable)}.
+   * <p>
+   * Only as many tasks as the queue has room for are executed, so that the ones from the returned
+   * position on can be executed one by one, and handled by the overload policy if need be.
+   * </p>
+   * 
+   * @param tasks
+   *          the tasks to execute.
+   * 
+   * @return the number of tasks executed, from the first.
+   */
+  public int executeAll(@NonNull List<? extends Runnable> tasks) {
+    int size = tasks.size();
+    if (currentThread().getClass() == Reentrant.class) {
+      // see execute(Runnable)
+      for (Runnable task : tasks) {
+        task.run();
+      }
+      return size;
+    }
+    if (isShutdown()) {
+      return 0;
+    }
+    int executed = 0;
+    for (int missing = getMaximumPoolSize() - getPoolSize(); missing > 0 && executed < size; missing--) {
+      try {
+        super.execute(tasks.get(executed));
+      } catch (RejectedExecutionException e) {
+        // left to be executed one by one
+        return executed;
+      }
+      executed++;
+    }
+    ExecutionQueue queue = (ExecutionQueue) getQueue();
+    executed += queue.queueAll(tasks.subList(executed, size));
+    if (getPoolSize() == 0) {
+      // the last thread timed out before the tasks were queued, start one with the first of them
+      Runnable first = queue.poll();
+      if (first != null) {
+        super.execute(first);
+      }
+    }
+    return executed;
+  }
   
+  /**
+   * Returns the number of tasks waiting for a thread.
+   * 
+   * @return the depth of the queue.
+   */
+  public int getQueueDepth() {
+    return getQueue().size();
+  }
+
+  /**
+   * Returns the maximum number of tasks waiting for a thread.
+   * 
+   * @return the capacity of the queue, {@link Integer#MAX_VALUE} if unbounded.
+   */
+  public int getQueueCapacity() {
+    return ((ExecutionQueue) getQueue()).capacity();
+  }
+
+  /**
+   * Returns what is done with the tasks submitted when all the threads are busy and the queue is
+   * full.
+   * 
+   * @return the overload policy.
+   */
+  @NonNull
+  public OverloadPolicy getOverloadPolicy() {
+    return ((ExecutionQueue) getQueue()).policy();
+  }
+
+  /**
+   * Returns the number of tasks that the {@link #getOverloadPolicy() overload policy} did not
+   * queue as submitted, because rejected, run by the caller, timed out or dropped.
+   * 
+   * @return the number of overloads.
+   */
+  public long getOverloadCount() {
+    return ((ExecutionQueue) getQueue()).overloads();
+  }
+
+  /**
+   * Returns how the idle threads wait for a task.
+   * 
+   * @return the wait strategy.
+   */
+  @NonNull
+  public WaitStrategy getWaitStrategy() {
+    return ((ExecutionQueue) getQueue()).waiting();
+  }
+
+  /**
+   * Returns whether the pool size is adjusted by a controller.
+   * 
+   * @return <code>true</code> if adaptive.
+   */
+  public boolean isAdaptive() {
+    return climbing != null;
+  }
+
+  /**
+   * Returns the pool size chosen by the controller, or the maximum pool size if not adaptive.
+   * 
+   * @return the target pool size.
+   */
+  public int getTargetPoolSize() {
+    return getMaximumPoolSize();
+  }
+
+  /**
+   * Returns the tasks completed per second, as measured at the last tick of the controller.
+   * 
+   * @return the throughput, 0 if not adaptive.
+   */
+  public double getThroughput() {
+    return throughput;
+  }
+
+  /**
+   * Returns how long the oldest queued task had been waiting at the last tick of the controller.
+   * 
+   * @return the wait in nanoseconds, 0 if not adaptive.
+   */
+  public long getQueueWait() {
+    return queueWait;
+  }
+
+  /**
+   * Returns the number of times the controller changed the pool size.
+   * 
+   * @return the number of adjustments, 0 if not adaptive.
+   */
+  public long getAdjustmentCount() {
+    return adjustments.get();
+  }
+
+  /**
+   * Measures the throughput and the queue wait since the last tick, and resizes the pool as
+   * decided by the controller.
+   */
+  void adapt() {
+    long now = System.nanoTime();
+    long completed = getCompletedTaskCount();
+    double rate = (completed - lastCompleted) * 1e9 / Math.max(1, now - lastTick);
+    long wait = ((ExecutionQueue) getQueue()).oldestWait();
+    lastCompleted = completed;
+    lastTick = now;
+    throughput = rate;
+    queueWait = wait;
+    int size = getMaximumPoolSize();
+    int next = climbing.next(size, rate, wait >= tick, getActiveCount());
+    if (next == size || isShutdown()) {
+      return;
+    }
+    // the core size starts the threads for the queued tasks, the maximum stops the pool from
+    // growing on submission, so both follow the target, in the order that keeps core <= maximum
+    if (next > size) {
+      setMaximumPoolSize(next);
+      setCorePoolSize(next);
+    } else {
+      setCorePoolSize(next);
+      setMaximumPoolSize(next);
+    }
+    adjustments.incrementAndGet();
+  }
+
   @Override
   public boolean cancel(Runnable task) {
     return getQueue().remove(task);
@@ -127,6 +460,14 @@ public class ReentrantExecutor extends ThreadPoolExecutor implements AsyncExecut
     super.shutdownNow();
   }
 
+  @Override
+  protected void terminated() {
+    TimingWheel.Timer ticking = this.ticking;
+    if (ticking != null) {
+      ticking.cancel();
+    }
+  }
+
   /**
    * A factory for reentrant threads
    */
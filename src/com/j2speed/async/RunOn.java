@@ -36,6 +36,10 @@ import java.lang.annotation.Target;
  * class and it will try to invoke a static method with the above signature. See {@link Edt} for an
  * example.
  * </p>
+ * <p>
+ * Alternatively, the class can implement {@link ThreadTransferer}, or a {@link ThreadTransferer}
+ * can be registered for it with {@link ThreadTransferers#register(Class, ThreadTransferer)}.
+ * </p>
  * 
  * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
  */
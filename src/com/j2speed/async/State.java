@@ -15,6 +15,10 @@
  */
 package com.j2speed.async;
 
+import java.util.concurrent.RejectedExecutionException;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
 /**
  * Allows the execution of an asynchronous computation to query the running status.
  * 
@@ -32,4 +36,61 @@ public interface State {
    *           if the related asynchronous computation has been cancelled.
    */
   public void checkCancelled();
+
+  /**
+   * Starts the specified {@link Async} as a child of the current execution, in the same runner.
+   * <p>
+   * The current execution owns its children: cancelling it cancels them, and it is done, and calls
+   * back its own handlers, only once all of them are done, without holding a thread while they
+   * run. If the current execution fails or is cancelled, its children are cancelled.
+   * </p>
+   * <p>
+   * Children may wait for a thread of the runner rather than run in the current one, so the current
+   * execution should not block waiting for them to start: its completion is what follows them. It
+   * can only safely wait for a child that is already running, as {@link RecursiveRequest} does,
+   * since that child does not need a thread of the runner to be done.
+   * </p>
+   * 
+   * @param async
+   *          the {@link Async} to be started.
+   * @param handlers
+   *          {@link CompletionHandler}s registered to handle call-backs from the child.
+   * 
+   * @return The {@link AsyncRun} instance for the child.
+   * 
+   * @throws IllegalStateException
+   *           if the current execution has already completed.
+   * @throws RejectedExecutionException
+   *           if the executor of the runner rejects the child, that is then cancelled.
+   */
+  @NonNull
+  public AsyncRun fork(@NonNull Async async, @NonNull CompletionHandler... handlers);
+
+  /**
+   * Starts the specified {@link Request} as a child of the current execution, in the same runner,
+   * see {@link #fork(Async, CompletionHandler...)}.
+   * 
+   * @param request
+   *          the {@link Request} to be started.
+   * @param handlers
+   *          {@link ResponseHandler}s registered to handle call-backs from the child.
+   * 
+   * @return The {@link AsyncRun} instance for the child.
+   * 
+   * @throws IllegalArgumentException
+   *           if no handlers are specified and the request is not a {@link ResponseHandler}.
+   * @throws IllegalStateException
+   *           if the current execution has already completed.
+   * @throws RejectedExecutionException
+   *           if the executor of the runner rejects the child, that is then cancelled.
+   */
+  @NonNull
+  public <T> AsyncRun fork(@NonNull Request<T> request, @NonNull ResponseHandler<T>... handlers);
+
+  /**
+   * Makes the children of the current execution fail fast: the first child that fails cancels all
+   * its siblings, the children forked afterwards are cancelled without running, and the current
+   * execution completes with the exception of that child, once done.
+   */
+  public void failFast();
 }
@@ -71,6 +71,11 @@ public final class SyncRunner implements AsyncRunner {
     return DELEGATE.start(async, handlers);
   }
 
+  @Override
+  public final AsyncRun start(Async async) {
+    return DELEGATE.start(async);
+  }
+
   @Override
   public final <T> AsyncRun start(Request<T> request, ResponseHandler<T>... handlers) {
     return DELEGATE.start(request, handlers);
@@ -81,6 +86,21 @@ public final class SyncRunner implements AsyncRunner {
     return DELEGATE.start(request, handlers);
   }
 
+  @Override
+  public final AsyncRun start(Async async, HandlerSet<CompletionHandler> handlers) {
+    return DELEGATE.start(async, handlers);
+  }
+
+  @Override
+  public final <T> AsyncRun start(Request<T> request, HandlerSet<ResponseHandler<T>> handlers) {
+    return DELEGATE.start(request, handlers);
+  }
+
+  @Override
+  public final <T> AsyncRun start(Progressive<T> request, HandlerSet<ProgressHandler<T>> handlers) {
+    return DELEGATE.start(request, handlers);
+  }
+
   @Override
   public final void cancelPendings() {
     DELEGATE.cancelPendings();
@@ -0,0 +1,282 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * An {@link AsyncExecutor} that runs each task in a new thread, optionally capping the number of
+ * tasks running at the same time.
+ * <p>
+ * It suits jobs that spend most of their time blocked, eg: on JDBC or file I/O, that would
+ * otherwise need a pool of hundreds of threads to run concurrently, especially with a factory of
+ * lightweight threads, eg: on a JVM that supports virtual threads:
+ * 
+ * <pre>
+ * new DefaultRunner(new ThreadPerTaskExecutor(10000, Thread.ofVirtual().factory()));
+ * </pre>
+ * 
+ * </p>
+ * <p>
+ * Tasks over the cap wait in a queue, from where they can be cancelled, until a running task
+ * completes. Threads are recognised as owned by the executor while they run its tasks, whatever
+ * their class, so that tasks executed from them are run in the current thread, as required by the
+ * {@link AsyncExecutor} contract.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class ThreadPerTaskExecutor implements AsyncExecutor {
+
+  /**
+   * The executor whose task the current thread is running, if any.
+   */
+  @NonNull
+  private static final ThreadLocal<ThreadPerTaskExecutor> OWNER = new ThreadLocal<ThreadPerTaskExecutor>();
+
+  /**
+   * The factory for the threads.
+   */
+  @NonNull
+  private final ThreadFactory factory;
+
+  /**
+   * The maximum number of tasks running at the same time.
+   */
+  private final int maximumConcurrency;
+
+  /**
+   * The number of threads started and not yet done.
+   */
+  @NonNull
+  private final AtomicInteger running = new AtomicInteger();
+
+  /**
+   * The tasks executed and not yet taken by a thread.
+   */
+  @NonNull
+  private final Queue<Runnable> pendings = new ConcurrentLinkedQueue<Runnable>();
+
+  /**
+   * The number of pending tasks no thread has been started for yet, each a permit to start one.
+   */
+  @NonNull
+  private final AtomicInteger unclaimed = new AtomicInteger();
+
+  /**
+   * The threads running a task, to interrupt on shut down.
+   */
+  @NonNull
+  private final Set<Thread> threads = Collections
+    .newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+  private volatile boolean shutdown;
+
+  /**
+   * Constructs an executor that runs all the tasks as soon as they are executed.
+   * 
+   * @param factory
+   *          the factory for the threads.
+   */
+  public ThreadPerTaskExecutor(@NonNull ThreadFactory factory) {
+    this(Integer.MAX_VALUE, factory);
+  }
+
+  /**
+   * Constructs an executor that runs at most the specified number of tasks at the same time.
+   * 
+   * @param maximumConcurrency
+   *          the maximum number of tasks running at the same time.
+   * @param factory
+   *          the factory for the threads.
+   */
+  public ThreadPerTaskExecutor(@Nonnegative int maximumConcurrency, @NonNull ThreadFactory factory) {
+    if (maximumConcurrency <= 0) {
+      throw new IllegalArgumentException();
+    }
+    if (factory == null) {
+      throw new NullPointerException();
+    }
+    this.maximumConcurrency = maximumConcurrency;
+    this.factory = factory;
+  }
+
+  /**
+   * Returns the maximum number of tasks running at the same time.
+   * 
+   * @return the concurrency cap.
+   */
+  public final int getMaximumConcurrency() {
+    return maximumConcurrency;
+  }
+
+  /**
+   * Executes the task in the current thread if the current thread is running a task of this
+   * executor, otherwise the task is run in a new thread as soon as the concurrency cap allows it.
+   * 
+   * @param command
+   *          the {@link Runnable} to execute.
+   */
+  @Override
+  public final void execute(Runnable command) {
+    if (command == null) {
+      throw new NullPointerException();
+    }
+    if (OWNER.get() == this) {
+      // This reentrance is necessary to avoid thread exhaustion deadlock when the concurrency is
+      // capped, see ReentrantExecutor.
+      command.run();
+      return;
+    }
+    if (shutdown) {
+      throw new RejectedExecutionException();
+    }
+    pendings.offer(command);
+    unclaimed.incrementAndGet();
+    dispatch();
+  }
+
+  /**
+   * Starts a thread for each pending task not claimed yet, as far as the concurrency cap allows
+   * it: a thread is started only by who wins both a place under the cap and a permit.
+   */
+  private void dispatch() {
+    while (unclaimed.get() > 0) {
+      int count = running.get();
+      if (count == maximumConcurrency) {
+        // a running thread dispatches again when it completes
+        return;
+      }
+      if (running.compareAndSet(count, count + 1)) {
+        if (!claim()) {
+          // another thread claimed the last permit, check again for the ones added meanwhile
+          running.decrementAndGet();
+          continue;
+        }
+        Thread thread;
+        try {
+          thread = factory.newThread(new Task());
+        } catch (RuntimeException e) {
+          unclaim();
+          throw e;
+        }
+        if (thread == null) {
+          unclaim();
+          throw new RejectedExecutionException();
+        }
+        thread.start();
+      }
+    }
+  }
+
+  /**
+   * Takes a permit to start a thread, if any is left.
+   */
+  private boolean claim() {
+    for (;;) {
+      int count = unclaimed.get();
+      if (count == 0) {
+        return false;
+      }
+      if (unclaimed.compareAndSet(count, count - 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Gives back the permit and the place under the cap of a thread that could not be started.
+   */
+  private void unclaim() {
+    unclaimed.incrementAndGet();
+    running.decrementAndGet();
+  }
+
+  @Override
+  public boolean cancel(Runnable task) {
+    if (pendings.remove(task)) {
+      // if its permit was already claimed, the thread started for it finds no task
+      claim();
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public List<Runnable> cancelPendings() {
+    List<Runnable> cancelled = new ArrayList<Runnable>();
+    Runnable task;
+    while ((task = pendings.poll()) != null) {
+      cancelled.add(task);
+      claim();
+    }
+    return cancelled;
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+    cancelPendings();
+    for (Thread thread : threads) {
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * The body of the threads: takes the oldest pending task, if not cancelled meanwhile, and runs
+   * it.
+   */
+  private final class Task implements Runnable {
+    @Override
+    public void run() {
+      try {
+        Runnable task = pendings.poll();
+        if (task != null) {
+          Thread current = Thread.currentThread();
+          threads.add(current);
+          OWNER.set(ThreadPerTaskExecutor.this);
+          try {
+            if (shutdown) {
+              current.interrupt();
+            }
+            task.run();
+          } finally {
+            OWNER.remove();
+            threads.remove(current);
+          }
+        }
+      } finally {
+        running.decrementAndGet();
+        if (!shutdown) {
+          dispatch();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.Executor;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Transfers the execution of call-backs to a specific thread (or pool of threads).
+ * <p>
+ * A class specified by a {@link RunOn} annotation can implement this interface, instead of
+ * providing the static {@code transfer(Runnable)} method, in which case a single instance of the
+ * class is built through its no argument constructor, whatever its accessibility. Alternatively an
+ * instance can be registered for any class with
+ * {@link ThreadTransferers#register(Class, ThreadTransferer)}. See {@link Edt} for an example.
+ * </p>
+ * <p>
+ * Call-backs are transferred only when the calling thread is not already the target one,
+ * otherwise they are run inline.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public interface ThreadTransferer extends Executor {
+
+  /**
+   * Tells whether the calling thread is the target thread (or one of the pool) of this transferer,
+   * so that call-backs can be run without transferring them.
+   * 
+   * @return {@code true} if the calling thread is the target one.
+   */
+  public boolean isOnTargetThread();
+
+  /**
+   * Transfers the execution of the specified {@link Runnable} to the target thread.
+   * 
+   * @param runnable
+   *          the {@link Runnable} to transfer.
+   */
+  @Override
+  public void execute(@NonNull Runnable runnable);
+
+  /**
+   * Transfers the execution of the specified {@link Runnable}s, in order, to the target thread,
+   * possibly as a single unit of work.
+   * 
+   * @param runnables
+   *          the {@link Runnable}s to transfer.
+   */
+  public void transfer(@NonNull Runnable[] runnables);
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import static java.lang.invoke.MethodType.methodType;
+import static java.lang.reflect.Modifier.isStatic;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * The registry of the {@link ThreadTransferer}s for the classes specified by {@link RunOn}
+ * annotations.
+ * <p>
+ * The transferer of a class is, in order of precedence:
+ * <ol>
+ * <li>the instance registered for the class;</li>
+ * <li>a single instance of the class, if it implements {@link ThreadTransferer};</li>
+ * <li>an adapter of the static {@code transfer(Runnable)} method of the class, that never runs
+ * call-backs inline.</li>
+ * </ol>
+ * The transferers are resolved once per class and handlers resolve them once per handler class,
+ * so registrations should happen before the handlers that use them are first called back.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public final class ThreadTransferers {
+
+  /**
+   * The explicitly registered transferers.
+   */
+  @NonNull
+  private static final ConcurrentMap<Class<?>, ThreadTransferer> registered = new ConcurrentHashMap<Class<?>, ThreadTransferer>();
+
+  /**
+   * The resolved transferers, held by their classes for the same reasons of the dispatchers of
+   * {@link HandlingProcessor}. The first resolution of a class is kept, so that every handler
+   * shares the same instance.
+   */
+  @NonNull
+  private static final ClassValue<ThreadTransferer> RESOLVED = new ClassValue<ThreadTransferer>() {
+    @Override
+    protected ThreadTransferer computeValue(Class<?> runOn) {
+      return resolve(runOn);
+    }
+  };
+
+  private ThreadTransferers() {}
+
+  /**
+   * Registers the transferer to use for the specified {@link RunOn} class.
+   * 
+   * @param runOn
+   *          the class specified by {@link RunOn} annotations.
+   * @param transferer
+   *          the transferer for the class.
+   */
+  public static void register(@NonNull Class<?> runOn, @NonNull ThreadTransferer transferer) {
+    if (runOn == null || transferer == null) {
+      throw new NullPointerException();
+    }
+    registered.put(runOn, transferer);
+  }
+
+  /**
+   * Registers a {@link CoalescingTransferer} for the specified {@link RunOn} class, coalescing the
+   * call-backs transferred to the transferer currently resolved for the class. Coalescing an
+   * already coalesced class has no effect.
+   * 
+   * @param runOn
+   *          the class specified by {@link RunOn} annotations.
+   * 
+   * @return the coalescing transferer registered for the class.
+   */
+  @NonNull
+  public static synchronized CoalescingTransferer coalesce(@NonNull Class<?> runOn) {
+    ThreadTransferer transferer = of(runOn);
+    if (transferer instanceof CoalescingTransferer) {
+      return (CoalescingTransferer) transferer;
+    }
+    CoalescingTransferer coalescing = new CoalescingTransferer(transferer);
+    register(runOn, coalescing);
+    return coalescing;
+  }
+
+  /**
+   * Removes the transferer registered for the specified {@link RunOn} class, if any.
+   * 
+   * @param runOn
+   *          the class specified by {@link RunOn} annotations.
+   */
+  public static void unregister(@NonNull Class<?> runOn) {
+    registered.remove(runOn);
+  }
+
+  /**
+   * Returns the transferer for the specified {@link RunOn} class, resolving it only the first
+   * time the class is seen.
+   * 
+   * @param runOn
+   *          the class specified by {@link RunOn} annotations.
+   * 
+   * @return the transferer for the class.
+   * 
+   * @throws IllegalArgumentException
+   *           if the class neither implements {@link ThreadTransferer} nor declares a static
+   *           {@code transfer(Runnable)} method.
+   */
+  @NonNull
+  public static ThreadTransferer of(@NonNull Class<?> runOn) {
+    ThreadTransferer transferer = registered.get(runOn);
+    if (transferer != null) {
+      return transferer;
+    }
+    return RESOLVED.get(runOn);
+  }
+
+  @NonNull
+  private static ThreadTransferer resolve(@NonNull Class<?> runOn) {
+    try {
+      if (ThreadTransferer.class.isAssignableFrom(runOn)) {
+        Constructor<?> constructor = runOn.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return (ThreadTransferer) constructor.newInstance();
+      }
+      Method transfer = runOn.getDeclaredMethod("transfer", Runnable.class);
+      if (!isStatic(transfer.getModifiers())) {
+        throw new IllegalArgumentException(runOn + " does not declare a static transfer(Runnable)");
+      }
+      return new StaticTransferer(transfer);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(e);
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException(e.getCause());
+    } catch (InstantiationException e) {
+      throw new IllegalArgumentException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * A transferer bound to the static {@code transfer(Runnable)} method of a class, according to
+   * the original {@link RunOn} contract.
+   */
+  static final class StaticTransferer implements ThreadTransferer {
+    /**
+     * The handle bound to the transfer method.
+     */
+    @NonNull
+    private final MethodHandle handle;
+
+    StaticTransferer(@NonNull Method method) throws IllegalAccessException {
+      this.handle = HandlingProcessor.handleOf(method, methodType(void.class, Runnable.class));
+    }
+
+    @Override
+    public boolean isOnTargetThread() {
+      // unknown, always transfer
+      return false;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable runnable) {
+      try {
+        handle.invokeExact(runnable);
+      } catch (Throwable e) {
+        HandlingProcessor.handleInvocationTargetException(e);
+      }
+    }
+
+    @Override
+    public void transfer(@NonNull Runnable[] runnables) {
+      for (Runnable runnable : runnables) {
+        execute(runnable);
+      }
+    }
+  }
+}
@@ -0,0 +1,360 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnegative;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * A hashed timing wheel, expiring timers with a precision of a tick.
+ * <p>
+ * The wheel is an array of buckets, each a doubly linked list of timers, that a single thread
+ * visits one per tick. A timer is hashed to the bucket of the tick it is due at, with the number of
+ * rounds of the wheel to wait before expiring, so that scheduling and cancelling are constant time
+ * regardless of the number of timers, and a tick only looks at the timers of its bucket.
+ * </p>
+ * <p>
+ * The buckets are only touched by the thread of the wheel: scheduled timers are pushed on a
+ * lock-free stack, that it moves into the buckets at the next tick, and cancelled timers are only
+ * marked, and unlinked when their bucket is visited, within a round. When no timer is pending, the
+ * thread unlinks the cancelled ones and parks until a timer is scheduled. Timers expire in the
+ * thread of the wheel, so they should only hand their work off.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+final class TimingWheel {
+
+  /**
+   * The wheel shared by the runners, started on first use.
+   */
+  static final class Shared {
+    static final TimingWheel WHEEL = new TimingWheel(1, TimeUnit.MILLISECONDS, 1024,
+      "async-timing-wheel");
+  }
+
+  /**
+   * The duration of a tick, in nanoseconds.
+   */
+  private final long tick;
+
+  @NonNull
+  private final Timer[] buckets;
+
+  private final int mask;
+
+  /**
+   * The timers scheduled, not in a bucket yet, linked by {@link Timer#next}.
+   */
+  @NonNull
+  private final AtomicReference<Timer> scheduled = new AtomicReference<Timer>();
+
+  /**
+   * The number of timers neither expired nor cancelled.
+   */
+  @NonNull
+  private final AtomicInteger pending = new AtomicInteger();
+
+  @NonNull
+  private final Thread thread;
+
+  /**
+   * Whether the thread parks for lack of timers, set before it checks for them for the last time.
+   */
+  private volatile boolean idle;
+
+  private volatile boolean stopped;
+
+  /**
+   * When the ticks are counted from, as of {@link System#nanoTime()}.
+   */
+  private long start;
+
+  /**
+   * The number of the tick being processed, only used by the thread of the wheel.
+   */
+  private long ticks;
+
+  /**
+   * Constructor of the class, starting the thread of the wheel.
+   * 
+   * @param tick
+   *          the duration of a tick.
+   * @param unit
+   *          the time unit.
+   * @param size
+   *          the number of buckets, rounded up to a power of two.
+   * @param name
+   *          the name of the thread of the wheel.
+   */
+  TimingWheel(@Nonnegative long tick, @NonNull TimeUnit unit, @Nonnegative int size,
+    @NonNull String name) {
+    if (tick <= 0 || size <= 0 || size > 1 << 30) {
+      throw new IllegalArgumentException();
+    }
+    this.tick = unit.toNanos(tick);
+    int length = Integer.highestOneBit(size);
+    if (length < size) {
+      length <<= 1;
+    }
+    buckets = new Timer[length];
+    for (int i = 0; i < length; i++) {
+      // the sentinel of the bucket
+      Timer sentinel = new Timer() {
+        @Override
+        void expire() {}
+      };
+      sentinel.next = sentinel.previous = sentinel;
+      buckets[i] = sentinel;
+    }
+    mask = length - 1;
+    start = System.nanoTime();
+    thread = new Hand(name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Returns whether the current thread is the thread of a wheel, that must neither run nor wait for
+   * the work handed off by its timers.
+   * 
+   * @return <code>true</code> if called by the thread of a wheel.
+   */
+  static boolean isWheelThread() {
+    return Thread.currentThread().getClass() == Hand.class;
+  }
+
+  /**
+   * Schedules the specified timer to expire at the specified deadline, or at the next tick if it
+   * already passed.
+   * 
+   * @param timer
+   *          a timer never scheduled before.
+   * @param deadline
+   *          the deadline, as of {@link System#nanoTime()}.
+   * 
+   * @return the timer.
+   */
+  @NonNull
+  <T extends Timer> T schedule(@NonNull T timer, long deadline) {
+    if (timer.wheel != null) {
+      throw new IllegalStateException();
+    }
+    timer.wheel = this;
+    timer.deadline = deadline;
+    pending.incrementAndGet();
+    Timer top;
+    do {
+      top = scheduled.get();
+      timer.next = top;
+    } while (!scheduled.compareAndSet(top, timer));
+    if (idle) {
+      LockSupport.unpark(thread);
+    }
+    return timer;
+  }
+
+  /**
+   * Returns the number of timers neither expired nor cancelled.
+   * 
+   * @return the number of pending timers.
+   */
+  int size() {
+    return pending.get();
+  }
+
+  /**
+   * Stops the thread of the wheel, the pending timers never expire.
+   */
+  void stop() {
+    stopped = true;
+    LockSupport.unpark(thread);
+  }
+
+  private void turn() {
+    while (!stopped) {
+      if (pending.get() == 0) {
+        sweep();
+        idle = true;
+        // a timer scheduled before publishing the flag has been counted
+        if (pending.get() == 0 && !stopped) {
+          LockSupport.park(this);
+        }
+        idle = false;
+        // the buckets are empty, resume from the current tick
+        ticks = (System.nanoTime() - start) / tick;
+        continue;
+      }
+      long wait;
+      while ((wait = start + (ticks + 1) * tick - System.nanoTime()) > 0 && !stopped) {
+        LockSupport.parkNanos(this, wait);
+      }
+      ticks++;
+      hashScheduled();
+      expire(buckets[(int) (ticks & mask)]);
+    }
+  }
+
+  /**
+   * Unlinks the cancelled timers left in the buckets, so that they are not retained while idle.
+   */
+  private void sweep() {
+    for (Timer bucket : buckets) {
+      Timer timer = bucket.next;
+      while (timer != bucket) {
+        Timer next = timer.next;
+        if (timer.state == Timer.CANCELLED) {
+          timer.unlink();
+        }
+        timer = next;
+      }
+    }
+  }
+
+  private void hashScheduled() {
+    Timer next;
+    for (Timer timer = scheduled.getAndSet(null); timer != null; timer = next) {
+      next = timer.next;
+      if (timer.state != Timer.WAITING) {
+        continue;
+      }
+      // the tick the timer is due at, the current one if already passed
+      long due = Math.max(ticks, (timer.deadline - start + tick - 1) / tick);
+      timer.rounds = (due - ticks) / buckets.length;
+      buckets[(int) (due & mask)].link(timer);
+    }
+  }
+
+  private void expire(@NonNull Timer bucket) {
+    Timer timer = bucket.next;
+    while (timer != bucket) {
+      Timer next = timer.next;
+      if (timer.state == Timer.CANCELLED) {
+        timer.unlink();
+      } else if (timer.rounds > 0) {
+        timer.rounds--;
+      } else {
+        timer.unlink();
+        if (Timer.STATE.compareAndSet(timer, Timer.WAITING, Timer.EXPIRED)) {
+          pending.decrementAndGet();
+          try {
+            timer.expire();
+          } catch (Throwable e) {
+            // keep the wheel turning
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, e);
+          }
+        }
+      }
+      timer = next;
+    }
+  }
+
+  /**
+   * The thread of a wheel, as marked by its class.
+   */
+  private final class Hand extends Thread {
+    Hand(@NonNull String name) {
+      super(name);
+    }
+
+    @Override
+    public void run() {
+      turn();
+    }
+  }
+
+  /**
+   * A timer of the wheel, that can be scheduled only once.
+   */
+  abstract static class Timer {
+    static final int WAITING = 0;
+
+    static final int EXPIRED = 1;
+
+    static final int CANCELLED = 2;
+
+    @NonNull
+    static final AtomicIntegerFieldUpdater<Timer> STATE = AtomicIntegerFieldUpdater.newUpdater(
+      Timer.class, "state");
+
+    volatile int state;
+
+    /**
+     * The wheel the timer is scheduled in.
+     */
+    @CheckForNull
+    volatile TimingWheel wheel;
+
+    long deadline;
+
+    /**
+     * The rounds of the wheel to wait, and the links in the bucket, only used by the thread of the
+     * wheel, but for the link to the timer scheduled before, while in the stack of the scheduled.
+     */
+    long rounds;
+
+    @CheckForNull
+    Timer previous, next;
+
+    /**
+     * Runs in the thread of the wheel when the timer expires.
+     */
+    abstract void expire();
+
+    /**
+     * Cancels the timer, if it has not expired yet.
+     * 
+     * @return <code>true</code> if cancelled, so that it will never expire.
+     */
+    final boolean cancel() {
+      if (!STATE.compareAndSet(this, WAITING, CANCELLED)) {
+        return false;
+      }
+      TimingWheel wheel = this.wheel;
+      if (wheel != null) {
+        wheel.pending.decrementAndGet();
+      }
+      return true;
+    }
+
+    final boolean isExpired() {
+      return state == EXPIRED;
+    }
+
+    final void link(@NonNull Timer timer) {
+      Timer last = previous;
+      timer.previous = last;
+      timer.next = this;
+      last.next = timer;
+      previous = timer;
+    }
+
+    final void unlink() {
+      previous.next = next;
+      next.previous = previous;
+      previous = next = null;
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnegative;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * How a thread waits for a condition that another thread will make true.
+ * <p>
+ * The waiting thread checks the condition and, while it does not hold, calls
+ * {@link #idle(int)} with the number of times it has already idled. The thread that makes the
+ * condition true unparks the waiting thread, so strategies that park never miss the change.
+ * </p>
+ * <p>
+ * Waiters that need to park with a deadline, or to tell the waking thread whether it has to
+ * unpark them, ask {@link #parks(int)} before each round and park by themselves on the rounds that
+ * park.
+ * </p>
+ * 
+ * <pre>
+ * int rounds = 0;
+ * while (!condition()) {
+ *   rounds = strategy.idle(rounds);
+ * }
+ * </pre>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public abstract class WaitStrategy {
+
+  /**
+   * Parks as soon as the condition does not hold.
+   */
+  @NonNull
+  public static final WaitStrategy PARK = new WaitStrategy() {
+    @Override
+    public int idle(int rounds) {
+      LockSupport.park(this);
+      return rounds + 1;
+    }
+  };
+
+  /**
+   * Spins without ever parking or yielding, burning a CPU for the lowest wake-up latency.
+   */
+  @NonNull
+  public static final WaitStrategy SPIN = new WaitStrategy() {
+    @Override
+    public int idle(int rounds) {
+      return rounds + 1;
+    }
+
+    @Override
+    public boolean parks(int rounds) {
+      return false;
+    }
+  };
+
+  /**
+   * Constructor for subclasses.
+   */
+  protected WaitStrategy() {}
+
+  /**
+   * Returns a strategy that spins for the specified number of rounds, yields once, and then parks.
+   * 
+   * @param spins
+   *          the number of rounds to spin before parking.
+   * 
+   * @return the strategy.
+   */
+  @NonNull
+  public static WaitStrategy spinThenPark(@Nonnegative final int spins) {
+    if (spins < 0) {
+      throw new IllegalArgumentException();
+    }
+    return new WaitStrategy() {
+      @Override
+      public int idle(int rounds) {
+        if (rounds < spins) {
+          // spin
+        } else if (rounds == spins) {
+          Thread.yield();
+        } else {
+          LockSupport.park(this);
+        }
+        return rounds + 1;
+      }
+
+      @Override
+      public boolean parks(int rounds) {
+        return rounds > spins;
+      }
+    };
+  }
+
+  /**
+   * Returns a strategy that spins for the specified number of rounds and then yields, without ever
+   * parking.
+   * 
+   * @param spins
+   *          the number of rounds to spin before yielding.
+   * 
+   * @return the strategy.
+   */
+  @NonNull
+  public static WaitStrategy spinThenYield(@Nonnegative final int spins) {
+    if (spins < 0) {
+      throw new IllegalArgumentException();
+    }
+    return new WaitStrategy() {
+      @Override
+      public int idle(int rounds) {
+        if (rounds >= spins) {
+          Thread.yield();
+        }
+        return rounds + 1;
+      }
+
+      @Override
+      public boolean parks(int rounds) {
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Waits once for the condition to change. Parking strategies return also when the calling
+   * thread is interrupted, so that the caller can check for cancellation.
+   * 
+   * @param rounds
+   *          the number of times the caller has already idled for the current condition.
+   * 
+   * @return the number of times the caller has idled, including this one.
+   */
+  public abstract int idle(@Nonnegative int rounds);
+
+  /**
+   * Returns whether {@link #idle(int)} parks for the specified round. Strategies that never park
+   * save the waking thread from unparking their waiters.
+   * 
+   * @param rounds
+   *          the number of times the caller has already idled for the current condition.
+   * 
+   * @return <code>true</code> if the round parks, as assumed unless overridden.
+   */
+  public boolean parks(@Nonnegative int rounds) {
+    return true;
+  }
+}
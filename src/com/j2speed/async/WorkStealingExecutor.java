@@ -0,0 +1,463 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import static java.lang.Thread.currentThread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnegative;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * An {@link AsyncExecutor} that schedules the tasks on per thread deques, with idle threads
+ * stealing the tasks queued by the busy ones.
+ * <p>
+ * Tasks executed from threads that are not owned by the executor are spread over a number of
+ * submission queues, chosen by the submitting thread, so that concurrent submitters do not contend
+ * on a single queue. Tasks executed from a thread owned by the executor are pushed on its own
+ * deque, only if an idle thread can be reserved to steal them, and are otherwise run in the
+ * current thread, as required by the {@link AsyncExecutor} contract. Every pushed task therefore
+ * has a thread that will run it, even if the pushing thread blocks waiting for its result, so
+ * recursive executions cannot exhaust the threads. Owners pop their deque in LIFO order, which
+ * keeps the nested tasks hot in cache, while thieves take the oldest tasks.
+ * </p>
+ * <p>
+ * Threads are started on demand, up to the parallelism of the executor, and never die until the
+ * executor is shut down.
+ * </p>
+ * 
+ * @author Alex Nistico &lt;alienisty(at)gmail.com&gt;
+ */
+public class WorkStealingExecutor implements AsyncExecutor {
+
+  /**
+   * The threads started so far, indexed by the order they were started.
+   */
+  @NonNull
+  private final AtomicReferenceArray<Worker> workers;
+
+  /**
+   * The number of threads started so far.
+   */
+  @NonNull
+  private final AtomicInteger started = new AtomicInteger();
+
+  /**
+   * The queues for the tasks executed from threads that are not owned by this executor.
+   */
+  @NonNull
+  private final Queue<Runnable>[] submissions;
+
+  /**
+   * The top of the stack of the idle threads.
+   */
+  @NonNull
+  private final AtomicReference<Idle> idle = new AtomicReference<Idle>();
+
+  /**
+   * The base name for the threads built by this executor.
+   */
+  @NonNull
+  private final String baseName;
+
+  private volatile boolean shutdown;
+
+  /**
+   * Construct an executor with as many threads as the available processors.
+   * 
+   * @param baseName
+   *          The base name for the threads built by this executor
+   */
+  public WorkStealingExecutor(@NonNull String baseName) {
+    this(Runtime.getRuntime().availableProcessors(), baseName);
+  }
+
+  /**
+   * Construct an executor with a specified number of threads that never die.
+   * 
+   * @param parallelism
+   *          the maximum number of live threads.
+   * @param baseName
+   *          The base name for the threads built by this executor
+   */
+  @SuppressWarnings("unchecked")
+  public WorkStealingExecutor(@Nonnegative int parallelism, @NonNull String baseName) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException();
+    }
+    if (baseName == null) {
+      throw new NullPointerException();
+    }
+    this.baseName = baseName;
+    this.workers = new AtomicReferenceArray<Worker>(parallelism);
+    int stripes = Integer.highestOneBit(parallelism);
+    if (stripes < parallelism) {
+      stripes <<= 1;
+    }
+    // arrays of a generic type can only be created raw, every element is a queue of runnables
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Queue<Runnable>[] submissions = new Queue[stripes];
+    for (int i = 0; i < stripes; i++) {
+      submissions[i] = new ConcurrentLinkedQueue<Runnable>();
+    }
+    this.submissions = submissions;
+  }
+
+  /**
+   * Returns the maximum number of threads of this executor.
+   * 
+   * @return the parallelism.
+   */
+  public final int getParallelism() {
+    return workers.length();
+  }
+
+  /**
+   * Returns the number of threads started so far.
+   * 
+   * @return the pool size.
+   */
+  public final int getPoolSize() {
+    return started.get();
+  }
+
+  /**
+   * Executes the task in the current thread if the current thread is one owned by the executor
+   * and no other thread is idle, otherwise the command is scheduled it to be executed in the
+   * executor normally.
+   * 
+   * @param command
+   *          the {@link Runnable} to execute.
+   */
+  @Override
+  public final void execute(Runnable command) {
+    if (command == null) {
+      throw new NullPointerException();
+    }
+    if (shutdown) {
+      throw new RejectedExecutionException();
+    }
+    Thread current = currentThread();
+    if (current instanceof Worker && ((Worker) current).executor() == this) {
+      fork((Worker) current, command);
+    } else {
+      submit(command);
+    }
+  }
+
+  private void submit(@NonNull Runnable command) {
+    long id = currentThread().getId();
+    submissions[(int) (id ^ (id >>> 16)) & (submissions.length - 1)].offer(command);
+    if (!signal(null)) {
+      startWorker(null);
+    }
+  }
+
+  private void fork(@NonNull Worker worker, @NonNull Runnable command) {
+    // This reentrance is necessary to avoid thread exhaustion deadlock, as no other thread is
+    // guaranteed to steal the task while the current one waits for it.
+    if (idle.get() == null && started.get() == workers.length()) {
+      command.run();
+      return;
+    }
+    ConcurrentLinkedDeque<Runnable> deque = worker.deque;
+    // the task is pushed before looking for a thief, so that the thief cannot miss it
+    deque.addLast(command);
+    if (signal(deque) || startWorker(deque)) {
+      return;
+    }
+    // if the task is gone, a thread already took it and runs it
+    if (deque.removeLastOccurrence(command)) {
+      command.run();
+    }
+  }
+
+  /**
+   * Reserves an idle thread and wakes it up.
+   * 
+   * @param target
+   *          the deque the thread has to steal from first, {@code null} to just look for work.
+   * 
+   * @return {@code true} if a thread was reserved.
+   */
+  private boolean signal(@CheckForNull ConcurrentLinkedDeque<Runnable> target) {
+    for (;;) {
+      Idle top = idle.get();
+      if (top == null) {
+        return false;
+      }
+      if (idle.compareAndSet(top, top.next)) {
+        top.target = target;
+        if (Idle.STATE.compareAndSet(top, Idle.WAITING, Idle.RESERVED)) {
+          LockSupport.unpark(top.worker);
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts a new thread, if the parallelism allows it.
+   * 
+   * @param target
+   *          the deque the new thread has to steal from first, {@code null} to just look for work.
+   * 
+   * @return {@code true} if a thread was started.
+   */
+  private boolean startWorker(@CheckForNull ConcurrentLinkedDeque<Runnable> target) {
+    for (;;) {
+      int count = started.get();
+      if (count == workers.length()) {
+        return false;
+      }
+      if (started.compareAndSet(count, count + 1)) {
+        Worker worker = new Worker(count, target);
+        workers.set(count, worker);
+        worker.start();
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Takes the next task for the specified thread: from its own deque first, then from the
+   * submissions and lastly from the other threads.
+   */
+  @CheckForNull
+  private Runnable next(@NonNull Worker worker) {
+    Runnable task = worker.deque.pollLast();
+    if (task != null) {
+      return task;
+    }
+    int length = submissions.length;
+    for (int i = 0, at = worker.index; i < length; i++, at++) {
+      if ((task = submissions[at & (length - 1)].poll()) != null) {
+        return task;
+      }
+    }
+    int count = started.get();
+    for (int i = 1; i < count; i++) {
+      Worker victim = workers.get((worker.index + i) % count);
+      if (victim != null && (task = victim.deque.pollFirst()) != null) {
+        return task;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks, without taking it, whether there is any task to run.
+   */
+  private boolean hasWork() {
+    for (Queue<Runnable> submission : submissions) {
+      if (!submission.isEmpty()) {
+        return true;
+      }
+    }
+    int count = started.get();
+    for (int i = 0; i < count; i++) {
+      Worker worker = workers.get(i);
+      if (worker != null && !worker.deque.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parks the specified thread until it is reserved or the executor is shut down.
+   * 
+   * @return the deque to steal from first, if any.
+   */
+  @CheckForNull
+  private ConcurrentLinkedDeque<Runnable> await(@NonNull Worker worker) {
+    Idle node = new Idle(worker);
+    push(node);
+    // re-check after being published, so that a task queued meanwhile is not missed
+    if (shutdown || hasWork()) {
+      if (Idle.STATE.compareAndSet(node, Idle.WAITING, Idle.CANCELLED)) {
+        return null;
+      }
+    }
+    while (node.state == Idle.WAITING) {
+      LockSupport.park(this);
+      if (shutdown) {
+        if (Idle.STATE.compareAndSet(node, Idle.WAITING, Idle.CANCELLED)) {
+          return null;
+        }
+      }
+      // tasks are not supposed to leave the interrupt status behind them
+      Thread.interrupted();
+    }
+    return node.target;
+  }
+
+  private void push(@NonNull Idle node) {
+    for (;;) {
+      Idle top = idle.get();
+      Idle next = top;
+      // drop the threads that stopped waiting, as nobody else pops them
+      while (next != null && next.state != Idle.WAITING) {
+        next = next.next;
+      }
+      node.next = next;
+      if (idle.compareAndSet(top, node)) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public boolean cancel(Runnable task) {
+    for (Queue<Runnable> submission : submissions) {
+      if (submission.remove(task)) {
+        return true;
+      }
+    }
+    int count = started.get();
+    for (int i = 0; i < count; i++) {
+      Worker worker = workers.get(i);
+      if (worker != null && worker.deque.remove(task)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public List<Runnable> cancelPendings() {
+    List<Runnable> cancelled = new ArrayList<Runnable>();
+    Runnable task;
+    for (Queue<Runnable> submission : submissions) {
+      while ((task = submission.poll()) != null) {
+        cancelled.add(task);
+      }
+    }
+    int count = started.get();
+    for (int i = 0; i < count; i++) {
+      Worker worker = workers.get(i);
+      if (worker != null) {
+        while ((task = worker.deque.pollFirst()) != null) {
+          cancelled.add(task);
+        }
+      }
+    }
+    return cancelled;
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+    cancelPendings();
+    int count = started.get();
+    for (int i = 0; i < count; i++) {
+      Worker worker = workers.get(i);
+      if (worker != null) {
+        worker.interrupt();
+        LockSupport.unpark(worker);
+      }
+    }
+  }
+
+  /**
+   * A thread owned by the executor, with its deque.
+   */
+  private final class Worker extends Thread {
+    @NonNull
+    final ConcurrentLinkedDeque<Runnable> deque = new ConcurrentLinkedDeque<Runnable>();
+
+    final int index;
+
+    @CheckForNull
+    private ConcurrentLinkedDeque<Runnable> target;
+
+    Worker(int index, @CheckForNull ConcurrentLinkedDeque<Runnable> target) {
+      super(baseName + index);
+      setDaemon(true);
+      this.index = index;
+      this.target = target;
+    }
+
+    WorkStealingExecutor executor() {
+      return WorkStealingExecutor.this;
+    }
+
+    @Override
+    public void run() {
+      while (!shutdown) {
+        Runnable task = null;
+        if (target != null) {
+          // honour the reservation first, the thread that reserved us may be waiting for the task
+          task = target.pollFirst();
+          target = null;
+        }
+        if (task == null && (task = next(this)) == null) {
+          target = await(this);
+          continue;
+        }
+        try {
+          task.run();
+        } catch (Throwable e) {
+          // nothing replaces a dead worker, so it survives errors too
+          getUncaughtExceptionHandler().uncaughtException(this, e);
+        }
+        if (!shutdown) {
+          Thread.interrupted();
+        }
+      }
+    }
+  }
+
+  /**
+   * A node of the stack of the idle threads, used once per wait.
+   */
+  private static final class Idle {
+    static final int WAITING = 0;
+    static final int RESERVED = 1;
+    static final int CANCELLED = 2;
+
+    static final AtomicIntegerFieldUpdater<Idle> STATE = AtomicIntegerFieldUpdater.newUpdater(
+            Idle.class, "state");
+
+    @NonNull
+    final Thread worker;
+
+    @CheckForNull
+    Idle next;
+
+    @CheckForNull
+    ConcurrentLinkedDeque<Runnable> target;
+
+    volatile int state;
+
+    Idle(@NonNull Thread worker) {
+      this.worker = worker;
+    }
+  }
+}
@@ -18,12 +18,19 @@ package com.j2speed.async;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Exchanger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -796,10 +803,12 @@ public abstract class AsyncRunnerTest<R extends AsyncRunner> {
    */
   @Test
   public void testCancelProgressiveFromProgress() throws InterruptedException {
+    final CountDownLatch checked = new CountDownLatch(1);
     final CountDownLatch done = new CountDownLatch(1);
     AsyncRun run = runner.start(new AsyncProgress<Integer>() {
       @Override
       public void run(ProgressState<Integer> state) throws Exception {
+        checked.await();
         state.notifyProgress(Integer.valueOf(1));
         state.checkCancelled();
       }
@@ -814,6 +823,7 @@ public abstract class AsyncRunnerTest<R extends AsyncRunner> {
       }
     });
     assertFalse(run.isDone());
+    checked.countDown();
     if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
       fail("Test timed out");
     }
@@ -869,4 +879,377 @@ public abstract class AsyncRunnerTest<R extends AsyncRunner> {
     assertTrue(run.isDone());
     assertFalse(run.isCancelled());
   }
+
+  @Test
+  public void testAsyncWithHandlerSet() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(4);
+    final AtomicInteger completed = new AtomicInteger();
+    final AtomicBoolean asyncCalled = new AtomicBoolean();
+    HandlerSet<CompletionHandler> handlers = HandlerSet.of(new CompletionAdapter() {
+      @Override
+      public void onComplete() {
+        completed.incrementAndGet();
+        done.countDown();
+      }
+    });
+    for (int i = 0; i < 2; i++) {
+      runner.start(new AsyncCompletion() {
+        @Override
+        public void run(State state) {
+          done.countDown();
+        }
+        @Override
+        public void onComplete() {
+          // not part of the set
+          asyncCalled.set(true);
+        }
+      }, handlers);
+    }
+    if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    assertEquals(2, completed.get());
+    assertFalse(asyncCalled.get());
+  }
+
+  @Test
+  public void testRequestWithHandlerSet() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(2);
+    final Integer expected = Integer.valueOf(260773);
+    AsyncResponse<Integer> request = new AsyncResponse<Integer>() {
+      @Override
+      public Integer run(State state) {
+        return expected;
+      }
+      @Override
+      public void onResponse(Result<Integer> result) {
+        assertSame(expected, result.get());
+        done.countDown();
+      }
+    };
+    HandlerSet<ResponseHandler<Integer>> handlers = HandlerSet.of(request, new ResponseAdapter<Integer>() {
+      @Override
+      public void onResponse(Result<Integer> result) {}
+      @Override
+      public void onFinally() {
+        done.countDown();
+      }
+    });
+    runner.start(request, handlers);
+    if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRequestWithEmptyHandlerSet() {
+    runner.start(new AsyncResponse<Integer>() {
+      @Override
+      public Integer run(State state) {
+        return null;
+      }
+    }, HandlerSet.<Integer> of(new ResponseHandler[0]));
+  }
+
+  @Test
+  public void testProgressiveWithHandlerSet() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(2);
+    final AtomicInteger progress = new AtomicInteger();
+    HandlerSet<ProgressHandler<Integer>> handlers = HandlerSet.of(new ProgressAdapter<Integer>() {
+      @Override
+      public void onProgress(Progress<Integer> value) {
+        progress.addAndGet(value.get().intValue());
+      }
+      @Override
+      public void onComplete() {
+        done.countDown();
+      }
+    });
+    for (int i = 0; i < 2; i++) {
+      runner.start(new Progressive<Integer>() {
+        @Override
+        public void run(ProgressState<Integer> state) {
+          state.notifyProgress(Integer.valueOf(1));
+          state.notifyProgress(Integer.valueOf(2));
+        }
+      }, handlers);
+    }
+    if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    assertEquals(6, progress.get());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testHandlerSetRejectsNullHandlers() {
+    HandlerSet.of(new CompletionAdapter(), null);
+  }
+
+  @Test
+  public void testConflatedProgress() throws InterruptedException {
+    final CountDownLatch produced = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    final List<Integer> received = new ArrayList<Integer>();
+    HandlerSet<ProgressHandler<Integer>> handlers = HandlerSet.conflating(new ProgressAdapter<Integer>() {
+      @Override
+      @RunOn(ProgressThread.class)
+      public void onProgress(Progress<Integer> progress) {
+        received.add(progress.get());
+        try {
+          // hold the delivery until the progressive is done, to make the notifications pile up
+          produced.await();
+        } catch (InterruptedException e) {}
+      }
+      @Override
+      public void onComplete() {
+        received.add(null);
+        done.countDown();
+      }
+    });
+    runner.start(new Progressive<Integer>() {
+      @Override
+      public void run(ProgressState<Integer> state) {
+        for (int i = 1; i <= 10000; i++) {
+          state.notifyProgress(Integer.valueOf(i));
+        }
+        produced.countDown();
+      }
+    }, handlers);
+    if (!done.await(TIMEOUT * 10, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    // at most the value read by the first delivery and the final one, then the completion
+    assertTrue(received.toString(), received.size() <= 3);
+    assertEquals(Integer.valueOf(10000), received.get(received.size() - 2));
+    assertNull(received.get(received.size() - 1));
+  }
+
+  @Test
+  public void testBoundedProgress() throws InterruptedException {
+    final int capacity = 4;
+    final AtomicInteger undelivered = new AtomicInteger();
+    final AtomicInteger highest = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(1);
+    final List<Integer> received = new ArrayList<Integer>();
+    HandlerSet<ProgressHandler<Integer>> handlers = HandlerSet.bounded(capacity,
+      new ProgressAdapter<Integer>() {
+        @Override
+        @RunOn(ProgressThread.class)
+        public void onProgress(Progress<Integer> progress) {
+          received.add(progress.get());
+          undelivered.decrementAndGet();
+          // a slow consumer, to make the progressive wait
+          Thread.yield();
+        }
+        @Override
+        public void onComplete() {
+          received.add(null);
+          done.countDown();
+        }
+      });
+    runner.start(new Progressive<Integer>() {
+      @Override
+      public void run(ProgressState<Integer> state) {
+        for (int i = 1; i <= 1000; i++) {
+          int count = undelivered.incrementAndGet();
+          if (count > highest.get()) {
+            highest.set(count);
+          }
+          state.notifyProgress(Integer.valueOf(i));
+        }
+      }
+    }, handlers);
+    if (!done.await(TIMEOUT * 10, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    // every value, in order, then the completion
+    assertEquals(1001, received.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(Integer.valueOf(i + 1), received.get(i));
+    }
+    assertNull(received.get(1000));
+    // the one being notified is counted before waiting for the capacity
+    assertTrue(String.valueOf(highest.get()), highest.get() <= capacity + 1);
+  }
+
+  @Test
+  public void testBoundedProgressCancelledWhileWaiting() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicInteger notified = new AtomicInteger();
+    HandlerSet<ProgressHandler<Integer>> handlers = HandlerSet.bounded(1,
+      new ProgressAdapter<Integer>() {
+        @Override
+        @RunOn(ProgressThread.class)
+        public void onProgress(Progress<Integer> progress) {
+          try {
+            // let the progressive wait for the capacity
+            Thread.sleep(TIMEOUT);
+          } catch (InterruptedException e) {}
+          // cancel before the delivery frees the capacity
+          progress.cancel();
+        }
+        @Override
+        public void onComplete() {
+          done.countDown();
+        }
+      });
+    AsyncRun run = runner.start(new Progressive<Integer>() {
+      @Override
+      public void run(ProgressState<Integer> state) {
+        for (int i = 1; i <= 10; i++) {
+          state.notifyProgress(Integer.valueOf(i));
+          notified.incrementAndGet();
+        }
+      }
+    }, handlers);
+    if (!done.await(TIMEOUT * 10, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    assertTrue(run.isCancelled());
+    // the first was delivered, the second was waiting for the capacity
+    assertEquals(1, notified.get());
+  }
+
+  @Test
+  public void testBoundedHandlerSetRejectsInvalidCapacity() {
+    try {
+      HandlerSet.bounded(0, new ProgressAdapter<Integer>() {});
+      fail();
+    } catch (IllegalArgumentException e) {}
+  }
+
+  @Test
+  public void testBatchedProgress() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    final List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+    final AtomicBoolean onProgressThread = new AtomicBoolean(true);
+    HandlerSet<ProgressHandler<Integer>> handlers = HandlerSet.batching(100, 0, MILLISECONDS,
+      new BatchProgressAdapter<Integer>() {
+        @Override
+        @RunOn(ProgressThread.class)
+        public void onProgressBatch(List<Integer> values) {
+          if (!"progress-thread".equals(Thread.currentThread().getName())) {
+            onProgressThread.set(false);
+          }
+          chunks.add(values);
+        }
+        @Override
+        public void onComplete() {
+          chunks.add(null);
+          done.countDown();
+        }
+      });
+    runner.start(new Progressive<Integer>() {
+      @Override
+      public void run(ProgressState<Integer> state) {
+        for (int i = 0; i < 1000; i++) {
+          state.notifyProgress(Integer.valueOf(i));
+        }
+        state.notifyProgressBatch(Arrays.asList(1000, 1001, 1002));
+      }
+    }, handlers);
+    if (!done.await(TIMEOUT * 10, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    assertTrue(onProgressThread.get());
+    // ten full chunks, the last one, then the completion
+    assertEquals(12, chunks.size());
+    int expected = 0;
+    for (List<Integer> chunk : chunks.subList(0, 11)) {
+      for (Integer value : chunk) {
+        assertEquals(expected++, value.intValue());
+      }
+    }
+    assertEquals(1003, expected);
+    assertEquals(3, chunks.get(10).size());
+    assertNull(chunks.get(11));
+  }
+
+  @Test
+  public void testBatchedProgressWindow() throws InterruptedException {
+    final CountDownLatch delivered = new CountDownLatch(1);
+    final List<Integer> received = new ArrayList<Integer>();
+    HandlerSet<ProgressHandler<Integer>> handlers = HandlerSet.batching(100, 10, MILLISECONDS,
+      new BatchProgressAdapter<Integer>() {
+        @Override
+        @RunOn(ProgressThread.class)
+        public void onProgressBatch(List<Integer> values) {
+          received.addAll(values);
+          delivered.countDown();
+        }
+      });
+    runner.start(new Progressive<Integer>() {
+      @Override
+      public void run(ProgressState<Integer> state) throws InterruptedException {
+        state.notifyProgress(Integer.valueOf(1));
+        state.notifyProgress(Integer.valueOf(2));
+        // the chunk is not full, the window delivers it while the progressive still runs
+        if (!delivered.await(TIMEOUT * 10, TimeUnit.MILLISECONDS)) {
+          fail("timeout");
+        }
+      }
+    }, handlers);
+    if (!delivered.await(TIMEOUT * 10, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    assertEquals(Arrays.asList(1, 2), received);
+  }
+
+  @Test
+  public void testProgressBatchWithoutBatching() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    final List<Integer> received = new ArrayList<Integer>();
+    runner.start(new Progressive<Integer>() {
+      @Override
+      public void run(ProgressState<Integer> state) {
+        state.notifyProgressBatch(Arrays.asList(1, 2, 3));
+      }
+    }, new BatchProgressAdapter<Integer>() {
+      @Override
+      public void onProgressBatch(List<Integer> values) {
+        // one by one
+        assertEquals(1, values.size());
+        received.addAll(values);
+      }
+      @Override
+      public void onComplete() {
+        done.countDown();
+      }
+    });
+    if (!done.await(TIMEOUT * 10, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    assertEquals(Arrays.asList(1, 2, 3), received);
+  }
+
+  /**
+   * Transfers the execution to a dedicated thread.
+   */
+  static final class ProgressThread implements ThreadTransferer {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "progress-thread");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    @Override
+    public boolean isOnTargetThread() {
+      return "progress-thread".equals(Thread.currentThread().getName());
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+      executor.execute(runnable);
+    }
+
+    @Override
+    public void transfer(Runnable[] runnables) {
+      for (Runnable runnable : runnables) {
+        execute(runnable);
+      }
+    }
+  }
 }
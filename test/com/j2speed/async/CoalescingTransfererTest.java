@@ -0,0 +1,256 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("all")
+@edu.umd.cs.findbugs.annotations.SuppressWarnings
+public class CoalescingTransfererTest {
+  private static final long TIMEOUT = 5000;
+
+  private ExecutorService thread;
+
+  private SingleThread target;
+
+  private CoalescingTransferer transferer;
+
+  @Before
+  public void setUp() {
+    thread = Executors.newSingleThreadExecutor();
+    target = new SingleThread(thread);
+    transferer = new CoalescingTransferer(target);
+  }
+
+  @After
+  public void tearDown() {
+    thread.shutdownNow();
+  }
+
+  @Test
+  public void testCallbacksAreCoalesced() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(100);
+    // keep the target thread busy, so that the call-backs pile up
+    thread.execute(new Runnable() {
+      @Override
+      public void run() {
+        blocked.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {}
+      }
+    });
+    assertTrue(blocked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    for (int i = 0; i < 100; i++) {
+      transferer.execute(new Runnable() {
+        @Override
+        public void run() {
+          done.countDown();
+        }
+      });
+    }
+    release.countDown();
+    if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    assertEquals(1, target.executions.get());
+  }
+
+  @Test
+  public void testOrderIsKeptPerProducer() throws Exception {
+    final int producers = 4;
+    final int callbacks = 10000;
+    final CountDownLatch done = new CountDownLatch(producers * callbacks);
+    final List<List<Integer>> received = new ArrayList<List<Integer>>();
+    for (int p = 0; p < producers; p++) {
+      received.add(new ArrayList<Integer>());
+    }
+    Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      final List<Integer> values = received.get(p);
+      threads[p] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < callbacks; i++) {
+            final Integer value = Integer.valueOf(i);
+            transferer.execute(new Runnable() {
+              @Override
+              public void run() {
+                // only the target thread touches the lists
+                values.add(value);
+                done.countDown();
+              }
+            });
+          }
+        }
+      };
+      threads[p].start();
+    }
+    if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    for (List<Integer> values : received) {
+      assertEquals(callbacks, values.size());
+      for (int i = 0; i < callbacks; i++) {
+        assertEquals(i, values.get(i).intValue());
+      }
+    }
+    assertTrue(target.executions.get() < producers * callbacks);
+  }
+
+  @Test
+  public void testBatchIsOneDrain() throws Exception {
+    final CountDownLatch done = new CountDownLatch(3);
+    Runnable run = new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    };
+    transferer.transfer(new Runnable[] { run, run, run });
+    if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    assertEquals(1, target.executions.get());
+  }
+
+  @Test
+  public void testFailureDoesNotStopTheDrain() throws Exception {
+    final CountDownLatch done = new CountDownLatch(1);
+    transferer.transfer(new Runnable[] { new Runnable() {
+      @Override
+      public void run() {
+        throw new RuntimeException();
+      }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    } });
+    if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+    // and the next call-backs are still transferred
+    final CountDownLatch next = new CountDownLatch(1);
+    transferer.execute(new Runnable() {
+      @Override
+      public void run() {
+        next.countDown();
+      }
+    });
+    if (!next.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+      fail("timeout");
+    }
+  }
+
+  @Test
+  public void testInlineOnlyWhenNothingIsQueued() throws Exception {
+    final CountDownLatch first = new CountDownLatch(1);
+    final CountDownLatch checked = new CountDownLatch(1);
+    final boolean[] inline = new boolean[2];
+    final CountDownLatch release = new CountDownLatch(1);
+    thread.execute(new Runnable() {
+      @Override
+      public void run() {
+        inline[0] = transferer.isOnTargetThread();
+        first.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {}
+        inline[1] = transferer.isOnTargetThread();
+        checked.countDown();
+      }
+    });
+    assertTrue(first.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    transferer.execute(new Runnable() {
+      @Override
+      public void run() {}
+    });
+    release.countDown();
+    assertTrue(checked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    assertTrue(inline[0]);
+    assertFalse(inline[1]);
+    assertFalse(transferer.isOnTargetThread());
+  }
+
+  @Test
+  public void testCoalesceRegistersOnce() {
+    try {
+      CoalescingTransferer coalescing = ThreadTransferers.coalesce(Edt.class);
+      assertSame(coalescing, ThreadTransferers.of(Edt.class));
+      assertSame(coalescing, ThreadTransferers.coalesce(Edt.class));
+      assertTrue(coalescing.getTarget() instanceof Edt);
+    } finally {
+      ThreadTransferers.unregister(Edt.class);
+    }
+  }
+
+  /**
+   * A transferer to a single thread executor, that counts the executions.
+   */
+  private static final class SingleThread implements ThreadTransferer {
+    final AtomicInteger executions = new AtomicInteger();
+
+    private final ExecutorService executor;
+
+    private volatile Thread thread;
+
+    SingleThread(ExecutorService executor) {
+      this.executor = executor;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          thread = Thread.currentThread();
+        }
+      });
+    }
+
+    @Override
+    public boolean isOnTargetThread() {
+      return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+      executions.incrementAndGet();
+      executor.execute(runnable);
+    }
+
+    @Override
+    public void transfer(Runnable[] runnables) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
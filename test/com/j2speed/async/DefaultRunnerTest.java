@@ -15,8 +15,27 @@
  */
 package com.j2speed.async;
 
+import static com.j2speed.accessor.Accessors.accessField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
 public class DefaultRunnerTest extends AsyncRunnerTest<DefaultRunner> {
   private static final String TEST_RUNNER = "test-runner";
@@ -30,4 +49,887 @@ public class DefaultRunnerTest extends AsyncRunnerTest<DefaultRunner> {
   public void tearDown() {
     runner.shutdown();
   }
+
+  @Test
+  public void testPendingJobsAreTakenByPriority() throws InterruptedException {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(3);
+    final List<Priority> order = Collections.synchronizedList(new ArrayList<Priority>());
+    // keep the only thread busy, so that the next jobs are pending
+    runner.start(new Async() {
+      @Override
+      public void run(State state) throws InterruptedException {
+        running.countDown();
+        release.await();
+      }
+    });
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    for (Priority priority : new Priority[] { Priority.LOW, Priority.NORMAL, Priority.HIGH }) {
+      runner.start(new PrioritizedAsync(priority, order, done));
+    }
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(Priority.HIGH, Priority.NORMAL, Priority.LOW), order);
+  }
+
+  @Test
+  public void testPendingJobsAreTakenByDeadline() throws InterruptedException {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(3);
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    // keep the only thread busy, so that the next jobs are pending
+    runner.start(new Async() {
+      @Override
+      public void run(State state) throws InterruptedException {
+        running.countDown();
+        release.await();
+      }
+    });
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    long now = System.nanoTime();
+    for (final int seconds : new int[] { 3, 1, 2 }) {
+      runner.startBy(now + TimeUnit.SECONDS.toNanos(seconds), new Async() {
+        @Override
+        public void run(State state) {
+          order.add(seconds);
+          done.countDown();
+        }
+      });
+    }
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(1, 2, 3), order);
+  }
+
+  @Test
+  public void testPendingJobExpires() throws InterruptedException {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch finished = new CountDownLatch(1);
+    final AtomicBoolean ran = new AtomicBoolean();
+    runner.start(new Async() {
+      @Override
+      public void run(State state) throws InterruptedException {
+        running.countDown();
+        release.await();
+      }
+    });
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    AsyncRun expiring = runner.startBy(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10),
+      new AsyncCompletion() {
+        @Override
+        public void run(State state) {
+          ran.set(true);
+        }
+
+        @Override
+        public void onComplete() {
+          fail("expired");
+        }
+
+        @Override
+        public void onFinally() {
+          finished.countDown();
+        }
+      });
+    Thread.sleep(20);
+    release.countDown();
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertFalse(ran.get());
+    assertTrue(expiring.isExpired());
+    assertTrue(expiring.isCancelled());
+    assertFalse(expiring.isStarted());
+    assertTrue(expiring.isDone());
+  }
+
+  @Test
+  public void testJobRunsBeforeDeadline() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    AsyncRun run = runner.startBy(System.nanoTime() + TimeUnit.SECONDS.toNanos(5), new Async() {
+      @Override
+      public void run(State state) {
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertFalse(run.isExpired());
+    assertFalse(run.isCancelled());
+  }
+
+  @Test
+  public void testScheduledJobRunsAfterDelay() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    final long scheduled = System.nanoTime();
+    final long[] ran = new long[1];
+    AsyncRun run = runner.schedule(new Async() {
+      @Override
+      public void run(State state) {
+        ran[0] = System.nanoTime();
+        done.countDown();
+      }
+    }, 20, TimeUnit.MILLISECONDS);
+    assertFalse(run.isStarted());
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(ran[0] - scheduled >= TimeUnit.MILLISECONDS.toNanos(20));
+  }
+
+  @Test
+  public void testCancelScheduledJob() throws InterruptedException {
+    final CountDownLatch finished = new CountDownLatch(1);
+    final AtomicBoolean ran = new AtomicBoolean();
+    AsyncRun run = runner.schedule(new AsyncCompletion() {
+      @Override
+      public void run(State state) {
+        ran.set(true);
+      }
+
+      @Override
+      public void onFinally() {
+        finished.countDown();
+      }
+    }, 20, TimeUnit.MILLISECONDS);
+    run.cancel();
+    // the timer is removed, and the handlers are finished at once
+    assertEquals(0, finished.getCount());
+    assertTrue(run.isCancelled());
+    Thread.sleep(40);
+    assertFalse(ran.get());
+  }
+
+  @Test
+  public void testScheduledJobCancelledWithPendings() throws InterruptedException {
+    final CountDownLatch finished = new CountDownLatch(1);
+    final AtomicBoolean ran = new AtomicBoolean();
+    AsyncRun run = runner.schedule(new AsyncCompletion() {
+      @Override
+      public void run(State state) {
+        ran.set(true);
+      }
+
+      @Override
+      public void onFinally() {
+        finished.countDown();
+      }
+    }, 10, TimeUnit.MILLISECONDS);
+    runner.cancelPendings();
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertFalse(ran.get());
+    assertTrue(run.isCancelled());
+  }
+
+  @Test
+  public void testFixedRate() throws InterruptedException {
+    final CountDownLatch runs = new CountDownLatch(5);
+    final AtomicInteger finished = new AtomicInteger();
+    long start = System.nanoTime();
+    AsyncRun run = runner.scheduleAtFixedRate(new AsyncCompletion() {
+      @Override
+      public void run(State state) {
+        runs.countDown();
+      }
+
+      @Override
+      public void onFinally() {
+        finished.incrementAndGet();
+      }
+    }, 0, 10, TimeUnit.MILLISECONDS);
+    assertTrue(runs.await(5, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+    assertTrue(run.isStarted());
+    assertFalse(run.isDone());
+    run.cancel();
+    assertTrue(run.isCancelled());
+    int count = finished.get();
+    Thread.sleep(40);
+    assertTrue(run.isDone());
+    // at most the run in progress when cancelled
+    assertTrue(finished.get() - count <= 1);
+  }
+
+  @Test
+  public void testRejectedRunOnlySkipsThePeriod() throws InterruptedException {
+    ReentrantExecutor executor = new ReentrantExecutor(0, 1, Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+      TEST_RUNNER, 1, OverloadPolicy.REJECT);
+    DefaultRunner runner = new DefaultRunner(executor);
+    try {
+      final CountDownLatch running = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch runs = new CountDownLatch(3);
+      runner.start(new Async() {
+        @Override
+        public void run(State state) throws InterruptedException {
+          running.countDown();
+          release.await();
+        }
+      });
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+      runner.start(new Async() {
+        @Override
+        public void run(State state) {}
+      });
+      AsyncRun run = runner.scheduleAtFixedRate(new Async() {
+        @Override
+        public void run(State state) {
+          runs.countDown();
+        }
+      }, 0, 5, TimeUnit.MILLISECONDS);
+      for (int i = 0; i < 500 && executor.getOverloadCount() == 0; i++) {
+        Thread.sleep(10);
+      }
+      assertTrue(executor.getOverloadCount() > 0);
+      assertFalse(run.isCancelled());
+      release.countDown();
+      assertTrue(runs.await(5, TimeUnit.SECONDS));
+      assertFalse(run.isCancelled());
+      run.cancel();
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  @Test
+  public void testFixedDelayRunsNeverOverlap() throws InterruptedException {
+    DefaultRunner runner = new DefaultRunner(4, TEST_RUNNER);
+    try {
+      final CountDownLatch runs = new CountDownLatch(5);
+      final AtomicInteger running = new AtomicInteger();
+      final AtomicBoolean overlapped = new AtomicBoolean();
+      AsyncRun run = runner.scheduleWithFixedDelay(new Async() {
+        @Override
+        public void run(State state) throws InterruptedException {
+          if (running.incrementAndGet() > 1) {
+            overlapped.set(true);
+          }
+          Thread.sleep(5);
+          running.decrementAndGet();
+          runs.countDown();
+        }
+      }, 0, 1, TimeUnit.MILLISECONDS);
+      assertTrue(runs.await(5, TimeUnit.SECONDS));
+      run.cancel();
+      assertFalse(overlapped.get());
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFixedRateNeedsAPeriod() {
+    runner.scheduleAtFixedRate(new Async() {
+      @Override
+      public void run(State state) {}
+    }, 0, 0, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testDroppedJobIsCancelled() throws InterruptedException {
+    ReentrantExecutor executor = new ReentrantExecutor(0, 1, Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+      TEST_RUNNER, 1, OverloadPolicy.DROP_OLDEST);
+    DefaultRunner runner = new DefaultRunner(executor);
+    try {
+      final CountDownLatch running = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch finished = new CountDownLatch(1);
+      runner.start(new Async() {
+        @Override
+        public void run(State state) throws InterruptedException {
+          running.countDown();
+          release.await();
+        }
+      });
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+      AsyncRun dropped = runner.start(new AsyncCompletion() {
+        @Override
+        public void run(State state) {}
+
+        @Override
+        public void onFinally() {
+          finished.countDown();
+        }
+      });
+      assertEquals(1, executor.getQueueDepth());
+      AsyncRun kept = runner.start(new Async() {
+        @Override
+        public void run(State state) {}
+      });
+      assertTrue(finished.await(5, TimeUnit.SECONDS));
+      assertTrue(dropped.isCancelled());
+      assertFalse(dropped.isStarted());
+      assertEquals(1, executor.getOverloadCount());
+      assertEquals(1, executor.getQueueDepth());
+      assertEquals(1, executor.getQueueCapacity());
+      assertSame(OverloadPolicy.DROP_OLDEST, executor.getOverloadPolicy());
+      release.countDown();
+      for (int i = 0; i < 500 && !kept.isDone(); i++) {
+        Thread.sleep(10);
+      }
+      assertTrue(kept.isDone());
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  @Test
+  public void testDueJobIsCancelledWhenOverloaded() throws InterruptedException {
+    ReentrantExecutor executor = new ReentrantExecutor(0, 1, Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+      TEST_RUNNER, 1, OverloadPolicy.CALLER_RUNS);
+    DefaultRunner runner = new DefaultRunner(executor);
+    try {
+      final CountDownLatch running = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch finished = new CountDownLatch(1);
+      final boolean[] ran = new boolean[1];
+      runner.start(new Async() {
+        @Override
+        public void run(State state) throws InterruptedException {
+          running.countDown();
+          release.await();
+        }
+      });
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+      runner.start(new Async() {
+        @Override
+        public void run(State state) {}
+      });
+      assertEquals(1, executor.getQueueDepth());
+      AsyncRun due = runner.schedule(new AsyncCompletion() {
+        @Override
+        public void run(State state) {
+          ran[0] = true;
+        }
+
+        @Override
+        public void onFinally() {
+          finished.countDown();
+        }
+      }, 1, TimeUnit.MILLISECONDS);
+      // the wheel neither runs the job by the policy nor blocks
+      assertTrue(finished.await(5, TimeUnit.SECONDS));
+      assertTrue(due.isCancelled());
+      assertFalse(ran[0]);
+      assertEquals(1, executor.getOverloadCount());
+      release.countDown();
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  @Test
+  public void testKeyedJobsRunInOrder() throws InterruptedException {
+    DefaultRunner runner = new DefaultRunner(4, TEST_RUNNER);
+    try {
+      final int jobs = 500;
+      final String[] keys = { "a", "b", "c" };
+      final CountDownLatch done = new CountDownLatch(jobs * keys.length);
+      final List<List<Integer>> runs = new ArrayList<List<Integer>>();
+      final AtomicInteger[] running = new AtomicInteger[keys.length];
+      final AtomicInteger overlaps = new AtomicInteger();
+      for (int k = 0; k < keys.length; k++) {
+        runs.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        running[k] = new AtomicInteger();
+      }
+      for (int i = 0; i < jobs; i++) {
+        for (int k = 0; k < keys.length; k++) {
+          final int key = k;
+          final Integer value = Integer.valueOf(i);
+          runner.start(keys[k], new Async() {
+            @Override
+            public void run(State state) {
+              if (running[key].incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+              }
+              runs.get(key).add(value);
+              running[key].decrementAndGet();
+              done.countDown();
+            }
+          });
+        }
+      }
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertEquals(0, overlaps.get());
+      for (List<Integer> values : runs) {
+        assertEquals(jobs, values.size());
+        for (int i = 0; i < jobs; i++) {
+          assertEquals(i, values.get(i).intValue());
+        }
+      }
+      Map<?, ?> strands = accessField("strands", runner);
+      for (int i = 0; i < 500 && !strands.isEmpty(); i++) {
+        Thread.sleep(10);
+      }
+      // idle keys are forgotten
+      assertTrue(strands.isEmpty());
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  @Test
+  public void testCancelKeyedJob() throws InterruptedException {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch cancelled = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    runner.start("key", new Async() {
+      @Override
+      public void run(State state) throws InterruptedException {
+        running.countDown();
+        release.await();
+      }
+    });
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    AsyncRun second = runner.start("key", new AsyncCompletion() {
+      @Override
+      public void run(State state) {}
+
+      @Override
+      public void onFinally() {
+        cancelled.countDown();
+      }
+    });
+    AsyncRun third = runner.start("key", new Async() {
+      @Override
+      public void run(State state) {
+        done.countDown();
+      }
+    });
+    second.cancel();
+    // completed straight away, while the first job of the key is still running
+    assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+    assertTrue(second.isCancelled());
+    assertFalse(second.isStarted());
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertFalse(third.isCancelled());
+  }
+
+  @Test
+  public void testCancelPendingKeyedJobs() throws InterruptedException {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch cancelled = new CountDownLatch(2);
+    runner.start(new Async() {
+      @Override
+      public void run(State state) throws InterruptedException {
+        running.countDown();
+        release.await();
+      }
+    });
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 2; i++) {
+      runner.start("key", new AsyncCompletion() {
+        @Override
+        public void run(State state) {
+          fail("This should not have started");
+        }
+
+        @Override
+        public void onFinally() {
+          cancelled.countDown();
+        }
+      });
+    }
+    runner.cancelPendings();
+    assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+    release.countDown();
+    // the key is usable again
+    final CountDownLatch done = new CountDownLatch(1);
+    runner.start("key", new Async() {
+      @Override
+      public void run(State state) {
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testParentCompletesAfterChildren() throws InterruptedException {
+    DefaultRunner forking = forkingRunner();
+    try {
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch returned = new CountDownLatch(1);
+      final CountDownLatch completed = new CountDownLatch(1);
+      final AtomicInteger childrenDone = new AtomicInteger();
+      final AtomicInteger doneAtCompletion = new AtomicInteger(-1);
+      final List<AsyncRun> children = Collections.synchronizedList(new ArrayList<AsyncRun>());
+      AsyncRun parent = forking.start(new AsyncCompletion() {
+        @Override
+        public void run(State state) {
+          for (int i = 0; i < 2; i++) {
+            children.add(state.fork(new AsyncCompletion() {
+              @Override
+              public void run(State state) throws InterruptedException {
+                release.await();
+              }
+
+              @Override
+              public void onFinally() {
+                childrenDone.incrementAndGet();
+              }
+            }));
+          }
+          returned.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+          doneAtCompletion.set(childrenDone.get());
+          completed.countDown();
+        }
+      });
+      assertTrue(returned.await(5, TimeUnit.SECONDS));
+      assertFalse(completed.await(20, TimeUnit.MILLISECONDS));
+      assertFalse(parent.isDone());
+      release.countDown();
+      assertTrue(completed.await(5, TimeUnit.SECONDS));
+      assertEquals(2, doneAtCompletion.get());
+      assertTrue(parent.isDone());
+      assertFalse(parent.isCancelled());
+      for (AsyncRun child : children) {
+        assertTrue(child.isDone());
+      }
+    } finally {
+      forking.shutdown();
+    }
+  }
+
+  @Test
+  public void testCancelParentCancelsChildren() throws InterruptedException {
+    DefaultRunner forking = forkingRunner();
+    try {
+      final CountDownLatch forked = new CountDownLatch(1);
+      final CountDownLatch finished = new CountDownLatch(1);
+      final AtomicReference<AsyncRun> child = new AtomicReference<AsyncRun>();
+      AsyncRun parent = forking.start(new AsyncCompletion() {
+        @Override
+        public void run(State state) {
+          child.set(state.fork(new Async() {
+            @Override
+            public void run(State state) throws InterruptedException {
+              new CountDownLatch(1).await();
+            }
+          }));
+          forked.countDown();
+        }
+
+        @Override
+        public void onFinally() {
+          finished.countDown();
+        }
+      });
+      assertTrue(forked.await(5, TimeUnit.SECONDS));
+      parent.cancel();
+      assertTrue(finished.await(5, TimeUnit.SECONDS));
+      assertTrue(child.get().isCancelled());
+      assertTrue(child.get().isDone());
+      assertTrue(parent.isCancelled());
+      assertTrue(parent.isDone());
+    } finally {
+      forking.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailFastCancelsSiblings() throws InterruptedException {
+    DefaultRunner forking = forkingRunner();
+    try {
+      final Exception failure = new Exception();
+      final CountDownLatch siblingRunning = new CountDownLatch(1);
+      final CountDownLatch finished = new CountDownLatch(1);
+      final AtomicReference<Throwable> reported = new AtomicReference<Throwable>();
+      final AtomicReference<AsyncRun> sibling = new AtomicReference<AsyncRun>();
+      final AtomicBoolean completed = new AtomicBoolean();
+      forking.start(new AsyncCompletion() {
+        @Override
+        public void run(State state) throws InterruptedException {
+          state.failFast();
+          sibling.set(state.fork(new Async() {
+            @Override
+            public void run(State state) throws InterruptedException {
+              siblingRunning.countDown();
+              new CountDownLatch(1).await();
+            }
+          }));
+          siblingRunning.await();
+          state.fork(new Async() {
+            @Override
+            public void run(State state) throws Exception {
+              throw failure;
+            }
+          });
+        }
+
+        @Override
+        public void onComplete() {
+          completed.set(true);
+        }
+
+        @Override
+        public void onException(Throwable e) {
+          reported.set(e);
+        }
+
+        @Override
+        public void onFinally() {
+          finished.countDown();
+        }
+      });
+      assertTrue(finished.await(5, TimeUnit.SECONDS));
+      assertSame(failure, reported.get());
+      assertFalse(completed.get());
+      assertTrue(sibling.get().isCancelled());
+    } finally {
+      forking.shutdown();
+    }
+  }
+
+  @Test
+  public void testForkAfterCompletion() throws InterruptedException {
+    final CountDownLatch finished = new CountDownLatch(1);
+    final AtomicReference<State> escaped = new AtomicReference<State>();
+    runner.start(new AsyncCompletion() {
+      @Override
+      public void run(State state) {
+        escaped.set(state);
+        state.fork(new Async() {
+          @Override
+          public void run(State state) {}
+        });
+      }
+
+      @Override
+      public void onFinally() {
+        finished.countDown();
+      }
+    });
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    try {
+      escaped.get().fork(new Async() {
+        @Override
+        public void run(State state) {}
+      });
+      fail("forked after completion");
+    } catch (IllegalStateException e) {}
+  }
+
+  @Test
+  public void testStartAll() throws InterruptedException {
+    final AtomicInteger responses = new AtomicInteger();
+    final AtomicInteger atCompletion = new AtomicInteger();
+    final CountDownLatch finished = new CountDownLatch(1);
+    List<Request<Integer>> requests = new ArrayList<Request<Integer>>();
+    for (int i = 0; i < 100; i++) {
+      final Integer value = Integer.valueOf(i);
+      requests.add(new Request<Integer>() {
+        @Override
+        public Integer run(State state) {
+          return value;
+        }
+      });
+    }
+    AsyncRun group = runner.startAll(requests, HandlerSet.of(new ResponseAdapter<Integer>() {
+      @Override
+      public void onResponse(Result<Integer> result) {
+        responses.incrementAndGet();
+      }
+    }), new CompletionAdapter() {
+      @Override
+      public void onComplete() {
+        atCompletion.set(responses.get());
+      }
+
+      @Override
+      public void onFinally() {
+        finished.countDown();
+      }
+    });
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertEquals(100, atCompletion.get());
+    assertTrue(group.isStarted());
+    assertTrue(group.isDone());
+    assertFalse(group.isCancelled());
+  }
+
+  @Test
+  public void testCancelGroup() throws InterruptedException {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch finished = new CountDownLatch(1);
+    final AtomicBoolean completed = new AtomicBoolean();
+    final AtomicBoolean ran = new AtomicBoolean();
+    // keep the only thread busy, so that the group is queued
+    runner.start(new Async() {
+      @Override
+      public void run(State state) throws InterruptedException {
+        running.countDown();
+        release.await();
+      }
+    });
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    List<Request<Object>> requests = new ArrayList<Request<Object>>();
+    for (int i = 0; i < 10; i++) {
+      requests.add(new Request<Object>() {
+        @Override
+        public Object run(State state) {
+          ran.set(true);
+          return null;
+        }
+      });
+    }
+    AsyncRun group = runner.startAll(requests, HandlerSet.of(new ResponseAdapter<Object>() {}),
+      new CompletionAdapter() {
+        @Override
+        public void onComplete() {
+          completed.set(true);
+        }
+
+        @Override
+        public void onFinally() {
+          finished.countDown();
+        }
+      });
+    assertFalse(group.isStarted());
+    group.cancel();
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    release.countDown();
+    assertTrue(group.isCancelled());
+    assertTrue(group.isDone());
+    assertFalse(completed.get());
+    assertFalse(ran.get());
+  }
+
+  @Test
+  public void testGroupFailure() throws InterruptedException {
+    final Exception failure = new Exception();
+    final AtomicReference<Throwable> reported = new AtomicReference<Throwable>();
+    final CountDownLatch finished = new CountDownLatch(1);
+    List<AsyncResponse<Object>> requests = new ArrayList<AsyncResponse<Object>>();
+    for (int i = 0; i < 3; i++) {
+      final boolean failing = i == 1;
+      requests.add(new AsyncResponse<Object>() {
+        @Override
+        public Object run(State state) throws Exception {
+          if (failing) {
+            throw failure;
+          }
+          return null;
+        }
+      });
+    }
+    runner.startAll(requests, HandlerSet.of(new ResponseAdapter<Object>() {}),
+      new CompletionAdapter() {
+        @Override
+        public void onException(Throwable exception) {
+          reported.set(exception);
+        }
+
+        @Override
+        public void onFinally() {
+          finished.countDown();
+        }
+      });
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertSame(failure, reported.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testStartAllNeedsHandlers() {
+    runner.startAll(Collections.singletonList(new Request<Object>() {
+      @Override
+      public Object run(State state) {
+        return null;
+      }
+    }));
+  }
+
+  /**
+   * Returns a runner with enough workers that forked children are stolen by other workers, rather
+   * than run in the thread of their parent.
+   */
+  private static DefaultRunner forkingRunner() {
+    return new DefaultRunner(new WorkStealingExecutor(4, TEST_RUNNER));
+  }
+
+  @Test
+  public void testBatchWindowDeliveryDoesNotBlockProgress() throws InterruptedException {
+    DefaultRunner runner = new DefaultRunner(2, TEST_RUNNER);
+    try {
+      final CountDownLatch delivering = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch finished = new CountDownLatch(1);
+      final AtomicBoolean notified = new AtomicBoolean();
+      final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+      runner.start(new Progressive<Integer>() {
+        @Override
+        public void run(ProgressState<Integer> state) throws InterruptedException {
+          state.notifyProgress(Integer.valueOf(1));
+          assertTrue(delivering.await(5, TimeUnit.SECONDS));
+          // the handler is still busy with the first chunk
+          state.notifyProgress(Integer.valueOf(2));
+          notified.set(true);
+          release.countDown();
+        }
+      }, HandlerSet.batching(100, 10, TimeUnit.MILLISECONDS, new BatchProgressAdapter<Integer>() {
+        @Override
+        public void onProgressBatch(List<Integer> values) {
+          received.addAll(values);
+          delivering.countDown();
+          try {
+            release.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+
+        @Override
+        public void onFinally() {
+          finished.countDown();
+        }
+      }));
+      assertTrue(finished.await(5, TimeUnit.SECONDS));
+      assertTrue(notified.get());
+      assertEquals(Arrays.asList(1, 2), received);
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testNullKey() {
+    runner.start(null, new Async() {
+      @Override
+      public void run(State state) {}
+    });
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testNullPriority() {
+    runner.start(new PrioritizedAsync(null, new ArrayList<Priority>(), new CountDownLatch(1)));
+  }
+
+  private static final class PrioritizedAsync implements Async, Prioritized {
+    private final Priority priority;
+    private final List<Priority> order;
+    private final CountDownLatch done;
+
+    PrioritizedAsync(Priority priority, List<Priority> order, CountDownLatch done) {
+      this.priority = priority;
+      this.order = order;
+      this.done = done;
+    }
+
+    @Override
+    public Priority getPriority() {
+      return priority;
+    }
+
+    @Override
+    public void run(State state) {
+      order.add(priority);
+      done.countDown();
+    }
+  }
 }
@@ -15,7 +15,7 @@
  */
 package com.j2speed.async;
 
-import static com.j2speed.accessor.Accessors.accessField;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
@@ -23,8 +23,13 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.lang.Thread.State;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -32,8 +37,6 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
-import com.j2speed.accessor.Accessors;
-import com.j2speed.async.ExecutionQueue;
 import com.j2speed.junit.ThreadTransferRunner;
 
 @SuppressWarnings("all")
@@ -42,26 +45,19 @@ public class ExecutionQueueTest {
 
   ExecutionQueue queue;
 
-  Queue<Runnable> buffer;
-
   @Before
   public void setUp() throws Exception {
     queue = new ExecutionQueue();
-    buffer = accessField("bufferQueue", queue);
   }
 
   @Test
-  public void testClear() {
-    assertTrue(buffer.isEmpty());
-    assertTrue(queue.isEmpty());
-    buffer.offer(new Runnable() {
-      @Override
-      public void run() {}
-    });
+  public void testClear() throws Exception {
     assertTrue(queue.isEmpty());
-    assertFalse(buffer.isEmpty());
+    queue.rejectedExecution(task(), null);
+    assertFalse(queue.isEmpty());
+    assertEquals(1, queue.size());
     queue.clear();
-    assertTrue(buffer.isEmpty());
+    assertTrue(queue.isEmpty());
     assertNull(queue.poll());
   }
 
@@ -72,6 +68,7 @@ public class ExecutionQueueTest {
         return queue.poll(500, TimeUnit.MILLISECONDS);
       }
     });
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
   }
 
   @Test
@@ -93,59 +90,548 @@ public class ExecutionQueueTest {
   }
 
   private void test(QueueQuery query) throws Exception {
-    Runnable expected = offer();
-    assertSame(expected, query.ask());
+    Runnable first = task();
+    Runnable second = task();
+    queue.rejectedExecution(first, null);
+    queue.rejectedExecution(second, null);
+    // in scheduling sequence
+    assertSame(first, query.ask());
+    assertSame(second, query.ask());
+    assertNull(queue.poll());
+  }
 
-    expected = offer();
-    Runnable expectedFirst = new Runnable() {
-      public void run() {}
+  @Test
+  public void testOfferOnlyToWaitingConsumers() throws Exception {
+    // no consumer, the executor has to start a thread or reject the task
+    assertFalse(queue.offer(task()));
+    assertTrue(queue.isEmpty());
+
+    final AtomicReference<Runnable> taken = new AtomicReference<Runnable>();
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          taken.set(queue.take());
+        } catch (InterruptedException e) {}
+      }
+    };
+    consumer.start();
+    waitParked(consumer);
+    Runnable task = task();
+    assertTrue(queue.offer(task));
+    consumer.join(500);
+    assertSame(task, taken.get());
+  }
+
+  @Test
+  public void testRejectedExecutionWakesUpConsumer() throws Exception {
+    final AtomicReference<Runnable> taken = new AtomicReference<Runnable>();
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          taken.set(queue.poll(500, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {}
+      }
     };
-    buffer.offer(expectedFirst);
-    // first return the buffered tasks
-    assertSame(expectedFirst, query.ask());
-    // then satisfy the ones waiting in the synchronous queue
-    assertSame(expected, query.ask());
+    consumer.start();
+    waitParked(consumer);
+    Runnable task = task();
+    queue.rejectedExecution(task, null);
+    consumer.join(500);
+    assertSame(task, taken.get());
+  }
 
+  @Test
+  public void testTakeIsInterruptible() throws Exception {
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          queue.take();
+        } catch (InterruptedException e) {
+          interrupted.countDown();
+        }
+      }
+    };
+    consumer.start();
+    waitParked(consumer);
+    consumer.interrupt();
+    assertTrue(interrupted.await(500, TimeUnit.MILLISECONDS));
+    // the interrupted consumer does not take the hand-off
+    assertFalse(queue.offer(task()));
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    Runnable first = task();
+    Runnable second = task();
+    Runnable third = task();
+    queue.put(first);
+    queue.put(second);
+    queue.put(third);
+    assertTrue(queue.remove(second));
+    assertFalse(queue.remove(second));
+    assertEquals(2, queue.size());
+    assertSame(first, queue.poll());
+    assertSame(third, queue.poll());
     assertNull(queue.poll());
+    assertFalse(queue.remove(first));
+  }
+
+  @Test
+  public void testRemoveNode() throws Exception {
+    Task first = new Task();
+    Task second = new Task();
+    // not queued yet
+    assertFalse(queue.remove(first));
+    queue.put(first);
+    queue.put(second);
+    assertTrue(queue.remove(first));
+    assertFalse(queue.remove(first));
+    assertEquals(Arrays.asList(second), new ArrayList<Runnable>(queue));
+    assertSame(second, queue.poll());
+    // taken
+    assertFalse(queue.remove(second));
+    // queued again, in a new entry
+    queue.put(second);
+    assertSame(second, queue.poll());
+  }
+
+  @Test
+  public void testDrainTo() throws Exception {
+    Runnable first = task();
+    Runnable second = task();
+    Runnable third = task();
+    queue.put(first);
+    queue.put(second);
+    queue.put(third);
+    queue.remove(second);
+    List<Runnable> drained = new ArrayList<Runnable>();
+    assertEquals(1, queue.drainTo(drained, 1));
+    assertEquals(1, queue.drainTo(drained));
+    assertEquals(Arrays.asList(first, third), drained);
+    assertTrue(queue.isEmpty());
   }
 
   @Test
-  public void testRejectedExecution() throws InterruptedException {
-    Runnable expectedFirst = new Runnable() {
+  public void testIteratorRemove() throws Exception {
+    Runnable first = task();
+    Runnable second = task();
+    queue.put(first);
+    queue.put(second);
+    java.util.Iterator<Runnable> iterator = queue.iterator();
+    assertSame(first, iterator.next());
+    iterator.remove();
+    assertSame(second, iterator.next());
+    assertFalse(iterator.hasNext());
+    assertSame(second, queue.peek());
+    assertEquals(1, queue.size());
+  }
+
+  @Test
+  public void testConcurrentProducersAndConsumers() throws Exception {
+    final int producers = 4;
+    final int consumers = 4;
+    final int tasks = 20000;
+    final Set<Runnable> taken = new HashSet<Runnable>();
+    final CountDownLatch done = new CountDownLatch(producers * tasks);
+    Thread[] threads = new Thread[consumers];
+    for (int c = 0; c < consumers; c++) {
+      threads[c] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (;;) {
+              Runnable task = queue.take();
+              synchronized (taken) {
+                if (!taken.add(task)) {
+                  fail("taken twice");
+                }
+              }
+              done.countDown();
+            }
+          } catch (InterruptedException e) {}
+        }
+      };
+      threads[c].start();
+    }
+    for (int p = 0; p < producers; p++) {
+      new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < tasks; i++) {
+            Runnable task = (i & 1) == 0 ? new Task() : task();
+            if (!queue.offer(task)) {
+              queue.rejectedExecution(task, null);
+            }
+          }
+        }
+      }.start();
+    }
+    try {
+      if (!done.await(10, TimeUnit.SECONDS)) {
+        fail("timeout, " + done.getCount() + " tasks not taken");
+      }
+      assertEquals(producers * tasks, taken.size());
+    } finally {
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+    }
+  }
+
+  private static Runnable task() {
+    return new Runnable() {
       public void run() {}
     };
+  }
 
-    queue.rejectedExecution(expectedFirst, null);
-    Runnable expectedLast = offer();
+  private static void waitParked(Thread thread) {
+    while (thread.getState() != State.WAITING && thread.getState() != State.TIMED_WAITING) {
+      // wait until the thread is parked
+      Thread.yield();
+    }
+  }
 
-    // Test expected values
-    assertSame(expectedFirst, queue.poll());
-    assertSame(expectedLast, queue.poll());
+  /**
+   * A task that is its own entry.
+   */
+  @Test
+  public void testPriorityLanes() throws Exception {
+    Task low = new Task(Priority.LOW);
+    Task normal = new Task(Priority.NORMAL);
+    Task high = new Task(Priority.HIGH);
+    Runnable plain = new Runnable() {
+      public void run() {}
+    };
+    queue.put(low);
+    queue.put(normal);
+    queue.put(plain);
+    queue.put(high);
+    assertSame(high, queue.peek());
+    assertEquals(Arrays.asList(high, normal, plain, low), new ArrayList<Runnable>(queue));
+    assertSame(high, queue.poll());
+    assertSame(normal, queue.poll());
+    assertSame(plain, queue.poll());
+    assertSame(low, queue.poll());
     assertNull(queue.poll());
   }
 
-  private Runnable offer() {
-    Thread thread = new Thread() {
+  @Test
+  public void testAging() throws Exception {
+    queue = new ExecutionQueue(1, TimeUnit.MILLISECONDS);
+    Task low = new Task(Priority.LOW);
+    queue.put(low);
+    // waited for more than two aging periods, it ranks above a fresh high priority task
+    Thread.sleep(10);
+    Task high = new Task(Priority.HIGH);
+    queue.put(high);
+    assertSame(low, queue.poll());
+    assertSame(high, queue.poll());
+  }
+
+  @Test
+  public void testCancelAcrossLanes() throws Exception {
+    Task low = new Task(Priority.LOW);
+    Task high = new Task(Priority.HIGH);
+    Task normal = new Task(Priority.NORMAL);
+    queue.put(low);
+    queue.put(high);
+    queue.put(normal);
+    assertTrue(queue.remove(high));
+    assertFalse(queue.remove(high));
+    assertEquals(2, queue.size());
+    List<Runnable> drained = new ArrayList<Runnable>();
+    assertEquals(2, queue.drainTo(drained));
+    assertEquals(Arrays.asList(normal, low), drained);
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testBoundedPutWaitsForRoom() throws Exception {
+    queue = new ExecutionQueue(1, OverloadPolicy.REJECT);
+    final Task first = new Task();
+    final Task second = new Task();
+    queue.put(first);
+    assertEquals(0, queue.remainingCapacity());
+    assertFalse(queue.offer(second, 10, TimeUnit.MILLISECONDS));
+    final CountDownLatch queued = new CountDownLatch(1);
+    Thread producer = new Thread() {
       @Override
       public void run() {
         try {
-          if (!queue.offer(this, 200, TimeUnit.MILLISECONDS)) {
-            fail("Test timed out");
-          }
-        } catch (InterruptedException e) {
-          fail("Test interrupted");
-        }
+          queue.put(second);
+          queued.countDown();
+        } catch (InterruptedException e) {}
       }
     };
-    thread.start();
-    while (thread.getState() != State.TIMED_WAITING) {
-      // wait until the thread is parked
-      continue;
+    producer.start();
+    waitParked(producer);
+    assertEquals(1, queued.getCount());
+    assertSame(first, queue.poll());
+    assertTrue(queued.await(500, TimeUnit.MILLISECONDS));
+    assertSame(second, queue.poll());
+  }
+
+  @Test
+  public void testRejectPolicy() throws Exception {
+    queue = new ExecutionQueue(1, OverloadPolicy.REJECT);
+    Task first = new Task();
+    queue.rejectedExecution(first, null);
+    try {
+      queue.rejectedExecution(new Task(), null);
+      fail();
+    } catch (RejectedExecutionException e) {}
+    assertEquals(1, queue.overloads());
+    assertEquals(Arrays.asList(first), new ArrayList<Runnable>(queue));
+  }
+
+  @Test
+  public void testCallerRunsPolicy() throws Exception {
+    queue = new ExecutionQueue(1, OverloadPolicy.CALLER_RUNS);
+    queue.rejectedExecution(new Task(), null);
+    final AtomicReference<Thread> ran = new AtomicReference<Thread>();
+    queue.rejectedExecution(new Runnable() {
+      public void run() {
+        ran.set(Thread.currentThread());
+      }
+    }, null);
+    assertSame(Thread.currentThread(), ran.get());
+    assertEquals(1, queue.overloads());
+    assertEquals(1, queue.size());
+  }
+
+  @Test
+  public void testBlockPolicy() throws Exception {
+    queue = new ExecutionQueue(1, OverloadPolicy.block(10, TimeUnit.MILLISECONDS));
+    final Task first = new Task();
+    queue.rejectedExecution(first, null);
+    try {
+      queue.rejectedExecution(new Task(), null);
+      fail();
+    } catch (RejectedExecutionException e) {}
+    assertEquals(1, queue.overloads());
+    // room freed while blocked
+    queue = new ExecutionQueue(1, OverloadPolicy.block(500, TimeUnit.MILLISECONDS));
+    queue.rejectedExecution(first, null);
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {}
+        queue.poll();
+      }
+    };
+    consumer.start();
+    Task second = new Task();
+    queue.rejectedExecution(second, null);
+    assertEquals(0, queue.overloads());
+    assertSame(second, queue.poll());
+  }
+
+  @Test
+  public void testDropOldestPolicy() throws Exception {
+    queue = new ExecutionQueue(2, OverloadPolicy.DROP_OLDEST);
+    Task normal = new Task(Priority.NORMAL);
+    Task low = new Task(Priority.LOW);
+    Task high = new Task(Priority.HIGH);
+    queue.rejectedExecution(normal, null);
+    queue.rejectedExecution(low, null);
+    queue.rejectedExecution(high, null);
+    assertTrue(low.dropped);
+    assertFalse(normal.dropped);
+    assertEquals(1, queue.overloads());
+    assertEquals(Arrays.asList(high, normal), new ArrayList<Runnable>(queue));
+  }
+
+  @Test
+  public void testEarliestDeadlineFirst() throws Exception {
+    long now = System.nanoTime();
+    Task plain = new Task();
+    Task late = new Task(now + 3000000000L);
+    Task early = new Task(now + 1000000000L);
+    Task middle = new Task(now + 2000000000L);
+    Task cancelled = new Task(now);
+    queue.put(plain);
+    queue.put(late);
+    queue.put(early);
+    queue.put(cancelled);
+    queue.put(middle);
+    assertTrue(queue.remove(cancelled));
+    assertEquals(4, queue.size());
+    // deadlines first, as the job without one has not waited for an aging period
+    assertSame(early, queue.poll());
+    assertSame(middle, queue.poll());
+    assertSame(late, queue.poll());
+    assertSame(plain, queue.poll());
+    assertNull(queue.poll());
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void testAgedJobGoesBeforeDeadlines() throws Exception {
+    queue = new ExecutionQueue(10, TimeUnit.MILLISECONDS);
+    Task plain = new Task();
+    Task early = new Task(System.nanoTime());
+    queue.put(plain);
+    Thread.sleep(20);
+    queue.put(early);
+    assertSame(plain, queue.poll());
+    assertSame(early, queue.poll());
+  }
+
+  @Test
+  public void testDrainDeadlines() throws Exception {
+    long now = System.nanoTime();
+    Task late = new Task(now + 2000000000L);
+    Task early = new Task(now + 1000000000L);
+    queue.put(late);
+    queue.put(early);
+    List<Runnable> drained = new ArrayList<Runnable>();
+    assertEquals(2, queue.drainTo(drained));
+    assertEquals(Arrays.asList(late, early), drained);
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void testQueueAll() throws Exception {
+    final AtomicReference<Runnable> taken = new AtomicReference<Runnable>();
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          taken.set(queue.take());
+        } catch (InterruptedException e) {}
+      }
+    };
+    consumer.start();
+    waitParked(consumer);
+    Task low = new Task(Priority.LOW);
+    Task first = new Task();
+    Task second = new Task();
+    Task high = new Task(Priority.HIGH);
+    assertEquals(4, queue.queueAll(Arrays.asList(low, first, second, high)));
+    consumer.join(500);
+    assertSame(high, taken.get());
+    assertSame(first, queue.poll());
+    assertSame(second, queue.poll());
+    assertSame(low, queue.poll());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void testQueueAllUpToCapacity() throws Exception {
+    queue = new ExecutionQueue(2, OverloadPolicy.REJECT);
+    Task first = new Task();
+    Task second = new Task();
+    assertEquals(2, queue.queueAll(Arrays.asList(first, second, new Task())));
+    assertEquals(0, queue.queueAll(Arrays.asList(new Task())));
+    assertEquals(Arrays.asList(first, second), new ArrayList<Runnable>(queue));
+    assertTrue(queue.remove(second));
+    queue.put(new Task());
+    assertEquals(2, queue.size());
+  }
+
+  static final class Task extends ExecutionQueue.Node implements Runnable {
+    private final Priority priority;
+
+    Task() {
+      this(Priority.NORMAL);
+    }
+
+    Task(Priority priority) {
+      this.priority = priority;
+    }
+
+    Task(long deadline) {
+      this(Priority.NORMAL);
+      this.expiring = true;
+      this.deadline = deadline;
+    }
+
+    volatile boolean dropped;
+
+    boolean expiring;
+
+    long deadline;
+
+    @Override
+    boolean expiring() {
+      return expiring;
+    }
+
+    @Override
+    long deadline() {
+      return deadline;
+    }
+
+    @Override
+    Priority priority() {
+      return priority;
     }
-    return thread;
+
+    @Override
+    void dropped() {
+      dropped = true;
+    }
+
+    public void run() {}
   }
 
   interface QueueQuery {
     Runnable ask() throws Exception;
   }
+
+  @Test
+  public void testWaitStrategies() throws Exception {
+    for (WaitStrategy waiting : new WaitStrategy[] { WaitStrategy.PARK, WaitStrategy.SPIN,
+        WaitStrategy.spinThenYield(10), WaitStrategy.spinThenPark(1000) }) {
+      queue = new ExecutionQueue(Integer.MAX_VALUE, OverloadPolicy.REJECT, ExecutionQueue.AGING,
+        TimeUnit.NANOSECONDS, waiting);
+      final AtomicReference<Runnable> taken = new AtomicReference<Runnable>();
+      Thread consumer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            taken.set(queue.take());
+          } catch (InterruptedException e) {}
+        }
+      };
+      consumer.start();
+      Task task = new Task();
+      // handed off only once the consumer waits
+      while (!queue.offer(task)) {
+        Thread.yield();
+      }
+      consumer.join(500);
+      assertSame(task, taken.get());
+      // spinning waits still time out
+      assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  @Test
+  public void testSpinningConsumerIsInterrupted() throws Exception {
+    queue = new ExecutionQueue(Integer.MAX_VALUE, OverloadPolicy.REJECT, ExecutionQueue.AGING,
+      TimeUnit.NANOSECONDS, WaitStrategy.SPIN);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          queue.take();
+        } catch (InterruptedException e) {
+          interrupted.countDown();
+        }
+      }
+    };
+    consumer.start();
+    consumer.interrupt();
+    assertTrue(interrupted.await(500, TimeUnit.MILLISECONDS));
+    // the cancelled waiter does not take the hand-off
+    assertFalse(queue.offer(new Task()));
+  }
 }
@@ -24,6 +24,8 @@ import static org.junit.Assert.assertTrue;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.security.AccessControlException;
 import java.security.Permission;
 import java.util.Arrays;
@@ -31,6 +33,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Exchanger;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
@@ -283,6 +286,176 @@ public class HandlingProcessorTest {
     assertSame(value, received.get());
   }
 
+  @Test
+  public void testDispatchIsResolvedOnce() {
+    ExceptionHandler handler = new CompletionAdapter() {
+      @Override
+      @RunOn(RuntimeExceptionTransferer.class)
+      public void onComplete() {}
+    };
+    HandlingProcessor.Dispatch dispatch = (HandlingProcessor.Dispatch) HandlingProcessor
+      .dispatchOf(handler.getClass());
+    assertSame(dispatch, HandlingProcessor.dispatchOf(handler.getClass()));
+    assertSame(ThreadTransferers.of(RuntimeExceptionTransferer.class), dispatch.completeTransferer);
+    assertNull(dispatch.finallyTransferer);
+    // the handler is not a ResponseHandler nor a ProgressHandler
+    assertNull(dispatch.responseTransferer);
+    assertNull(dispatch.progressTransferer);
+  }
+
+  @Test
+  public void testDispatchesOf() {
+    ExceptionHandler first = new ExceptionAdapter() {};
+    ExceptionHandler second = new ResponseAdapter<String>() {
+      @Override
+      @RunOn(ErrorTransferer.class)
+      public void onResponse(Result<String> value) {}
+    };
+    HandlerDispatcher[] dispatchers = HandlingProcessor.dispatchesOf(new ExceptionHandler[] {
+      first, second });
+    assertEquals(2, dispatchers.length);
+    assertSame(HandlingProcessor.dispatchOf(first.getClass()), dispatchers[0]);
+    assertSame(HandlingProcessor.dispatchOf(second.getClass()), dispatchers[1]);
+    assertSame(ThreadTransferers.of(ErrorTransferer.class),
+      ((HandlingProcessor.Dispatch) dispatchers[1]).responseTransferer);
+  }
+
+  @Test
+  public void testExceptionMatchIsMemoized() {
+    ExceptionHandler handler = new ExceptionAdapter() {
+      public void onException(IOException exception) {}
+    };
+    HandlingProcessor.Dispatch dispatch = (HandlingProcessor.Dispatch) HandlingProcessor
+      .dispatchOf(handler.getClass());
+    HandlingProcessor.ExceptionMatch match = dispatch.onException(FileNotFoundException.class);
+    assertTrue(match.specific);
+    assertEquals(IOException.class, match.method.getParameterTypes()[0]);
+    assertSame(match, dispatch.onException(FileNotFoundException.class));
+
+    HandlingProcessor.ExceptionMatch fallback = dispatch.onException(NullPointerException.class);
+    assertFalse(fallback.specific);
+    assertSame(fallback, dispatch.onException(NullPointerException.class));
+  }
+
+  @Test
+  public void testExceptionMatchOfChildLoaderIsNotMemoized() throws Exception {
+    ExceptionHandler handler = new ExceptionAdapter() {
+      public void onException(IOException exception) {}
+    };
+    HandlingProcessor.Dispatch dispatch = (HandlingProcessor.Dispatch) HandlingProcessor
+      .dispatchOf(handler.getClass());
+    // the same class, loaded by a loader that is not an ancestor of the one of the handler
+    URL location = Plugged.class.getProtectionDomain().getCodeSource().getLocation();
+    URLClassLoader plugin = new URLClassLoader(new URL[] { location }, null);
+    Class<?> plugged = plugin.loadClass(Plugged.class.getName());
+    assertNotSame(Plugged.class, plugged);
+    HandlingProcessor.ExceptionMatch match = dispatch.onException(plugged);
+    assertFalse(match.specific);
+    assertNotSame(match, dispatch.onException(plugged));
+
+    assertSame(dispatch.onException(Plugged.class), dispatch.onException(Plugged.class));
+  }
+
+  public static class Plugged extends Exception {}
+
+  @Test
+  public void testExceptionMatchKeepsTransferOfFallback() {
+    ExceptionHandler handler = new ExceptionAdapter() {
+      @Override
+      @RunOn(ErrorTransferer.class)
+      public void onException(Throwable exception) {}
+    };
+    HandlingProcessor.ExceptionMatch match = ((HandlingProcessor.Dispatch) HandlingProcessor
+      .dispatchOf(handler.getClass())).onException(NullPointerException.class);
+    assertFalse(match.specific);
+    assertSame(ThreadTransferers.of(ErrorTransferer.class), match.transferer);
+  }
+
+  @Test
+  public void testTransfererInstanceIsShared() {
+    ThreadTransferer transferer = ThreadTransferers.of(CountingTransferer.class);
+    assertTrue(transferer instanceof CountingTransferer);
+    assertSame(transferer, ThreadTransferers.of(CountingTransferer.class));
+  }
+
+  @Test
+  public void testTransferredUnlessOnTargetThread() {
+    final AtomicInteger received = new AtomicInteger();
+    CompletionHandler handler = new CompletionAdapter() {
+      @Override
+      @RunOn(CountingTransferer.class)
+      public void onComplete() {
+        received.incrementAndGet();
+      }
+    };
+    CountingTransferer transferer = (CountingTransferer) ThreadTransferers
+      .of(CountingTransferer.class);
+    transferer.transfers.set(0);
+    transferer.onTarget = false;
+    HandlingProcessor.complete(handler);
+    assertEquals(1, transferer.transfers.get());
+    transferer.onTarget = true;
+    HandlingProcessor.complete(handler);
+    assertEquals(1, transferer.transfers.get());
+    assertEquals(2, received.get());
+  }
+
+  @Test
+  public void testRegisteredTransfererTakesPrecedence() {
+    final AtomicInteger transfers = new AtomicInteger();
+    ThreadTransferers.register(ErrorTransferer.class, new ThreadTransferer() {
+      @Override
+      public boolean isOnTargetThread() {
+        return false;
+      }
+
+      @Override
+      public void execute(Runnable runnable) {
+        transfers.incrementAndGet();
+        runnable.run();
+      }
+
+      @Override
+      public void transfer(Runnable[] runnables) {
+        throw new UnsupportedOperationException();
+      }
+    });
+    try {
+      final AtomicBoolean received = new AtomicBoolean();
+      HandlingProcessor.complete(new CompletionAdapter() {
+        @Override
+        @RunOn(ErrorTransferer.class)
+        public void onComplete() {
+          received.set(true);
+        }
+      });
+      assertTrue(received.get());
+      assertEquals(1, transfers.get());
+    } finally {
+      ThreadTransferers.unregister(ErrorTransferer.class);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidTransferClass() {
+    ThreadTransferers.of(Object.class);
+  }
+
+  @Test
+  public void testStaticTransfererBatch() {
+    final AtomicInteger received = new AtomicInteger();
+    Runnable run = new Runnable() {
+      @Override
+      public void run() {
+        received.incrementAndGet();
+      }
+    };
+    ThreadTransferer transferer = ThreadTransferers.of(InlineTransferer.class);
+    assertFalse(transferer.isOnTargetThread());
+    transferer.transfer(new Runnable[] { run, run, run });
+    assertEquals(3, received.get());
+  }
+
   private static class SimpleResult<T> implements Result<T> {
     private final T value;
     SimpleResult(T value) {
@@ -333,4 +506,34 @@ public class HandlingProcessorTest {
       throw new Error();
     }
   }
+
+  static class InlineTransferer {
+    public static void transfer(Runnable run) {
+      run.run();
+    }
+  }
+
+  private static class CountingTransferer implements ThreadTransferer {
+    final AtomicInteger transfers = new AtomicInteger();
+
+    volatile boolean onTarget;
+
+    @Override
+    public boolean isOnTargetThread() {
+      return onTarget;
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+      transfers.incrementAndGet();
+      runnable.run();
+    }
+
+    @Override
+    public void transfer(Runnable[] runnables) {
+      for (Runnable runnable : runnables) {
+        execute(runnable);
+      }
+    }
+  }
 }
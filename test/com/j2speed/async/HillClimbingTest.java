@@ -0,0 +1,69 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HillClimbingTest {
+
+  @Test
+  public void testGrowsWhileThroughputImproves() {
+    HillClimbing climbing = new HillClimbing(1, 4);
+    assertEquals(2, climbing.next(1, 100, true, 1));
+    assertEquals(3, climbing.next(2, 200, true, 2));
+    assertEquals(4, climbing.next(3, 300, true, 3));
+    // capped at the maximum
+    assertEquals(4, climbing.next(4, 400, true, 4));
+  }
+
+  @Test
+  public void testReversesWhenThroughputDrops() {
+    HillClimbing climbing = new HillClimbing(1, 8);
+    assertEquals(3, climbing.next(2, 100, true, 2));
+    assertEquals(2, climbing.next(3, 50, true, 3));
+    assertEquals(1, climbing.next(2, 100, true, 2));
+  }
+
+  @Test
+  public void testProbesDownWhenThroughputIsFlat() {
+    HillClimbing climbing = new HillClimbing(1, 8);
+    assertEquals(4, climbing.next(3, 100, true, 3));
+    assertEquals(3, climbing.next(4, 105, true, 4));
+    // fewer threads made it worse, so back up
+    assertEquals(4, climbing.next(3, 50, true, 3));
+  }
+
+  @Test
+  public void testGrowsWhenStarving() {
+    HillClimbing climbing = new HillClimbing(1, 3);
+    assertEquals(2, climbing.next(1, 0, true, 1));
+    assertEquals(3, climbing.next(2, 0, true, 2));
+    assertEquals(3, climbing.next(3, 0, true, 3));
+  }
+
+  @Test
+  public void testReleasesIdleThreadsWithoutBacklog() {
+    HillClimbing climbing = new HillClimbing(2, 8);
+    assertEquals(4, climbing.next(5, 100, false, 1));
+    assertEquals(3, climbing.next(4, 100, false, 1));
+    assertEquals(2, climbing.next(3, 100, false, 0));
+    assertEquals(2, climbing.next(2, 100, false, 0));
+    // all busy, no reason to change
+    assertEquals(5, climbing.next(5, 100, false, 5));
+  }
+}
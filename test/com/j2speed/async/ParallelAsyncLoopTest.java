@@ -0,0 +1,214 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelAsyncLoopTest {
+  private static final int SIZE = 10000;
+
+  private DefaultRunner runner;
+
+  @Before
+  public void setUp() {
+    runner = new DefaultRunner(4, "test-runner");
+  }
+
+  @After
+  public void tearDown() {
+    runner.shutdown();
+  }
+
+  @Test
+  public void testOrdered() throws InterruptedException {
+    final List<Long> received = new ArrayList<Long>();
+    final CountDownLatch finished = new CountDownLatch(1);
+    final AtomicInteger completions = new AtomicInteger();
+    runner.start(new ParallelAsyncLoop<Long>(0, SIZE, 4, true) {
+      @Override
+      protected Long next(long index) {
+        return Long.valueOf(index);
+      }
+    }, new ProgressAdapter<Long>() {
+      @Override
+      public void onProgress(Progress<Long> progress) {
+        received.add(progress.get());
+      }
+
+      @Override
+      public void onComplete() {
+        completions.incrementAndGet();
+      }
+
+      @Override
+      public void onFinally() {
+        finished.countDown();
+      }
+    });
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertEquals(1, completions.get());
+    assertEquals(SIZE, received.size());
+    for (int i = 0; i < SIZE; i++) {
+      assertEquals(i, received.get(i).longValue());
+    }
+  }
+
+  @Test
+  public void testUnordered() throws InterruptedException {
+    final List<Long> received = Collections.synchronizedList(new ArrayList<Long>());
+    final CountDownLatch finished = new CountDownLatch(1);
+    final AtomicInteger completions = new AtomicInteger();
+    runner.start(new ParallelAsyncLoop<Long>(10, 10 + SIZE, 4, false) {
+      @Override
+      protected Long next(long index) {
+        return Long.valueOf(index);
+      }
+    }, new ProgressAdapter<Long>() {
+      @Override
+      public void onProgress(Progress<Long> progress) {
+        received.add(progress.get());
+      }
+
+      @Override
+      public void onComplete() {
+        completions.incrementAndGet();
+      }
+
+      @Override
+      public void onFinally() {
+        finished.countDown();
+      }
+    });
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertEquals(1, completions.get());
+    Set<Long> values = new HashSet<Long>(received);
+    assertEquals(SIZE, received.size());
+    assertEquals(SIZE, values.size());
+    for (long i = 10; i < 10 + SIZE; i++) {
+      assertTrue(values.contains(Long.valueOf(i)));
+    }
+  }
+
+  @Test
+  public void testBatchingDeliversAllBeforeCompletion() throws InterruptedException {
+    final int size = 200000;
+    final AtomicInteger received = new AtomicInteger();
+    final AtomicInteger atCompletion = new AtomicInteger(-1);
+    final CountDownLatch finished = new CountDownLatch(1);
+    runner.start(new ParallelAsyncLoop<Long>(0, size, 4, false) {
+      @Override
+      protected Long next(long index) {
+        return Long.valueOf(index);
+      }
+    }, HandlerSet.batching(size / 2, 0, TimeUnit.MILLISECONDS, new BatchProgressAdapter<Long>() {
+      @Override
+      public void onProgressBatch(List<Long> values) {
+        received.addAndGet(values.size());
+      }
+
+      @Override
+      public void onComplete() {
+        atCompletion.set(received.get());
+      }
+
+      @Override
+      public void onFinally() {
+        finished.countDown();
+      }
+    }));
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertEquals(size, atCompletion.get());
+  }
+
+  @Test
+  public void testFailureStopsSplits() throws InterruptedException {
+    final Exception failure = new Exception();
+    final AtomicReference<Throwable> reported = new AtomicReference<Throwable>();
+    final AtomicInteger iterations = new AtomicInteger();
+    final CountDownLatch finished = new CountDownLatch(1);
+    runner.start(new ParallelAsyncLoop<Long>(0, SIZE, 4, false) {
+      @Override
+      protected Long next(long index) throws Exception {
+        iterations.incrementAndGet();
+        if (index == 100) {
+          throw failure;
+        }
+        return Long.valueOf(index);
+      }
+    }, new ProgressAdapter<Long>() {
+      @Override
+      public void onException(Throwable e) {
+        reported.set(e);
+      }
+
+      @Override
+      public void onFinally() {
+        finished.countDown();
+      }
+    });
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertSame(failure, reported.get());
+    assertTrue(iterations.get() < SIZE);
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch finished = new CountDownLatch(1);
+    AsyncRun run = runner.start(new ParallelAsyncLoop<Long>(0, Long.MAX_VALUE, 4, true) {
+      @Override
+      protected Long next(long index) {
+        started.countDown();
+        return null;
+      }
+    }, new ProgressAdapter<Long>() {
+      @Override
+      public void onFinally() {
+        finished.countDown();
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    run.cancel();
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertTrue(run.isCancelled());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNeedsParallelism() {
+    new ParallelAsyncLoop<Long>(0, 1, 0, true) {
+      @Override
+      protected Long next(long index) {
+        return null;
+      }
+    };
+  }
+}
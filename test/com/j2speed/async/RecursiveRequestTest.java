@@ -0,0 +1,228 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecursiveRequestTest {
+  private static final int SIZE = 100000;
+
+  private DefaultRunner runner;
+
+  @Before
+  public void setUp() {
+    runner = new DefaultRunner(4, "test-runner");
+  }
+
+  @After
+  public void tearDown() {
+    runner.shutdown();
+  }
+
+  @Test
+  public void testSum() throws InterruptedException {
+    final AtomicReference<Long> sum = new AtomicReference<Long>();
+    final CountDownLatch responded = new CountDownLatch(1);
+    runner.start(new Sum(0, SIZE, null, null), new ResponseAdapter<Long>() {
+      @Override
+      public void onResponse(Result<Long> value) {
+        sum.set(value.get());
+        responded.countDown();
+      }
+    });
+    assertTrue(responded.await(5, TimeUnit.SECONDS));
+    assertEquals((long) SIZE * (SIZE - 1) / 2, sum.get().longValue());
+  }
+
+  @Test
+  public void testRejectedPartsAreSolvedInline() throws InterruptedException {
+    ReentrantExecutor executor = new ReentrantExecutor(0, 1, Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+      "test-runner", 1, OverloadPolicy.REJECT);
+    DefaultRunner runner = new DefaultRunner(executor);
+    try {
+      final AtomicReference<Long> sum = new AtomicReference<Long>();
+      final AtomicReference<Throwable> reported = new AtomicReference<Throwable>();
+      final CountDownLatch finished = new CountDownLatch(1);
+      runner.start(new Sum(0, SIZE, null, null), new ResponseAdapter<Long>() {
+        @Override
+        public void onResponse(Result<Long> value) {
+          sum.set(value.get());
+        }
+
+        @Override
+        public void onException(Throwable e) {
+          reported.set(e);
+        }
+
+        @Override
+        public void onFinally() {
+          finished.countDown();
+        }
+      });
+      assertTrue(finished.await(5, TimeUnit.SECONDS));
+      assertNull(reported.get());
+      assertEquals((long) SIZE * (SIZE - 1) / 2, sum.get().longValue());
+      assertTrue(executor.getOverloadCount() > 0);
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  @Test
+  public void testSumInline() {
+    final AtomicReference<Long> sum = new AtomicReference<Long>();
+    SyncRunner.get().start(new Sum(0, SIZE, null, null), new ResponseAdapter<Long>() {
+      @Override
+      public void onResponse(Result<Long> value) {
+        sum.set(value.get());
+      }
+    });
+    assertEquals((long) SIZE * (SIZE - 1) / 2, sum.get().longValue());
+  }
+
+  @Test
+  public void testSmallIsComputed() throws InterruptedException {
+    final AtomicInteger splits = new AtomicInteger();
+    final AtomicReference<Long> sum = new AtomicReference<Long>();
+    final CountDownLatch responded = new CountDownLatch(1);
+    runner.start(new Sum(0, 100, null, null) {
+      @Override
+      protected List<Sum> split() {
+        splits.incrementAndGet();
+        return super.split();
+      }
+    }, new ResponseAdapter<Long>() {
+      @Override
+      public void onResponse(Result<Long> value) {
+        sum.set(value.get());
+        responded.countDown();
+      }
+    });
+    assertTrue(responded.await(5, TimeUnit.SECONDS));
+    assertEquals(0, splits.get());
+    assertEquals(4950, sum.get().longValue());
+  }
+
+  @Test
+  public void testFailure() throws InterruptedException {
+    final Exception failure = new Exception();
+    final AtomicReference<Throwable> reported = new AtomicReference<Throwable>();
+    final AtomicReference<Long> sum = new AtomicReference<Long>();
+    final CountDownLatch finished = new CountDownLatch(1);
+    runner.start(new Sum(0, SIZE, failure, null), new ResponseAdapter<Long>() {
+      @Override
+      public void onResponse(Result<Long> value) {
+        sum.set(value.get());
+        finished.countDown();
+      }
+
+      @Override
+      public void onException(Throwable e) {
+        reported.set(e);
+        finished.countDown();
+      }
+    });
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertSame(failure, reported.get());
+    assertNull(sum.get());
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    final CountDownLatch computing = new CountDownLatch(1);
+    final CountDownLatch responded = new CountDownLatch(1);
+    AsyncRun run = runner.start(new Sum(0, SIZE, null, computing), new ResponseAdapter<Long>() {
+      @Override
+      public void onResponse(Result<Long> value) {
+        responded.countDown();
+      }
+    });
+    assertTrue(computing.await(5, TimeUnit.SECONDS));
+    run.cancel();
+    long start = System.currentTimeMillis();
+    while ((System.currentTimeMillis() - start < 5000) && !run.isDone()) {
+      Thread.sleep(10);
+    }
+    assertTrue(run.isDone());
+    assertTrue(run.isCancelled());
+    assertEquals(1, responded.getCount());
+  }
+
+  /**
+   * Sums the indices of a range, failing with the specified exception at its middle, if any, or
+   * blocking until cancelled once computing, if a latch to count down is specified.
+   */
+  private static class Sum extends RecursiveRequest<Long> {
+    private final int from;
+    private final int to;
+    private final Exception failure;
+    private final CountDownLatch computing;
+
+    Sum(int from, int to, Exception failure, CountDownLatch computing) {
+      this.from = from;
+      this.to = to;
+      this.failure = failure;
+      this.computing = computing;
+    }
+
+    @Override
+    protected boolean isSmall() {
+      return to - from <= 1000;
+    }
+
+    @Override
+    protected Long compute(State state) throws Exception {
+      if (computing != null) {
+        computing.countDown();
+        new CountDownLatch(1).await();
+      }
+      long sum = 0;
+      for (int i = from; i < to; i++) {
+        if (failure != null && i == SIZE / 2) {
+          throw failure;
+        }
+        sum += i;
+      }
+      return Long.valueOf(sum);
+    }
+
+    @Override
+    protected List<Sum> split() {
+      int middle = (from + to) >>> 1;
+      return Arrays.asList(new Sum(from, middle, failure, computing), new Sum(middle, to,
+        failure, computing));
+    }
+
+    @Override
+    protected Long combine(List<Long> results) {
+      return Long.valueOf(results.get(0).longValue() + results.get(1).longValue());
+    }
+  }
+}
@@ -16,11 +16,16 @@
 package com.j2speed.async;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
@@ -119,4 +124,165 @@ public class ReentrantExecutorTest {
       executor.shutdown();
     }
   }
+
+  @Test
+  public void testCancelBufferedTasks() throws InterruptedException {
+    final ReentrantExecutor executor = new ReentrantExecutor(1, TEST_EXECUTOR);
+    final AtomicBoolean ran = new AtomicBoolean();
+    try {
+      final CountDownLatch running = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      // keep the only thread busy, so that the next tasks are buffered
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          running.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      assertTrue(running.await(TIMEOUT, TimeUnit.MILLISECONDS));
+      Runnable cancelled = new Runnable() {
+        @Override
+        public void run() {
+          ran.set(true);
+        }
+      };
+      Runnable pending = new Runnable() {
+        @Override
+        public void run() {
+          ran.set(true);
+        }
+      };
+      executor.execute(cancelled);
+      executor.execute(pending);
+      assertTrue(executor.cancel(cancelled));
+      assertFalse(executor.cancel(cancelled));
+      List<Runnable> pendings = executor.cancelPendings();
+      assertEquals(1, pendings.size());
+      assertSame(pending, pendings.get(0));
+      release.countDown();
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(executor.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS));
+    assertFalse(ran.get());
+  }
+
+  @Test
+  public void testAdaptiveGrowsUnderBlockingLoad() throws InterruptedException {
+    final ReentrantExecutor executor = new ReentrantExecutor(1, 8, TEST_EXECUTOR, 20,
+      TimeUnit.MILLISECONDS);
+    try {
+      assertTrue(executor.isAdaptive());
+      assertEquals(1, executor.getTargetPoolSize());
+      final CountDownLatch done = new CountDownLatch(200);
+      for (int i = 0; i < 200; i++) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              Thread.sleep(5);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            done.countDown();
+          }
+        });
+      }
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertTrue(executor.getAdjustmentCount() > 0);
+      assertTrue(executor.getThroughput() > 0);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAdaptiveReleasesIdleThreads() throws InterruptedException {
+    final ReentrantExecutor executor = new ReentrantExecutor(1, 4, TEST_EXECUTOR, 10,
+      TimeUnit.MILLISECONDS);
+    try {
+      final CountDownLatch release = new CountDownLatch(1);
+      for (int i = 0; i < 20; i++) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+      }
+      long start = System.currentTimeMillis();
+      while ((System.currentTimeMillis() - start < 2000) && executor.getTargetPoolSize() < 4) {
+        Thread.sleep(10);
+      }
+      assertEquals(4, executor.getTargetPoolSize());
+      release.countDown();
+      start = System.currentTimeMillis();
+      while ((System.currentTimeMillis() - start < 2000) && executor.getPoolSize() > 1) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, executor.getTargetPoolSize());
+      assertEquals(1, executor.getPoolSize());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAdaptiveNeedsAThread() {
+    new ReentrantExecutor(0, 4, TEST_EXECUTOR, 10, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testExecuteAll() throws InterruptedException {
+    final ReentrantExecutor executor = new ReentrantExecutor(2, TEST_EXECUTOR);
+    try {
+      final CountDownLatch done = new CountDownLatch(1000);
+      List<Runnable> tasks = new ArrayList<Runnable>();
+      for (int i = 0; i < 1000; i++) {
+        tasks.add(new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        });
+      }
+      assertEquals(1000, executor.executeAll(tasks));
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertTrue(executor.getPoolSize() <= 2);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testSpinningWorkers() throws InterruptedException {
+    WaitStrategy waiting = WaitStrategy.spinThenPark(1000);
+    final ReentrantExecutor executor = new ReentrantExecutor(2, TEST_EXECUTOR, waiting);
+    try {
+      assertSame(waiting, executor.getWaitStrategy());
+      for (int i = 0; i < 100; i++) {
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        });
+        assertTrue(done.await(500, TimeUnit.MILLISECONDS));
+      }
+      assertTrue(executor.getPoolSize() <= 2);
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(executor.awaitTermination(500, TimeUnit.MILLISECONDS));
+  }
 }
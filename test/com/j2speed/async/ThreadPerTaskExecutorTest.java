@@ -0,0 +1,213 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ThreadPerTaskExecutorTest {
+  private static final long TIMEOUT = 5000;
+
+  private static final ThreadFactory FACTORY = new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "test-executor");
+      thread.setDaemon(true);
+      return thread;
+    }
+  };
+
+  @Test
+  public void testExecutorThreadReentrance() throws InterruptedException {
+    final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor(FACTORY);
+    try {
+      final CountDownLatch done = new CountDownLatch(1);
+      final AtomicReference<Thread> outer = new AtomicReference<Thread>();
+      final AtomicReference<Thread> inner = new AtomicReference<Thread>();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          outer.set(Thread.currentThread());
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              inner.set(Thread.currentThread());
+            }
+          });
+          done.countDown();
+        }
+      });
+      if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+        fail("timeout");
+      }
+      assertSame(outer.get(), inner.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testConcurrencyIsCapped() throws InterruptedException {
+    final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor(2, FACTORY);
+    try {
+      final AtomicInteger running = new AtomicInteger();
+      final AtomicInteger maximum = new AtomicInteger();
+      final CountDownLatch done = new CountDownLatch(10);
+      for (int i = 0; i < 10; i++) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            int count = running.incrementAndGet();
+            for (int max = maximum.get(); count > max && !maximum.compareAndSet(max, count); max = maximum.get());
+            try {
+              Thread.sleep(10);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            done.countDown();
+          }
+        });
+      }
+      if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+        fail("timeout");
+      }
+      assertEquals(2, maximum.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCancelPendingTasks() throws InterruptedException {
+    final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor(1, FACTORY);
+    final AtomicBoolean ran = new AtomicBoolean();
+    try {
+      final CountDownLatch running = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      // take the only slot, so that the next tasks wait
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          running.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      assertTrue(running.await(TIMEOUT, TimeUnit.MILLISECONDS));
+      Runnable cancelled = new Runnable() {
+        @Override
+        public void run() {
+          ran.set(true);
+        }
+      };
+      Runnable pending = new Runnable() {
+        @Override
+        public void run() {
+          ran.set(true);
+        }
+      };
+      executor.execute(cancelled);
+      executor.execute(pending);
+      assertTrue(executor.cancel(cancelled));
+      assertFalse(executor.cancel(cancelled));
+      List<Runnable> pendings = executor.cancelPendings();
+      assertEquals(1, pendings.size());
+      assertSame(pending, pendings.get(0));
+      release.countDown();
+    } finally {
+      executor.shutdown();
+    }
+    assertFalse(ran.get());
+  }
+
+  @Test
+  public void testCancelInterruptsTheRunningJob() throws InterruptedException {
+    DefaultRunner runner = new DefaultRunner(new ThreadPerTaskExecutor(FACTORY));
+    try {
+      final CountDownLatch running = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(1);
+      AsyncRun run = runner.start(new AsyncCompletion() {
+        @Override
+        public void run(State state) throws InterruptedException {
+          running.countDown();
+          Thread.sleep(TIMEOUT);
+        }
+
+        @Override
+        public void onFinally() {
+          done.countDown();
+        }
+      });
+      assertTrue(running.await(TIMEOUT, TimeUnit.MILLISECONDS));
+      run.cancel();
+      if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+        fail("timeout");
+      }
+      assertTrue(run.isCancelled());
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  @Test
+  public void testOneThreadPerTask() throws InterruptedException {
+    final AtomicInteger threads = new AtomicInteger();
+    final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor(4, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        threads.incrementAndGet();
+        return FACTORY.newThread(r);
+      }
+    });
+    try {
+      final CountDownLatch done = new CountDownLatch(1000);
+      for (int i = 0; i < 1000; i++) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        });
+      }
+      assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+      assertEquals(1000, threads.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidConcurrency() {
+    new ThreadPerTaskExecutor(0, FACTORY);
+  }
+}
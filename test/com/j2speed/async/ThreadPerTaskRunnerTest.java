@@ -0,0 +1,40 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.After;
+import org.junit.Before;
+
+public class ThreadPerTaskRunnerTest extends AsyncRunnerTest<DefaultRunner> {
+  @Before
+  public void setUp() {
+    runner = new DefaultRunner(new ThreadPerTaskExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "test-runner");
+        thread.setDaemon(true);
+        return thread;
+      }
+    }));
+  }
+
+  @After
+  public void tearDown() {
+    runner.shutdown();
+  }
+}
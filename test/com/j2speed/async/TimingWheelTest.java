@@ -0,0 +1,125 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+  private TimingWheel wheel;
+
+  @Before
+  public void setUp() {
+    wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8, "test-wheel");
+  }
+
+  @After
+  public void tearDown() {
+    wheel.stop();
+  }
+
+  @Test
+  public void testExpiresInDeadlineOrder() throws InterruptedException {
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(4);
+    long now = System.nanoTime();
+    // beyond the 8 buckets, so that some timers wait for rounds
+    for (final int millis : new int[] { 30, 5, 20, 12 }) {
+      wheel.schedule(new TimingWheel.Timer() {
+        @Override
+        void expire() {
+          order.add(millis);
+          done.countDown();
+        }
+      }, now + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+    assertEquals(4, wheel.size());
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(5, 12, 20, 30), order);
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testNotBeforeDeadline() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20);
+    final long[] expired = new long[1];
+    wheel.schedule(new TimingWheel.Timer() {
+      @Override
+      void expire() {
+        expired[0] = System.nanoTime();
+        done.countDown();
+      }
+    }, deadline);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(expired[0] - deadline >= 0);
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    final CountDownLatch expired = new CountDownLatch(1);
+    TimingWheel.Timer timer = wheel.schedule(new TimingWheel.Timer() {
+      @Override
+      void expire() {
+        expired.countDown();
+      }
+    }, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10));
+    assertTrue(timer.cancel());
+    assertFalse(timer.cancel());
+    assertEquals(0, wheel.size());
+    assertFalse(expired.await(50, TimeUnit.MILLISECONDS));
+    assertFalse(timer.isExpired());
+  }
+
+  @Test
+  public void testPastDeadlineExpiresAtNextTick() throws InterruptedException {
+    final CountDownLatch expired = new CountDownLatch(1);
+    // also wakes up the idle wheel
+    Thread.sleep(5);
+    TimingWheel.Timer timer = wheel.schedule(new TimingWheel.Timer() {
+      @Override
+      void expire() {
+        expired.countDown();
+      }
+    }, System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+    assertTrue(expired.await(5, TimeUnit.SECONDS));
+    assertTrue(timer.isExpired());
+    assertFalse(timer.cancel());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testScheduleOnce() {
+    TimingWheel.Timer timer = new TimingWheel.Timer() {
+      @Override
+      void expire() {}
+    };
+    wheel.schedule(timer, System.nanoTime());
+    wheel.schedule(timer, System.nanoTime());
+  }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class WorkStealingExecutorTest {
+  private static final long TIMEOUT = 5000;
+  private static final String TEST_EXECUTOR = "test-executor";
+
+  @Test
+  public void testExecutorThreadReentrance() throws InterruptedException {
+    final WorkStealingExecutor executor = new WorkStealingExecutor(1, TEST_EXECUTOR);
+    try {
+      final CountDownLatch done = new CountDownLatch(1);
+      final AtomicReference<Thread> outer = new AtomicReference<Thread>();
+      final AtomicReference<Thread> inner = new AtomicReference<Thread>();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          outer.set(Thread.currentThread());
+          // no other thread can steal it, so it must run inline
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              inner.set(Thread.currentThread());
+            }
+          });
+          done.countDown();
+        }
+      });
+      if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+        fail("timeout");
+      }
+      assertSame(outer.get(), inner.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testNestedTaskIsStolen() throws InterruptedException {
+    final WorkStealingExecutor executor = new WorkStealingExecutor(2, TEST_EXECUTOR);
+    try {
+      final CountDownLatch done = new CountDownLatch(1);
+      final AtomicReference<Thread> outer = new AtomicReference<Thread>();
+      final AtomicReference<Thread> inner = new AtomicReference<Thread>();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          outer.set(Thread.currentThread());
+          final CountDownLatch executed = new CountDownLatch(1);
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              inner.set(Thread.currentThread());
+              executed.countDown();
+            }
+          });
+          try {
+            // blocks the current thread, the other one has to steal the task
+            if (executed.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+              done.countDown();
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+        fail("timeout");
+      }
+      assertNotSame(outer.get(), inner.get());
+      assertEquals(2, executor.getPoolSize());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testRecursionDoesNotExhaustThreads() throws InterruptedException {
+    final WorkStealingExecutor executor = new WorkStealingExecutor(2, TEST_EXECUTOR);
+    try {
+      final AtomicInteger runs = new AtomicInteger();
+      final CountDownLatch done = new CountDownLatch(4);
+      for (int i = 0; i < 4; i++) {
+        executor.execute(new Recursion(executor, 50, runs, done));
+      }
+      if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+        fail("timeout");
+      }
+      assertEquals(4 * 51, runs.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testWorkerSurvivesErrors() throws InterruptedException {
+    final WorkStealingExecutor executor = new WorkStealingExecutor(1, TEST_EXECUTOR);
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          throw new AssertionError("expected");
+        }
+      });
+      final CountDownLatch ran = new CountDownLatch(1);
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          ran.countDown();
+        }
+      });
+      assertTrue(ran.await(TIMEOUT, TimeUnit.MILLISECONDS));
+      assertEquals(1, executor.getPoolSize());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCancelPendingTasks() throws InterruptedException {
+    final WorkStealingExecutor executor = new WorkStealingExecutor(1, TEST_EXECUTOR);
+    final AtomicBoolean ran = new AtomicBoolean();
+    try {
+      final CountDownLatch running = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      // keep the only thread busy, so that the next tasks are queued
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          running.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      assertTrue(running.await(TIMEOUT, TimeUnit.MILLISECONDS));
+      Runnable cancelled = new Runnable() {
+        @Override
+        public void run() {
+          ran.set(true);
+        }
+      };
+      Runnable pending = new Runnable() {
+        @Override
+        public void run() {
+          ran.set(true);
+        }
+      };
+      executor.execute(cancelled);
+      executor.execute(pending);
+      assertTrue(executor.cancel(cancelled));
+      assertFalse(executor.cancel(cancelled));
+      List<Runnable> pendings = executor.cancelPendings();
+      assertEquals(1, pendings.size());
+      assertSame(pending, pendings.get(0));
+      release.countDown();
+    } finally {
+      executor.shutdown();
+    }
+    assertFalse(ran.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidParallelism() {
+    new WorkStealingExecutor(0, TEST_EXECUTOR);
+  }
+
+  /**
+   * Executes the next level and blocks until it is done.
+   */
+  private static final class Recursion implements Runnable {
+    private final WorkStealingExecutor executor;
+    private final int depth;
+    private final AtomicInteger runs;
+    private final CountDownLatch done;
+
+    Recursion(WorkStealingExecutor executor, int depth, AtomicInteger runs, CountDownLatch done) {
+      this.executor = executor;
+      this.depth = depth;
+      this.runs = runs;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      runs.incrementAndGet();
+      if (depth == 0) {
+        done.countDown();
+        return;
+      }
+      final CountDownLatch level = new CountDownLatch(1);
+      executor.execute(new Recursion(executor, depth - 1, runs, level));
+      try {
+        if (level.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+          done.countDown();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async;
+
+import org.junit.After;
+import org.junit.Before;
+
+public class WorkStealingRunnerTest extends AsyncRunnerTest<DefaultRunner> {
+  private static final String TEST_RUNNER = "test-runner";
+
+  @Before
+  public void setUp() {
+    runner = new DefaultRunner(new WorkStealingExecutor(1, TEST_RUNNER));
+  }
+
+  @After
+  public void tearDown() {
+    runner.shutdown();
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright  2011 J2Speed. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.j2speed.async.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j2speed.async.BatchProgressHandler;
+import com.j2speed.async.ExceptionHandler;
+import com.j2speed.async.HandlerDispatcher;
+import com.j2speed.async.Progress;
+import com.j2speed.async.ProgressHandler;
+import com.j2speed.async.Request;
+import com.j2speed.async.ResponseHandler;
+import com.j2speed.async.State;
+import com.j2speed.async.SyncRunner;
+
+@SuppressWarnings("all")
+@edu.umd.cs.findbugs.annotations.SuppressWarnings
+public class DispatcherProcessorTest {
+
+  private static final String HANDLER = "package com.acme;\n"
+    + "import java.io.*;\n"
+    + "import java.util.*;\n"
+    + "import com.j2speed.async.*;\n"
+    + "public class Handler extends AsyncProgress<String> implements ResponseHandler<String>,\n"
+    + "  BatchProgressHandler<String> {\n"
+    + "  public final List<String> calls = new ArrayList<String>();\n"
+    + "  public void run(ProgressState<String> state) {}\n"
+    + "  public void onResponse(Result<String> result) { calls.add(\"response \" + result.get()); }\n"
+    + "  public void onProgress(Progress<String> progress) { calls.add(\"progress \" + progress.get()); }\n"
+    + "  @RunOn(Direct.class) public void onProgressBatch(List<String> values) {\n"
+    + "    calls.add(\"batch \" + values);\n"
+    + "  }\n"
+    + "  @RunOn(Direct.class) public void onComplete() { calls.add(\"complete\"); }\n"
+    + "  @RunOn(Here.class) public void onFinally() { calls.add(\"finally\"); }\n"
+    + "  public void onException(Throwable t) { calls.add(\"throwable\"); }\n"
+    + "  public void onException(IOException e) { calls.add(\"io\"); }\n"
+    + "  public void onException(FileNotFoundException e) throws Exception {\n"
+    + "    throw new Exception(\"checked\");\n"
+    + "  }\n"
+    + "  public static class Direct {\n"
+    + "    public static int transfers;\n"
+    + "    public static void transfer(Runnable run) { transfers++; run.run(); }\n"
+    + "  }\n"
+    + "  public static class Here implements ThreadTransferer {\n"
+    + "    public static int executions;\n"
+    + "    public boolean isOnTargetThread() { return true; }\n"
+    + "    public void execute(Runnable run) { executions++; run.run(); }\n"
+    + "    public void transfer(Runnable[] runs) { executions++; }\n"
+    + "  }\n"
+    + "  public static class Plain extends ExceptionAdapter {}\n"
+    + "  private static class Hidden extends ExceptionAdapter {}\n"
+    + "}\n";
+
+  private File output;
+
+  private Class<?> handlerClass;
+
+  private ExceptionHandler handler;
+
+  private HandlerDispatcher dispatcher;
+
+  @Before
+  public void setUp() throws Exception {
+    output = File.createTempFile("dispatchers", "");
+    output.delete();
+    output.mkdirs();
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    List<String> options = Arrays.asList("-d", output.getPath(), "-classpath",
+      System.getProperty("java.class.path"), "-processor", DispatcherProcessor.class.getName());
+    JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///com/acme/Handler.java"),
+      JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return HANDLER;
+      }
+    };
+    assertTrue(compiler.getTask(null, null, null, options, null, Arrays.asList(source)).call());
+    ClassLoader loader = new URLClassLoader(new URL[] { output.toURI().toURL() }, getClass()
+      .getClassLoader());
+    handlerClass = loader.loadClass("com.acme.Handler");
+    handler = (ExceptionHandler) handlerClass.newInstance();
+    dispatcher = (HandlerDispatcher) loader.loadClass("com.acme.Handler" + HandlerDispatcher.SUFFIX)
+      .newInstance();
+  }
+
+  @After
+  public void tearDown() {
+    delete(output);
+  }
+
+  @Test
+  public void testOnlyAccessibleHandlersAreGenerated() {
+    assertTrue(new File(output, "com/acme/Handler$$Dispatcher.class").exists());
+    assertTrue(!new File(output, "com/acme/Handler$Direct$$Dispatcher.class").exists());
+    assertTrue(!new File(output, "com/acme/Handler$Hidden$$Dispatcher.class").exists());
+    // implements every call-back, even the ones its class does not support
+    assertTrue(new File(output, "com/acme/Handler$Plain$$Dispatcher.class").exists());
+  }
+
+  @Test
+  public void testCallbacks() throws Exception {
+    dispatcher.onResponse((ResponseHandler<String>) handler, new Progress<String>() {
+      @Override
+      public String get() {
+        return "a";
+      }
+
+      @Override
+      public void cancel() {}
+    });
+    dispatcher.onProgress((ProgressHandler<String>) handler, new Progress<String>() {
+      @Override
+      public String get() {
+        return "b";
+      }
+
+      @Override
+      public void cancel() {}
+    });
+    dispatcher.onProgressBatch((BatchProgressHandler<String>) handler, Arrays.asList("c", "d"));
+    dispatcher.onComplete((ProgressHandler<String>) handler);
+    dispatcher.onFinally(handler);
+    assertEquals(Arrays.asList("response a", "progress b", "batch [c, d]", "complete", "finally"),
+      calls());
+    assertEquals(2, member("Direct").getField("transfers").get(null));
+    // already on the target thread
+    assertEquals(0, member("Here").getField("executions").get(null));
+  }
+
+  @Test
+  public void testTypedExceptions() throws Exception {
+    dispatcher.onException(handler, new EOFException());
+    dispatcher.onException(handler, new IOException());
+    dispatcher.onException(handler, new NullPointerException());
+    assertEquals(Arrays.asList("io", "io", "throwable"), calls());
+    try {
+      dispatcher.onException(handler, new FileNotFoundException());
+      fail();
+    } catch (RuntimeException e) {
+      assertEquals("checked", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testRunnerUsesGeneratedDispatcher() throws Exception {
+    SyncRunner.get().start(new Request<String>() {
+      @Override
+      public String run(State state) {
+        return "c";
+      }
+    }, (ResponseHandler<String>) handler);
+    assertEquals(Arrays.asList("response c", "finally"), calls());
+  }
+
+  private Class<?> member(String name) throws Exception {
+    return handlerClass.getClassLoader().loadClass(handlerClass.getName() + '$' + name);
+  }
+
+  private List<String> calls() throws Exception {
+    return (List<String>) handlerClass.getField("calls").get(handler);
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}